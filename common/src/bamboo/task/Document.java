@@ -24,6 +24,12 @@ public class Document {
     private String site;
     private long warcOffset;
 
+    /**
+     * The url as a schemeless SURT, precomputed by the indexer so consumers don't have to canonicalise it again.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String surt;
+
     public String getUrl() {
         return url;
     }
@@ -112,6 +118,14 @@ public class Document {
         return warcOffset;
     }
 
+    public String getSurt() {
+        return surt;
+    }
+
+    public void setSurt(String surt) {
+        this.surt = surt;
+    }
+
     public String getTextError() {
         return textError;
     }
@@ -0,0 +1,67 @@
+package bamboo.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Evaluates several SurtFilters at once. The rules of every filter are merged into one trie so a single walk over
+ * the SURT decides all of them, which matters when a crawl series feeds many collections.
+ */
+public class MultiSurtFilter {
+    private final int filterCount;
+    private final int[] owner;
+    private final boolean[] policy;
+    private final SurtTrie trie = new SurtTrie();
+
+    public MultiSurtFilter(List<SurtFilter> filters) {
+        filterCount = filters.size();
+        int ruleCount = 0;
+        for (SurtFilter filter : filters) {
+            ruleCount += filter.rules.size();
+        }
+        owner = new int[ruleCount];
+        policy = new boolean[ruleCount];
+
+        // ids increase through each filter's rules so the last match within a filter is still the largest id
+        int id = 0;
+        for (int i = 0; i < filters.size(); i++) {
+            for (SurtFilter.Rule rule : filters.get(i).rules) {
+                owner[id] = i;
+                policy[id] = rule.policy;
+                trie.add(rule.prefix, id);
+                id++;
+            }
+        }
+    }
+
+    /**
+     * Returns the set of indexes (in the order given to the constructor) of the filters which accept the SURT.
+     */
+    public BitSet accepting(String surt) {
+        int[] last = new int[filterCount];
+        Arrays.fill(last, -1);
+        SurtTrie node = trie;
+        int i = 0;
+        while (node != null) {
+            for (int id : node.ids) {
+                if (id > last[owner[id]]) {
+                    last[owner[id]] = id;
+                }
+            }
+            node = i < surt.length() ? node.child(surt.charAt(i++)) : null;
+        }
+
+        BitSet result = new BitSet(filterCount);
+        for (int f = 0; f < filterCount; f++) {
+            if (last[f] < 0 || policy[last[f]]) {
+                result.set(f);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return filterCount;
+    }
+}
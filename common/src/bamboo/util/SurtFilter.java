@@ -3,8 +3,16 @@ package bamboo.util;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Accepts or rejects SURTs according to a list of prefix rules. Each line is a prefix preceded by + (accept) or
+ * - (reject) and when several rules match the last one wins. SURTs matching no rule are accepted.
+ *
+ * The rules are compiled into a prefix trie so a decision costs a single walk over the SURT no matter how many rules
+ * there are.
+ */
 public class SurtFilter {
     final List<Rule> rules = new ArrayList<>();
+    private final SurtTrie trie = new SurtTrie();
 
     public SurtFilter(String ruleList) {
         for (String line : ruleList.split("\n")) {
@@ -13,16 +21,24 @@ public class SurtFilter {
                 rules.add(new Rule(line));
             }
         }
+        for (int i = 0; i < rules.size(); i++) {
+            trie.add(rules.get(i).prefix, i);
+        }
     }
 
     public boolean accepts(String surt) {
-        boolean decision = true;
-        for (Rule rule : rules) {
-            if (surt.startsWith(rule.prefix)) {
-                decision = rule.policy;
+        int last = -1;
+        SurtTrie node = trie;
+        int i = 0;
+        while (node != null) {
+            for (int id : node.ids) {
+                if (id > last) {
+                    last = id;
+                }
             }
+            node = i < surt.length() ? node.child(surt.charAt(i++)) : null;
         }
-        return decision;
+        return last < 0 || rules.get(last).policy;
     }
 
     @Override
@@ -42,7 +58,7 @@ public class SurtFilter {
         return rules != null ? rules.hashCode() : 0;
     }
 
-    private static class Rule {
+    static class Rule {
         final String prefix;
         final boolean policy;
 
@@ -0,0 +1,54 @@
+package bamboo.util;
+
+import java.util.Arrays;
+
+/**
+ * A character trie of SURT prefixes. Each node lists the ids of the rules whose prefix ends at it. Children are kept
+ * in a sorted array and found by binary search.
+ */
+class SurtTrie {
+    private static final char[] NO_KEYS = new char[0];
+    private static final SurtTrie[] NO_CHILDREN = new SurtTrie[0];
+    private static final int[] NO_IDS = new int[0];
+
+    private char[] keys = NO_KEYS;
+    private SurtTrie[] children = NO_CHILDREN;
+    int[] ids = NO_IDS;
+
+    SurtTrie child(char c) {
+        int i = Arrays.binarySearch(keys, c);
+        return i >= 0 ? children[i] : null;
+    }
+
+    void add(String prefix, int id) {
+        SurtTrie node = this;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            int j = Arrays.binarySearch(node.keys, c);
+            if (j < 0) {
+                j = -j - 1;
+                node.keys = insertAt(node.keys, j, c);
+                node.children = insertAt(node.children, j, new SurtTrie());
+            }
+            node = node.children[j];
+        }
+        node.ids = Arrays.copyOf(node.ids, node.ids.length + 1);
+        node.ids[node.ids.length - 1] = id;
+    }
+
+    private static char[] insertAt(char[] array, int index, char value) {
+        char[] result = new char[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    private static SurtTrie[] insertAt(SurtTrie[] array, int index, SurtTrie value) {
+        SurtTrie[] result = new SurtTrie[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+}
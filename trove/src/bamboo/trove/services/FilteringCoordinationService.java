@@ -151,7 +151,8 @@ public class FilteringCoordinationService {
 
   private void recordSizeByDomain(IndexerDocument document) {
     Document doc = document.getBambooDocument();
-    String surt = SURT.toSURT(Urls.removeScheme(doc.getUrl()));
+    // documents from older versions of bamboo don't carry a precomputed surt
+    String surt = doc.getSurt() != null ? doc.getSurt() : SURT.toSURT(Urls.removeScheme(doc.getUrl()));
     domainSizes.keySet().stream()
             .filter(thisFilter -> thisFilter.accepts(surt))
             .forEach(thisFilter -> domainSizes.get(thisFilter).update(contentLength(doc)));
@@ -6,7 +6,7 @@
     <p>No collections found.</p>
 [#else]
     [#include "_list.ftl"]
-    [@pagination collectionsPager.currentPage collectionsPager.lastPage /]
+    [@pagination collectionsPager.currentPage collectionsPager.lastPage collectionsPager.nextAfter /]
 [/#if]
 
 [/@page]
\ No newline at end of file
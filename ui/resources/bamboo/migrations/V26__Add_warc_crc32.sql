@@ -0,0 +1 @@
+ALTER TABLE warc ADD crc32 BIGINT;
\ No newline at end of file
@@ -0,0 +1,10 @@
+CREATE TABLE rollup_delta (
+  id BIGINT NOT NULL AUTO_INCREMENT,
+  target VARCHAR(16) NOT NULL,
+  target_id BIGINT NOT NULL,
+  warc_files BIGINT NOT NULL DEFAULT 0,
+  warc_size BIGINT NOT NULL DEFAULT 0,
+  records BIGINT NOT NULL DEFAULT 0,
+  record_bytes BIGINT NOT NULL DEFAULT 0,
+  PRIMARY KEY (id)
+);
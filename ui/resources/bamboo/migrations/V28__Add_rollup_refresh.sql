@@ -0,0 +1,7 @@
+CREATE TABLE rollup_refresh (
+  name VARCHAR(64) NOT NULL,
+  last_id BIGINT NOT NULL DEFAULT 0,
+  PRIMARY KEY (name)
+);
+
+INSERT INTO rollup_refresh (name, last_id) VALUES ('crawl', 0);
@@ -0,0 +1,2 @@
+ALTER TABLE rollup_delta ADD start_time TIMESTAMP NULL DEFAULT NULL;
+ALTER TABLE rollup_delta ADD end_time TIMESTAMP NULL DEFAULT NULL;
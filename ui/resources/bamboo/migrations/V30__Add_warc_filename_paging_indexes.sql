@@ -0,0 +1,2 @@
+CREATE INDEX warc_crawl_id_filename ON warc (crawl_id, filename);
+CREATE INDEX warc_crawl_id_warc_state_id_filename ON warc (crawl_id, warc_state_id, filename);
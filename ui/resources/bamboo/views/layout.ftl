@@ -83,7 +83,7 @@
     [/#if]
 [/#function]
 
-[#macro pagination current last]
+[#macro pagination current last after=-1]
     [#assign url = request.path()?remove_beginning("/")]
     [#if current < 5]
         [#assign pages = 1..min(last, 5)]
@@ -111,7 +111,7 @@
                 [#if page == current]
                     <li class="active"><span>${page}</span></li>
                 [#else]
-                    <li><a href="${url}?page=${page?c}">${page}</a></li>
+                    <li><a href="${url}?page=${page?c}[#if (page == current + 1 && after >= 0)]&amp;after=${after?c}[/#if]">${page}</a></li>
                 [/#if]
             [/#list]
             [#if (last - current >= 5)]
@@ -119,7 +119,7 @@
                 <li><a href="${url}?page=${last?c}">${last}</a></li>
             [/#if]
             [#if current < last]
-                <li><a href="${url}?page=${(current + 1)?c}" aria-label="Next">
+                <li><a href="${url}?page=${(current + 1)?c}[#if (after >= 0)]&amp;after=${after?c}[/#if]" aria-label="Next">
                     <span aria-hidden="true">&raquo;</span>
                 </a></li>
             [#else]
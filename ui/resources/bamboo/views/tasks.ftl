@@ -8,7 +8,7 @@
         <tr>
             <td>${task.name}</td>
             <td>${task.status}</td>
-            <td>[#if task.id != "Importer"]<a href="tasks/${task.id}/queue">View Queue</a>[/#if]</td>
+            <td>[#if task.id != "Importer" && task.id != "RollupRefresher"]<a href="tasks/${task.id}/queue">View Queue</a>[/#if]</td>
             <td>
                 [#if task.isEnabled()]
                     <form method="post" action="tasks/${task.id}/disable">
@@ -25,4 +25,87 @@
         </tr>
     [/#list]
 </table>
+
+[#list workerPools as pool]
+<h4>${pool.name} Workers</h4>
+
+<p>Queue: ${pool.queueDepth} / ${pool.queueCapacity} &middot; Active: ${pool.activeCount} / ${pool.threads}</p>
+
+<table class="table">
+    <tr><th>Worker</th><th>Current warc</th><th>Utilisation</th><th>Completed</th><th>Failed</th></tr>
+    [#list pool.workers as worker]
+        <tr>
+            <td>${worker.name}</td>
+            <td>[#if worker.currentKey??]<a href="warcs/${worker.currentKey?c}/details">${worker.currentKey?c}</a>[#else]Idle[/#if]</td>
+            <td>${worker.utilisation?string.percent}</td>
+            <td>${worker.jobsCompleted}</td>
+            <td>${worker.jobsFailed}</td>
+        </tr>
+    [/#list]
+</table>
+[/#list]
+
+<h4>Text Extraction</h4>
+
+<p>Queue: ${extractionPool.queued} &middot; Threads: ${extractionPool.threads} &middot; Completed: ${extractionPool.completed}
+    &middot; Timed out (${extractionPool.timeoutMillis}ms): ${extractionPool.timedOut} &middot; Stuck workers: ${extractionPool.stuckWorkers}</p>
+
+<table class="table">
+    <tr><th>Parser</th><th>Instances</th><th>Documents</th><th>Init time</th><th>Init time saved by reuse</th></tr>
+    [#list [["Tika", parsers.tikaStats], ["PDFBox", parsers.pdfBoxStats], ["Boilerpipe", parsers.boilerpipeStats]] as row]
+        <tr>
+            <td>${row[0]}</td>
+            <td>${row[1].instances}</td>
+            <td>${row[1].documents}</td>
+            <td>${row[1].initMillis}ms</td>
+            <td>${row[1].savedMillis}ms</td>
+        </tr>
+    [/#list]
+</table>
+
+<p>Site lookups: ${siteCache.requestCount()} &middot; Cache hit rate: ${siteCache.hitRate()?string.percent}
+    &middot; Cached hosts: ${siteCacheSize} &middot; Evicted: ${siteCache.evictionCount()}</p>
+
+<h4>Warc Updates</h4>
+
+<p>Batch size: ${warcUpdates.batchSize} &middot; Pending: ${warcUpdates.pending}
+    &middot; Batches written: ${warcUpdates.batchesWritten} &middot; Warcs written: ${warcUpdates.warcsWritten}
+    &middot; Failed warcs: ${warcUpdates.failures}</p>
+
+<h4>Rollups</h4>
+
+<p>Flush interval: ${rollups.flushMillis}ms &middot; Pending crawls: ${rollups.pendingCrawls}
+    &middot; Pending collections: ${rollups.pendingCollections} &middot; Flushes: ${rollups.flushes}
+    &middot; Deltas applied: ${rollups.deltasApplied} &middot; Failed flushes: ${rollups.failures}</p>
+
+<h4>Rollup Refresh</h4>
+
+<p>Chunk size: ${rollupRefresher.chunkSize} &middot; Position: crawl ${rollupRefresher.position?c}
+    &middot; Chunks: ${rollupRefresher.chunks} &middot; Crawls checked: ${rollupRefresher.crawlsChecked}
+    &middot; Crawls corrected: ${rollupRefresher.crawlsCorrected} &middot; Passes: ${rollupRefresher.passes}</p>
+
+<h4>Solr Updates</h4>
+
+<p>Streams: ${solrUpdater.streams} &middot; Batch size: ${solrUpdater.batchSize} &middot; In flight: ${solrUpdater.inFlight}
+    &middot; Batches sent: ${solrUpdater.batchesSent} &middot; Documents sent: ${solrUpdater.documentsSent}
+    &middot; Retries: ${solrUpdater.retries} &middot; Failed batches: ${solrUpdater.failures}</p>
+
+<h4>Solr Fast Reject</h4>
+
+[#if indexableFilter.enabled]
+<p>Extracted: ${indexableFilter.passed} &middot; Skipped before extraction: ${indexableFilter.skippedTotal}
+    [#if indexableFilter.skipTypes?has_content]&middot; Always skipped: ${indexableFilter.skipTypes?join(", ")}[/#if]</p>
+
+<table class="table">
+    <tr><th>Content type</th><th>Skipped</th></tr>
+    [#list indexableFilter.skipped as entry]
+        <tr>
+            <td>${entry.key}</td>
+            <td>${entry.value}</td>
+        </tr>
+    [/#list]
+</table>
+[#else]
+<p>Disabled, every record is passed to text extraction.</p>
+[/#if]
 [/@page]
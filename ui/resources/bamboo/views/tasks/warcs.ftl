@@ -21,6 +21,6 @@
     </tbody>
 </table>
 
-[@pagination warcsPager.currentPage warcsPager.lastPage /]
+[@pagination warcsPager.currentPage warcsPager.lastPage warcsPager.nextAfter /]
 
 [/@page]
\ No newline at end of file
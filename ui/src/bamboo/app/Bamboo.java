@@ -8,14 +8,21 @@ import bamboo.core.DbPool;
 import bamboo.core.Taskmaster;
 import bamboo.crawl.Collections;
 import bamboo.crawl.Crawls;
+import bamboo.crawl.Rollups;
 import bamboo.crawl.Serieses;
+import bamboo.crawl.WarcUpdateBatcher;
 import bamboo.crawl.Warcs;
 import bamboo.directory.Categories;
 import bamboo.pandas.Pandas;
 import bamboo.seedlist.Seedlists;
 import bamboo.task.CdxIndexer;
+import bamboo.task.ExtractionPool;
 import bamboo.task.Importer;
+import bamboo.task.IndexableFilter;
+import bamboo.task.RollupRefresher;
 import bamboo.task.SolrIndexer;
+import bamboo.task.SolrUpdater;
+import bamboo.task.WarcSplitter;
 import bamboo.task.WatchImporter;
 
 public class Bamboo implements AutoCloseable {
@@ -26,11 +33,17 @@ public class Bamboo implements AutoCloseable {
     public final Serieses serieses;
     public final Warcs warcs;
     public final Collections collections;
+    public final Rollups rollups;
     public final Seedlists seedlists;
     public final Pandas pandas;
     public final Categories categories;
 
     public final Taskmaster taskmaster;
+    public final ExtractionPool extractionPool;
+    public final IndexableFilter indexableFilter;
+    public final SolrUpdater solrUpdater;
+    public final WarcUpdateBatcher warcUpdates;
+    public final RollupRefresher rollupRefresher;
     private final CdxIndexer cdxIndexer;
     private final SolrIndexer solrIndexer;
 
@@ -51,7 +64,9 @@ public class Bamboo implements AutoCloseable {
 
         // crawl package
         this.serieses = new Serieses(dao.serieses());
-        this.warcs = new Warcs(dao.warcs());
+        this.rollups = new Rollups(dao.warcs(), config.getRollupFlushMillis());
+        rollups.flush(); // apply any journal left by a previous run
+        this.warcs = new Warcs(dao.warcs(), config.getOpenWarcLimit(), rollups);
         this.crawls = new Crawls(dao.crawls(), serieses, warcs);
         this.collections = new Collections(dao.collections());
 
@@ -63,11 +78,25 @@ public class Bamboo implements AutoCloseable {
 
         // task package
         taskmaster.add(new Importer(config, crawls));
-        cdxIndexer = new CdxIndexer(warcs, crawls, serieses, collections);
+        extractionPool = new ExtractionPool(config.getExtractionThreads(), config.getExtractionTimeout());
+        WarcSplitter splitter = new WarcSplitter(config.getWarcSplitSize(), config.getWarcSplitThreads());
+        solrUpdater = new SolrUpdater(config.getSolrUpdateStreams(), config.getSolrBatchSize(), config.getSolrBatchMillis());
+        solrIndexer = new SolrIndexer(collections, crawls, warcs,
+                taskmaster.newWorkerPool("Solr Indexer", config.getSolrIndexerThreads(), config.getIndexerQueueSize()),
+                splitter, solrUpdater);
+        solrIndexer.setExtractionPool(extractionPool);
+        solrIndexer.setIndexableFilter(config.isSolrFastRejectEnabled(), config.getSolrSkipTypes());
+        indexableFilter = solrIndexer.getIndexableFilter();
+        warcUpdates = new WarcUpdateBatcher(warcs, config.getWarcUpdateBatchSize(), config.getWarcUpdateBatchMillis());
+        cdxIndexer = new CdxIndexer(config, warcs, crawls, serieses, collections, solrIndexer,
+                taskmaster.newWorkerPool("CDX Indexer", config.getCdxIndexerThreads(), config.getIndexerQueueSize()),
+                splitter, warcUpdates);
         taskmaster.add(cdxIndexer);
-        solrIndexer = new SolrIndexer(collections, crawls, warcs);
         taskmaster.add(solrIndexer);
+        cdxIndexer.setSolrEnabled(taskmaster.find("SolrIndexer")::isEnabled);
         taskmaster.add(new WatchImporter(collections, crawls, cdxIndexer, warcs, config.getWatches()));
+        rollupRefresher = new RollupRefresher(crawls, config.getRollupRefreshChunkSize(), config.getRollupRefreshPauseMillis());
+        taskmaster.add(rollupRefresher);
 
         // pandas package
         if (config.getPandasDbUrl() != null) {
@@ -81,6 +110,9 @@ public class Bamboo implements AutoCloseable {
 
     public void close() {
         taskmaster.close();
+        solrUpdater.close();
+        warcUpdates.close();
+        rollups.close();
         dbPool.close();
         pandas.close();
     }
@@ -52,6 +52,165 @@ public class Config {
         return getEnv("PANDAS_DB_PASSWORD", null);
     }
 
+    public int getCdxIndexerThreads() {
+        return Integer.parseInt(getEnv("BAMBOO_CDX_THREADS", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    public int getSolrIndexerThreads() {
+        return Integer.parseInt(getEnv("BAMBOO_SOLR_THREADS", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * Number of warcs each indexer's worker pool will queue ahead of its workers.
+     */
+    public int getIndexerQueueSize() {
+        return Integer.parseInt(getEnv("BAMBOO_INDEXER_QUEUE_SIZE", "64"));
+    }
+
+    /**
+     * Bytes of memory shared by all concurrent CDX indexing threads for buffering CDX output before it is sent.
+     * Beyond this buffers spill to temporary files.
+     */
+    public long getCdxBufferBudget() {
+        return Long.parseLong(getEnv("BAMBOO_CDX_BUFFER_BUDGET", Long.toString(64 * 1024 * 1024)));
+    }
+
+    /**
+     * Whether to send CDX lines to the CDX server with a chunked POST while the warc is still being read. Disable for
+     * CDX servers which require a Content-Length.
+     */
+    public boolean getCdxStreaming() {
+        return Boolean.parseBoolean(getEnv("BAMBOO_CDX_STREAMING", "false"));
+    }
+
+    /**
+     * Directory to keep payload digests calculated while indexing in, so files without WARC-Payload-Digest headers
+     * (such as ARCs) aren't rehashed when re-indexed. Null disables it.
+     */
+    public Path getDigestCacheDir() {
+        String dir = getEnv("BAMBOO_DIGEST_CACHE", null);
+        return dir != null ? Paths.get(dir) : null;
+    }
+
+    /**
+     * Directory to keep a copy of each warc's complete CDX in, so changing collection filters only requires the
+     * cached CDX to be re-filtered rather than the warc parsed again. Null disables it.
+     */
+    public Path getCdxCacheDir() {
+        String dir = getEnv("BAMBOO_CDX_CACHE", null);
+        return dir != null ? Paths.get(dir) : null;
+    }
+
+    /**
+     * Compressed warcs at least this many bytes are split into ranges at record boundaries and indexed on several
+     * threads at once. 0 disables splitting.
+     */
+    public long getWarcSplitSize() {
+        return Long.parseLong(getEnv("BAMBOO_SPLIT_SIZE", "0"));
+    }
+
+    /**
+     * Number of threads shared by all indexers for reading ranges of split warcs.
+     */
+    public int getWarcSplitThreads() {
+        return Integer.parseInt(getEnv("BAMBOO_SPLIT_THREADS", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    public int getExtractionThreads() {
+        return Integer.parseInt(getEnv("BAMBOO_EXTRACT_THREADS", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * Milliseconds text extraction of a single document may run before it's abandoned.
+     */
+    public long getExtractionTimeout() {
+        return Long.parseLong(getEnv("BAMBOO_EXTRACT_TIMEOUT", "30000"));
+    }
+
+    /**
+     * Number of concurrent HTTP streams used to send batches of documents to Solr, shared by all indexing threads.
+     */
+    public int getSolrUpdateStreams() {
+        return Integer.parseInt(getEnv("BAMBOO_SOLR_STREAMS", "4"));
+    }
+
+    /**
+     * Maximum number of documents sent to a Solr collection in one update request.
+     */
+    public int getSolrBatchSize() {
+        return Integer.parseInt(getEnv("BAMBOO_SOLR_BATCH_SIZE", "100"));
+    }
+
+    /**
+     * Milliseconds a document may wait for the rest of its batch before the batch is sent anyway.
+     */
+    public long getSolrBatchMillis() {
+        return Long.parseLong(getEnv("BAMBOO_SOLR_BATCH_MILLIS", "5000"));
+    }
+
+    /**
+     * Whether the Solr indexer rejects records that can't produce an indexable document (non-2xx responses and
+     * content types text isn't extracted from) before building a document for them.
+     */
+    public boolean isSolrFastRejectEnabled() {
+        return Boolean.parseBoolean(getEnv("BAMBOO_SOLR_FAST_REJECT", "true"));
+    }
+
+    /**
+     * Comma-separated content types the Solr indexer should skip even though text could be extracted from them.
+     */
+    public List<String> getSolrSkipTypes() {
+        List<String> types = new ArrayList<>();
+        for (String type : getEnv("BAMBOO_SOLR_SKIP_TYPES", "").split(",")) {
+            if (!type.trim().isEmpty()) {
+                types.add(type.trim());
+            }
+        }
+        return Collections.unmodifiableList(types);
+    }
+
+    /**
+     * Number of indexed warcs whose stats and state are written to the database in one transaction.
+     */
+    public int getWarcUpdateBatchSize() {
+        return Integer.parseInt(getEnv("BAMBOO_WARC_UPDATE_BATCH_SIZE", "50"));
+    }
+
+    /**
+     * Milliseconds an indexed warc may wait for the rest of its batch before the batch is written anyway.
+     */
+    public long getWarcUpdateBatchMillis() {
+        return Long.parseLong(getEnv("BAMBOO_WARC_UPDATE_BATCH_MILLIS", "2000"));
+    }
+
+    /**
+     * Milliseconds between folding the rollup journal into the warc totals of crawls, series and collections.
+     */
+    public long getRollupFlushMillis() {
+        return Long.parseLong(getEnv("BAMBOO_ROLLUP_FLUSH_MILLIS", "1000"));
+    }
+
+    /**
+     * Number of crawls whose warc totals the rollup refresh task checks in each transaction.
+     */
+    public int getRollupRefreshChunkSize() {
+        return Integer.parseInt(getEnv("BAMBOO_ROLLUP_REFRESH_CHUNK_SIZE", "200"));
+    }
+
+    /**
+     * Minimum milliseconds the rollup refresh task pauses between chunks.
+     */
+    public long getRollupRefreshPauseMillis() {
+        return Long.parseLong(getEnv("BAMBOO_ROLLUP_REFRESH_PAUSE_MILLIS", "1000"));
+    }
+
+    /**
+     * Number of idle warc files kept open for serving individual records.
+     */
+    public int getOpenWarcLimit() {
+        return Integer.parseInt(getEnv("BAMBOO_OPEN_WARCS", "64"));
+    }
+
     public List<Watch> getWatches() {
         List<Watch> watches = new ArrayList<>();
         String value = getEnv("BAMBOO_WATCH", "");
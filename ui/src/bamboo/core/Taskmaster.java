@@ -6,6 +6,7 @@ import bamboo.task.CdxIndexer;
 import bamboo.task.Importer;
 import bamboo.task.SolrIndexer;
 import bamboo.task.Task;
+import bamboo.task.WorkerPool;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -13,6 +14,7 @@ import java.util.List;
 
 public class Taskmaster {
     final List<Task> tasks = new ArrayList<>();
+    final List<WorkerPool> workerPools = new ArrayList<>();
 
     public void add(Runnable runnable) {
         tasks.add(new Task(runnable));
@@ -22,6 +24,19 @@ public class Taskmaster {
         return Collections.unmodifiableList(tasks);
     }
 
+    /**
+     * Creates a long-lived worker pool which is shut down along with the tasks.
+     */
+    public WorkerPool newWorkerPool(String name, int threads, int queueCapacity) {
+        WorkerPool pool = new WorkerPool(name, threads, queueCapacity);
+        workerPools.add(pool);
+        return pool;
+    }
+
+    public List<WorkerPool> getWorkerPools() {
+        return Collections.unmodifiableList(workerPools);
+    }
+
     public Task find(String id) {
         for (Task task : tasks) {
             if (id.equals(task.getId())) {
@@ -35,5 +50,8 @@ public class Taskmaster {
         for (Task task : tasks) {
             task.disable();
         }
+        for (WorkerPool pool : workerPools) {
+            pool.close();
+        }
     }
 }
@@ -0,0 +1,162 @@
+package bamboo.crawl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently used warcs open so replay tools issuing many range requests against the same few files don't open
+ * and close each one on every request (which is slow on NFS).
+ *
+ * Channels are read-only and only used with positional reads and transferTo, so one channel per file is shared by
+ * every request reading it. Each lease holds a reference. The pool holds at most a fixed number of files; when it's
+ * full the least recently used is dropped and closed as soon as the last request still reading it is done.
+ *
+ * Note a thread interrupted while reading closes the channel for everyone (FileChannel is interruptible), so a closed
+ * channel found in the pool is replaced rather than handed out.
+ */
+public class ChannelPool {
+    private final int capacity;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ChannelPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    private static class Entry {
+        final FileChannel channel;
+        int refs;
+        boolean evicted;
+
+        Entry(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public Lease open(Path path) throws IOException {
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.channel.isOpen()) {
+                hits++;
+                entry.refs++;
+                return new Lease(entry);
+            }
+            misses++;
+        }
+
+        // open outside the lock as it may be slow on network filesystems
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        FileChannel unused = null;
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(path);
+            if (entry != null && entry.channel.isOpen()) {
+                unused = channel; // another request opened it first
+            } else {
+                if (entry != null) {
+                    drop(entry);
+                }
+                entry = new Entry(channel);
+                entries.put(path, entry);
+                trim();
+            }
+            entry.refs++;
+        }
+        closeQuietly(unused);
+        return new Lease(entry);
+    }
+
+    /**
+     * Evicts least recently used files until we're within capacity. Must hold the lock.
+     */
+    private void trim() {
+        Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > capacity && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            evictions++;
+            drop(eldest);
+        }
+    }
+
+    /**
+     * Marks an entry as no longer in the pool, closing it now if nobody is using it. Must hold the lock.
+     */
+    private void drop(Entry entry) {
+        entry.evicted = true;
+        if (entry.refs == 0) {
+            closeQuietly(entry.channel);
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.refs--;
+        if (entry.evicted && entry.refs == 0) {
+            closeQuietly(entry.channel);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // read-only so nothing is lost
+            }
+        }
+    }
+
+    public class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean released;
+
+        Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * The shared channel. Use only positional reads and transferTo; don't move its position or close it.
+         */
+        public FileChannel channel() {
+            return entry.channel;
+        }
+
+        /**
+         * Returns the channel to the pool.
+         */
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(entry);
+            }
+        }
+    }
+
+    public synchronized int getOpenFiles() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
@@ -10,4 +10,8 @@ public class CollectionWithFilters extends Collection {
         super(rs);
         urlFilters = rs.getString("url_filters");
     }
+
+    public CollectionWithFilters(String urlFilters) {
+        this.urlFilters = urlFilters;
+    }
 }
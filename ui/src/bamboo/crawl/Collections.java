@@ -2,12 +2,15 @@ package bamboo.crawl;
 
 import bamboo.core.DbPool;
 import bamboo.core.NotFoundException;
+import bamboo.util.CountCache;
 import bamboo.util.Pager;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Collections {
     private final CollectionsDAO dao;
+    private final CountCache counts = new CountCache(1, TimeUnit.MINUTES);
 
     public Collections(CollectionsDAO dao) {
         this.dao = dao;
@@ -34,11 +37,16 @@ public class Collections {
         return NotFoundException.check(getOrNull(id), "collection", id);
     }
 
-    public Pager<Collection> paginate(long page) {
-        return new Pager<>(page, dao.countCollections(), dao::paginateCollections);
+    /**
+     * @param after id of the last collection on the previous page, or -1 to page by offset
+     */
+    public Pager<Collection> paginate(long page, long after) {
+        return Pager.keyset(page, after, counts.get("all", dao::countCollections),
+                dao::paginateCollectionsAfterId, dao::paginateCollections, Collection::getId);
     }
 
     public long create(Collection collection) {
+        counts.invalidateAll();
         return dao.createCollection(collection);
     }
 
@@ -9,21 +9,19 @@ import static droute.Route.routes;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
 
 import bamboo.app.Bamboo;
 import bamboo.task.WarcToIndex;
 import bamboo.util.Markdown;
 import bamboo.util.Pager;
 import bamboo.util.Parsing;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.stream.JsonWriter;
 import droute.Csrf;
 import droute.Handler;
 import droute.Request;
 import droute.Response;
 import droute.Streamable;
+import org.skife.jdbi.v2.ResultIterator;
 
 public class CollectionsController {
     final Bamboo bamboo;
@@ -36,17 +34,6 @@ public class CollectionsController {
             POST("/collections/:id/edit", this::update, "id", "[0-9]+"),
             GET("/collections/:id/warcs/json", this::warcs, "id", "[0-9]+"));
 
-    private static final Gson gson;
-    static {
-        GsonBuilder builder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-        String indent = System.getProperty("disableJsonIndent");
-        if (indent != null && "true".equals(indent)) {
-            gson = builder.create();
-        } else {
-            gson = builder.setPrettyPrinting().create();
-        }
-    }
-
     public CollectionsController(Bamboo bamboo) {
         this.bamboo = bamboo;
     }
@@ -56,7 +43,8 @@ public class CollectionsController {
     }
 
     Response index(Request request) {
-        Pager<Collection> pager = bamboo.collections.paginate(Parsing.parseLongOrDefault(request.queryParam("page"), 1));
+        Pager<Collection> pager = bamboo.collections.paginate(Parsing.parseLongOrDefault(request.queryParam("page"), 1),
+                Parsing.parseLongOrDefault(request.queryParam("after"), -1));
         return render("collections/index.ftl",
                 "collections", pager.items,
                 "collectionsPager", pager);
@@ -103,25 +91,44 @@ public class CollectionsController {
         return seeOther(request.contextUri().resolve("collections/" + collectionId).toString());
     }
 
+    /**
+     * Lists the ids of warcs in a collection for Trove's full reindex, starting from a given id. Rows are streamed
+     * straight from the database as compact JSON so large batches don't need to be held in memory.
+     *
+     * The ETag combines the newest warc id in the collection with the collection's record totals. Nothing newer than
+     * that id is listed, and reindexing or removing a warc changes the totals, so a client asking for the same range
+     * again gets a 304 only if nothing in the collection has changed since. The totals are maintained by
+     * {@link Rollups} so the ETag can lag a change by up to its flush interval.
+     */
     Response warcs(Request request) {
         long id = Long.parseLong(request.urlParam("id"));
         long start = Parsing.parseLongOrDefault(request.queryParam("start"), 0);
         long rows = Parsing.parseLongOrDefault(request.queryParam("rows"), 1000);
-        List<Warc> warcs = bamboo.warcs.findByCollectionId(id, start, rows);
+        Collection collection = bamboo.collections.get(id);
+        long highWater = bamboo.warcs.highestIdInCollection(id);
+        String etag = "\"" + highWater + "-" + collection.getRecords() + "-" + collection.getRecordBytes() + "\"";
+
+        String ifNoneMatch = request.header("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+            return response(304, "").withHeader("ETag", etag);
+        }
+
         return response(200, (Streamable) (OutputStream outStream) -> {
-            JsonWriter writer = gson.newJsonWriter(new OutputStreamWriter(outStream, StandardCharsets.UTF_8));
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(outStream, StandardCharsets.UTF_8));
             writer.beginArray();
-            for (Warc warc : warcs) {
-                gson.toJson(new BambooWarcToIndex(warc), BambooWarcToIndex.class, writer);
+            if (start <= highWater) {
+                try (ResultIterator<WarcToIndex> it = bamboo.warcs.iterateToIndexByCollectionId(id, start, highWater, rows)) {
+                    while (it.hasNext()) {
+                        WarcToIndex warc = it.next();
+                        writer.beginObject();
+                        writer.name("id").value(warc.getId());
+                        writer.name("urlCount").value(warc.getUrlCount());
+                        writer.endObject();
+                    }
+                }
             }
             writer.endArray();
             writer.flush();
-        }).withHeader("Content-Type", "application/json");
-    }
-
-    class BambooWarcToIndex extends WarcToIndex {
-        public BambooWarcToIndex(Warc warc) {
-            super(warc.getId(), warc.getRecords());
-        }
+        }).withHeader("Content-Type", "application/json").withHeader("ETag", etag);
     }
 }
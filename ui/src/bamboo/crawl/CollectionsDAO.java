@@ -30,15 +30,20 @@ public interface CollectionsDAO {
         }
     }
 
-    @SqlUpdate("SELECT COUNT(*) FROM collection")
+    @SqlQuery("SELECT COUNT(*) FROM collection")
     long countCollections();
 
     @SqlQuery("SELECT * FROM collection ORDER BY name")
     List<Collection> listCollections();
 
-    @SqlQuery("SELECT * FROM collection ORDER BY name LIMIT :limit OFFSET :offset")
+    @SqlQuery("SELECT * FROM collection ORDER BY name, id LIMIT :limit OFFSET :offset")
     List<Collection> paginateCollections(@Bind("limit") long limit, @Bind("offset") long offset);
 
+    @SqlQuery("SELECT * FROM collection WHERE name > (SELECT name FROM collection WHERE id = :afterId) OR " +
+            "(name = (SELECT name FROM collection WHERE id = :afterId) AND id > :afterId) " +
+            "ORDER BY name, id LIMIT :limit")
+    List<Collection> paginateCollectionsAfterId(@Bind("afterId") long afterId, @Bind("limit") long limit);
+
     @SqlQuery("SELECT collection.*, collection_series.url_filters FROM collection_series LEFT JOIN collection ON collection.id = collection_id WHERE crawl_series_id = :it")
     List<CollectionWithFilters> listCollectionsForCrawlSeries(@Bind long crawlSeriesId);
 
@@ -51,15 +51,15 @@ public class Crawls {
             warcs.add(Warcs.fromFile(path));
         }
 
+        Rollups.Changes changes = new Rollups.Changes();
         long id = dao.inTransaction((dao1, ts) -> {
             long totalBytes = warcs.stream().mapToLong(Warc::getSize).sum();
             long crawlId = dao.createCrawl(metadata);
             dao.warcs().batchInsertWarcsWithoutRollup(crawlId, warcs.iterator());
-            int warcFilesDelta = warcs.size();
-            dao.warcs().incrementWarcStatsForCrawlInternal(crawlId, warcFilesDelta, totalBytes);
-            dao.warcs().incrementWarcStatsForCrawlSeriesByCrawlId(crawlId, warcFilesDelta, totalBytes);
+            this.warcs.rollups.journal(dao.warcs(), changes.crawl(crawlId, warcs.size(), totalBytes));
             return crawlId;
         });
+        this.warcs.rollups.committed(changes);
         notifyStateChanged(id, Crawl.ARCHIVED);
         return id;
     }
@@ -120,6 +120,65 @@ public class Crawls {
         notifyStateChanged(crawlId, stateId);
     }
 
+    /**
+     * The outcome of checking the warc totals of a chunk of crawls.
+     */
+    public static class TotalsCheck {
+        public final int checked;
+        public final int corrected;
+        public final long lastId;
+
+        TotalsCheck(int checked, int corrected, long lastId) {
+            this.checked = checked;
+            this.corrected = corrected;
+            this.lastId = lastId;
+        }
+    }
+
+    /**
+     * Checks the warc totals of the next chunk of crawls against their warcs and corrects any that differ. Changes
+     * still waiting in the rollup journal are allowed for. Each call continues from where the previous one left off,
+     * even in another process, as the position is saved along with the corrections. Once every crawl has been checked
+     * the position returns to the start and the result has checked = 0.
+     */
+    public TotalsCheck checkWarcTotals(int chunkSize) {
+        return dao.inTransaction((dao, ts) -> {
+            long afterId = dao.selectRollupRefreshPositionForUpdate("crawl");
+            List<WarcTotals> recorded = dao.findWarcTotalsOfCrawlsAfterId(afterId, chunkSize);
+            if (recorded.isEmpty()) {
+                dao.updateRollupRefreshPosition("crawl", 0);
+                return new TotalsCheck(0, 0, 0);
+            }
+            long first = recorded.get(0).getId();
+            long last = recorded.get(recorded.size() - 1).getId();
+            Map<Long, WarcTotals> actual = byId(dao.sumWarcsByCrawlIdRange(first, last));
+            Map<Long, WarcTotals> pending = byId(dao.sumRollupDeltasByCrawlIdRange(first, last));
+
+            // apply differences rather than overwriting so concurrent increments aren't lost
+            List<WarcTotals> corrections = new ArrayList<>();
+            for (WarcTotals crawl : recorded) {
+                WarcTotals sum = actual.getOrDefault(crawl.getId(), new WarcTotals(crawl.getId(), 0, 0, 0, 0));
+                WarcTotals difference = sum.minus(crawl).minus(pending.get(crawl.getId()));
+                if (!difference.isZero()) {
+                    corrections.add(difference);
+                }
+            }
+            if (!corrections.isEmpty()) {
+                dao.batchIncrementWarcTotals(corrections);
+            }
+            dao.updateRollupRefreshPosition("crawl", last);
+            return new TotalsCheck(recorded.size(), corrections.size(), last);
+        });
+    }
+
+    private static Map<Long, WarcTotals> byId(List<WarcTotals> list) {
+        Map<Long, WarcTotals> map = new HashMap<>();
+        for (WarcTotals totals : list) {
+            map.put(totals.getId(), totals);
+        }
+        return map;
+    }
+
     /**
      * Copies a collection of warc files into this crawl.
      */
@@ -140,10 +199,10 @@ public class Crawls {
             if (!Files.exists(destDir)) {
                 Files.createDirectory(destDir);
             }
-            String digest = Scrub.calculateDigest("SHA-256", src);
+            Scrub.Checksums checksums = Scrub.calculateChecksums(src);
             Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
 
-            warcs.create(crawlId, Warc.IMPORTED, dest, dest.getFileName().toString(), size, digest);
+            warcs.create(crawlId, Warc.IMPORTED, dest, dest.getFileName().toString(), size, checksums.sha256, checksums.crc32);
         }
     }
 
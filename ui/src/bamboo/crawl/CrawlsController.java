@@ -14,17 +14,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import static droute.Response.*;
 import static droute.Route.GET;
@@ -97,7 +92,8 @@ public class CrawlsController {
     Response listWarcs(Request request) {
         long id = Long.parseLong(request.urlParam("id"));
         Crawl crawl = bamboo.crawls.get(id);
-        Pager<Warc> pager = bamboo.warcs.paginateWithCrawlId(Parsing.parseLongOrDefault(request.queryParam("page"), 1), id);
+        Pager<Warc> pager = bamboo.warcs.paginateWithCrawlId(Parsing.parseLongOrDefault(request.queryParam("page"), 1),
+                Parsing.parseLongOrDefault(request.queryParam("after"), -1), id);
         return render("crawls/warcs.ftl",
                 "crawl", crawl,
                 "warcs", pager.items,
@@ -107,7 +103,8 @@ public class CrawlsController {
     Response listCorruptWarcs(Request request) {
         long id = Long.parseLong(request.urlParam("id"));
         Crawl crawl = bamboo.crawls.get(id);
-        Pager<Warc> pager = bamboo.warcs.paginateWithCrawlIdAndState(Parsing.parseLongOrDefault(request.queryParam("page"), 1), id, Warc.CDX_ERROR);
+        Pager<Warc> pager = bamboo.warcs.paginateWithCrawlIdAndState(Parsing.parseLongOrDefault(request.queryParam("page"), 1),
+                Parsing.parseLongOrDefault(request.queryParam("after"), -1), id, Warc.CDX_ERROR);
         return render("crawls/warcs.ftl",
                 "titlePrefix", "Corrupt",
                 "crawl", crawl,
@@ -121,42 +118,10 @@ public class CrawlsController {
         if (warcs.isEmpty()) {
             return response(404, "No warcs found");
         }
-        return response((Streamable) out -> {
-            try (ZipOutputStream zip = new ZipOutputStream(out)) {
-                for (Warc warc : warcs) {
-                    writeZipEntry(zip, "crawl-" + crawlId + "/" + warc.getFilename(), warc.getPath());
-                }
-            }
-        }).withHeader("Content-Type", "application/zip")
-          .withHeader("Content-Disposition", "attachment; filename=crawl-" + crawlId + ".zip");
-    }
-
-    private void writeZipEntry(ZipOutputStream zip, String entryName, Path sourceFile) throws IOException {
-        long size = Files.size(sourceFile);
-
-        ZipEntry entry = new ZipEntry(entryName);
-        entry.setLastModifiedTime(Files.getLastModifiedTime(sourceFile));
-        entry.setSize(size);
-        entry.setCompressedSize(size);
-        entry.setCrc(crc32(sourceFile));
-
-        zip.setMethod(ZipOutputStream.STORED);
-        zip.putNextEntry(entry);
-        Files.copy(sourceFile, zip);
-        zip.closeEntry();
-    }
-
-    private long crc32(Path file) throws IOException {
-        try (FileChannel channel = FileChannel.open(file)) {
-            CRC32 crc32 = new CRC32();
-            ByteBuffer buffer = ByteBuffer.allocate(16384);
-            while (channel.read(buffer) >= 0) {
-                buffer.flip();
-                crc32.update(buffer);
-                buffer.clear();
-            }
-            return crc32.getValue();
-        }
+        WarcZipWriter writer = new WarcZipWriter(bamboo.warcs);
+        return response((Streamable) out -> writer.write(out, "crawl-" + crawlId + "/", warcs))
+                .withHeader("Content-Type", "application/zip")
+                .withHeader("Content-Disposition", "attachment; filename=crawl-" + crawlId + ".zip");
     }
 
     Response listReports(Request request) {
@@ -12,7 +12,7 @@ import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
 
-@RegisterMapper({CrawlsDAO.CrawlMapper.class, CrawlsDAO.CrawlWithSeriesNameMapper.class})
+@RegisterMapper({CrawlsDAO.CrawlMapper.class, CrawlsDAO.CrawlWithSeriesNameMapper.class, CrawlsDAO.WarcTotalsMapper.class})
 public interface CrawlsDAO extends Transactional<CrawlsDAO> {
 
     class CrawlMapper implements ResultSetMapper<Crawl> {
@@ -77,6 +77,40 @@ public interface CrawlsDAO extends Transactional<CrawlsDAO> {
     @SqlUpdate("UPDATE crawl SET warc_files = (SELECT COALESCE(COUNT(*), 0) FROM warc WHERE warc.crawl_id = crawl.id), warc_size = (SELECT COALESCE(SUM(size), 0) FROM warc WHERE warc.crawl_id = crawl.id), records = (SELECT COALESCE(SUM(records), 0) FROM warc WHERE warc.crawl_id = crawl.id), record_bytes = (SELECT COALESCE(SUM(record_bytes), 0) FROM warc WHERE warc.crawl_id = crawl.id)")
     int refreshWarcStatsOnCrawls();
 
+    /*
+     * Incremental check of the warc totals on crawls. Each chunk covers a range of crawl ids.
+     */
+
+    class WarcTotalsMapper implements ResultSetMapper<WarcTotals> {
+        @Override
+        public WarcTotals map(int index, ResultSet r, StatementContext ctx) throws SQLException {
+            return new WarcTotals(r);
+        }
+    }
+
+    @SqlQuery("SELECT last_id FROM rollup_refresh WHERE name = :name FOR UPDATE")
+    long selectRollupRefreshPositionForUpdate(@Bind("name") String name);
+
+    @SqlUpdate("UPDATE rollup_refresh SET last_id = :lastId WHERE name = :name")
+    int updateRollupRefreshPosition(@Bind("name") String name, @Bind("lastId") long lastId);
+
+    @SqlQuery("SELECT id, warc_files, warc_size, records, record_bytes FROM crawl WHERE id > :afterId ORDER BY id LIMIT :limit")
+    List<WarcTotals> findWarcTotalsOfCrawlsAfterId(@Bind("afterId") long afterId, @Bind("limit") int limit);
+
+    @SqlQuery("SELECT crawl_id AS id, COUNT(*) AS warc_files, COALESCE(SUM(size), 0) AS warc_size, " +
+            "COALESCE(SUM(records), 0) AS records, COALESCE(SUM(record_bytes), 0) AS record_bytes " +
+            "FROM warc WHERE crawl_id >= :first AND crawl_id <= :last GROUP BY crawl_id")
+    List<WarcTotals> sumWarcsByCrawlIdRange(@Bind("first") long first, @Bind("last") long last);
+
+    @SqlQuery("SELECT target_id AS id, SUM(warc_files) AS warc_files, SUM(warc_size) AS warc_size, " +
+            "SUM(records) AS records, SUM(record_bytes) AS record_bytes " +
+            "FROM rollup_delta WHERE target = 'crawl' AND target_id >= :first AND target_id <= :last GROUP BY target_id")
+    List<WarcTotals> sumRollupDeltasByCrawlIdRange(@Bind("first") long first, @Bind("last") long last);
+
+    @SqlBatch("UPDATE crawl SET warc_files = warc_files + :warcFiles, warc_size = warc_size + :warcSize, " +
+            "records = records + :records, record_bytes = record_bytes + :recordBytes WHERE id = :id")
+    void batchIncrementWarcTotals(@BindBean List<WarcTotals> deltas);
+
     @SqlUpdate("INSERT INTO artifact (crawl_id, type, path, size, sha256) VALUES (:crawl_id, :type, :path, :size, :sha256)")
     @GetGeneratedKeys
     long createArtifact(@Bind("crawl_id") long crawlId, @Bind("type") String type, @Bind("path") Path path, @Bind("size") long size, @Bind("sha256") String sha256);
@@ -8,6 +8,22 @@ public class RecordStats {
     private Date startTime = null;
     private Date endTime = null;
 
+    /**
+     * Adds the statistics of another set of records to these.
+     */
+    public void add(RecordStats other) {
+        records += other.records;
+        recordBytes += other.recordBytes;
+
+        if (other.startTime != null && (startTime == null || other.startTime.before(startTime))) {
+            startTime = other.startTime;
+        }
+
+        if (other.endTime != null && (endTime == null || other.endTime.after(endTime))) {
+            endTime = other.endTime;
+        }
+    }
+
     public void update(long recordLength, Date time) {
         records += 1;
         recordBytes += recordLength;
@@ -0,0 +1,92 @@
+package bamboo.crawl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
+/**
+ * A change to the totals of a crawl (and its series) or a collection waiting in the rollup_delta journal.
+ */
+public class RollupDelta {
+    public static final String CRAWL = "crawl";
+    public static final String COLLECTION = "collection";
+
+    private final long id;
+    private final String target;
+    private final long targetId;
+    private final long warcFiles;
+    private final long warcSize;
+    private final long records;
+    private final long recordBytes;
+    private final Date startTime;
+    private final Date endTime;
+
+    RollupDelta(String target, long targetId, long warcFiles, long warcSize, long records, long recordBytes) {
+        this(target, targetId, warcFiles, warcSize, records, recordBytes, null, null);
+    }
+
+    /**
+     * @param startTime earliest record time to widen a crawl's time range to, or null
+     * @param endTime   latest record time to widen a crawl's time range to, or null
+     */
+    RollupDelta(String target, long targetId, long warcFiles, long warcSize, long records, long recordBytes,
+                Date startTime, Date endTime) {
+        this.id = 0;
+        this.target = target;
+        this.targetId = targetId;
+        this.warcFiles = warcFiles;
+        this.warcSize = warcSize;
+        this.records = records;
+        this.recordBytes = recordBytes;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    public RollupDelta(ResultSet rs) throws SQLException {
+        id = rs.getLong("id");
+        target = rs.getString("target");
+        targetId = rs.getLong("target_id");
+        warcFiles = rs.getLong("warc_files");
+        warcSize = rs.getLong("warc_size");
+        records = rs.getLong("records");
+        recordBytes = rs.getLong("record_bytes");
+        startTime = rs.getTimestamp("start_time");
+        endTime = rs.getTimestamp("end_time");
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public long getTargetId() {
+        return targetId;
+    }
+
+    public long getWarcFiles() {
+        return warcFiles;
+    }
+
+    public long getWarcSize() {
+        return warcSize;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getRecordBytes() {
+        return recordBytes;
+    }
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public Date getEndTime() {
+        return endTime;
+    }
+}
@@ -0,0 +1,326 @@
+package bamboo.crawl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maintains the warc and record totals of crawls, series and collections (and the time range of each crawl) without
+ * every writer queueing on the lock of the same crawl or collection row.
+ *
+ * Instead of incrementing a total directly, a change appends its deltas to the rollup_delta journal as part of its
+ * own transaction. Appends don't contend with each other. Periodically the journal is folded into the totals: the
+ * deltas are summed per crawl and collection, applied with one batched statement per table and deleted, all in one
+ * transaction. As the journal commits along with the change nothing is lost if the process dies between flushes.
+ * Whatever is left is applied by the next flush of any process sharing the database.
+ *
+ * The flusher reads the journal without locking it, so it never blocks a writer's insert while it waits for a totals
+ * row the writer holds. Instead it claims rows by deleting them first and only applies those it deleted; a row
+ * another flusher got to first deletes nothing and is skipped.
+ *
+ * Totals therefore lag behind by up to the flush interval. The deltas this process has recorded and not yet seen
+ * flushed are kept in memory for monitoring.
+ */
+public class Rollups implements AutoCloseable {
+    private static final int FLUSH_ROWS = 10000;
+
+    private final WarcsDAO dao;
+    private final long flushMillis;
+    private final ScheduledExecutorService timer;
+
+    private final Map<Long, Counter> crawls = new ConcurrentHashMap<>();
+    private final Map<Long, Counter> collections = new ConcurrentHashMap<>();
+
+    private final Object flushLock = new Object();
+    private long flushes;
+    private long deltasApplied;
+    private long failures;
+
+    /**
+     * Striped totals for one crawl or collection. Collections only have records.
+     */
+    private static class Counter {
+        final LongAdder warcFiles = new LongAdder();
+        final LongAdder warcSize = new LongAdder();
+        final LongAdder records = new LongAdder();
+        final LongAdder recordBytes = new LongAdder();
+    }
+
+    /**
+     * The journaled deltas of one crawl or collection summed while flushing.
+     */
+    private static class Sum {
+        long warcFiles;
+        long warcSize;
+        long records;
+        long recordBytes;
+        Date startTime;
+        Date endTime;
+
+        void add(RollupDelta delta) {
+            warcFiles += delta.getWarcFiles();
+            warcSize += delta.getWarcSize();
+            records += delta.getRecords();
+            recordBytes += delta.getRecordBytes();
+            if (delta.getStartTime() != null && (startTime == null || delta.getStartTime().before(startTime))) {
+                startTime = delta.getStartTime();
+            }
+            if (delta.getEndTime() != null && (endTime == null || delta.getEndTime().after(endTime))) {
+                endTime = delta.getEndTime();
+            }
+        }
+
+        RollupDelta toDelta(String target, long targetId) {
+            return new RollupDelta(target, targetId, warcFiles, warcSize, records, recordBytes, startTime, endTime);
+        }
+    }
+
+    /**
+     * The deltas made by one transaction. Add to it inside the transaction, pass it to {@link #journal} before
+     * committing and to {@link #committed} after.
+     */
+    public static class Changes {
+        private final List<RollupDelta> deltas = new ArrayList<>();
+
+        public Changes crawl(long crawlId, long warcFiles, long warcSize) {
+            if (warcFiles != 0 || warcSize != 0) {
+                deltas.add(new RollupDelta(RollupDelta.CRAWL, crawlId, warcFiles, warcSize, 0, 0));
+            }
+            return this;
+        }
+
+        /**
+         * A change in the records of one of a crawl's warcs. The crawl's time range is only ever widened to include
+         * the given times.
+         */
+        public Changes crawlRecords(long crawlId, long records, long recordBytes, Date startTime, Date endTime) {
+            if (records != 0 || recordBytes != 0 || startTime != null || endTime != null) {
+                deltas.add(new RollupDelta(RollupDelta.CRAWL, crawlId, 0, 0, records, recordBytes, startTime, endTime));
+            }
+            return this;
+        }
+
+        public Changes collection(long collectionId, long records, long recordBytes) {
+            if (records != 0 || recordBytes != 0) {
+                deltas.add(new RollupDelta(RollupDelta.COLLECTION, collectionId, 0, 0, records, recordBytes));
+            }
+            return this;
+        }
+    }
+
+    /**
+     * If flushMillis is positive starts flushing at that interval. Otherwise the journal is flushed after every
+     * change. Call {@link #flush} on startup to apply any journal left over from a previous run straight away.
+     */
+    public Rollups(WarcsDAO dao, long flushMillis) {
+        this.dao = dao;
+        this.flushMillis = flushMillis;
+        if (flushMillis > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "rollup-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        } else {
+            timer = null;
+        }
+    }
+
+    /**
+     * Appends the changes to the journal. Call within the transaction making them.
+     */
+    void journal(WarcsDAO transactionDao, Changes changes) {
+        if (!changes.deltas.isEmpty()) {
+            transactionDao.batchInsertRollupDeltas(changes.deltas);
+        }
+    }
+
+    /**
+     * Notes that the transaction which journaled the changes has committed.
+     */
+    void committed(Changes changes) {
+        if (changes.deltas.isEmpty()) {
+            return;
+        }
+        for (RollupDelta delta : changes.deltas) {
+            Map<Long, Counter> counters = RollupDelta.CRAWL.equals(delta.getTarget()) ? crawls : collections;
+            add(counters, delta.getTargetId(), new long[]{delta.getWarcFiles(), delta.getWarcSize(),
+                    delta.getRecords(), delta.getRecordBytes()});
+        }
+        if (timer == null) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds warc files, warc size, records and record bytes to a counter.
+     */
+    private static void add(Map<Long, Counter> counters, long id, long[] totals) {
+        Counter counter = counters.computeIfAbsent(id, k -> new Counter());
+        counter.warcFiles.add(totals[0]);
+        counter.warcSize.add(totals[1]);
+        counter.records.add(totals[2]);
+        counter.recordBytes.add(totals[3]);
+    }
+
+    /**
+     * Applies everything in the journal to the totals. Errors are logged and the journal is left for the next flush.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Long, long[]> crawlSnapshot = takeSnapshot(crawls);
+            Map<Long, long[]> collectionSnapshot = takeSnapshot(collections);
+            try {
+                long applied = 0;
+                int[] result;
+                do {
+                    result = dao.inTransaction((dao, ts) -> applyJournal(dao));
+                    applied += result[1];
+                } while (result[0] == FLUSH_ROWS);
+                recordFlush(applied, 0);
+            } catch (Throwable t) {
+                // still pending, put them back for monitoring
+                restoreSnapshot(crawls, crawlSnapshot);
+                restoreSnapshot(collections, collectionSnapshot);
+                recordFlush(0, 1);
+                System.err.println("Error flushing rollups, will retry: " + t.getMessage());
+                t.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Folds up to FLUSH_ROWS journal rows into the totals and deletes them. Returns the number of rows read and the
+     * number applied.
+     */
+    private static int[] applyJournal(WarcsDAO dao) {
+        List<RollupDelta> rows = dao.findRollupDeltas(FLUSH_ROWS);
+        if (rows.isEmpty()) {
+            return new int[]{0, 0};
+        }
+
+        // claim the rows before touching any totals
+        List<Long> ids = new ArrayList<>();
+        for (RollupDelta row : rows) {
+            ids.add(row.getId());
+        }
+        int[] deleted = dao.batchDeleteRollupDeltas(ids);
+
+        // sum per target, sorted so concurrent flushers lock rows in the same order
+        Map<Long, Sum> crawlSums = new TreeMap<>();
+        Map<Long, Sum> collectionSums = new TreeMap<>();
+        int claimed = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            RollupDelta row = rows.get(i);
+            if (deleted[i] == 0) {
+                continue; // applied by another flusher
+            }
+            claimed++;
+            if (RollupDelta.CRAWL.equals(row.getTarget())) {
+                crawlSums.computeIfAbsent(row.getTargetId(), k -> new Sum()).add(row);
+            } else if (RollupDelta.COLLECTION.equals(row.getTarget())) {
+                collectionSums.computeIfAbsent(row.getTargetId(), k -> new Sum()).add(row);
+            } else {
+                System.err.println("Discarding rollup delta " + row.getId() + " with unknown target " + row.getTarget());
+            }
+        }
+
+        if (!crawlSums.isEmpty()) {
+            List<RollupDelta> crawlDeltas = new ArrayList<>();
+            crawlSums.forEach((id, sum) -> crawlDeltas.add(sum.toDelta(RollupDelta.CRAWL, id)));
+            dao.batchIncrementStatsForCrawl(crawlDeltas);
+            dao.batchIncrementStatsForSeriesByCrawlId(crawlDeltas);
+        }
+        if (!collectionSums.isEmpty()) {
+            List<RollupDelta> collectionDeltas = new ArrayList<>();
+            collectionSums.forEach((id, sum) -> collectionDeltas.add(sum.toDelta(RollupDelta.COLLECTION, id)));
+            dao.batchIncrementRecordStatsForCollection(collectionDeltas);
+        }
+        return new int[]{rows.size(), claimed};
+    }
+
+    private static Map<Long, long[]> takeSnapshot(Map<Long, Counter> counters) {
+        Map<Long, long[]> snapshot = new HashMap<>();
+        counters.forEach((id, counter) -> {
+            long[] totals = {counter.warcFiles.sumThenReset(), counter.warcSize.sumThenReset(),
+                    counter.records.sumThenReset(), counter.recordBytes.sumThenReset()};
+            if (!isZero(totals)) {
+                snapshot.put(id, totals);
+            }
+        });
+        return snapshot;
+    }
+
+    private static void restoreSnapshot(Map<Long, Counter> counters, Map<Long, long[]> snapshot) {
+        snapshot.forEach((id, totals) -> add(counters, id, totals));
+    }
+
+    private static boolean isZero(long[] totals) {
+        for (long total : totals) {
+            if (total != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void recordFlush(long applied, long failureCount) {
+        if (failureCount == 0) {
+            flushes++;
+        }
+        deltasApplied += applied;
+        failures += failureCount;
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdown();
+        }
+        flush();
+    }
+
+    public long getFlushMillis() {
+        return flushMillis;
+    }
+
+    /**
+     * Number of crawls with changes recorded by this process that haven't been flushed yet.
+     */
+    public long getPendingCrawls() {
+        return countPending(crawls);
+    }
+
+    /**
+     * Number of collections with changes recorded by this process that haven't been flushed yet.
+     */
+    public long getPendingCollections() {
+        return countPending(collections);
+    }
+
+    private static long countPending(Map<Long, Counter> counters) {
+        return counters.values().stream().filter(c -> c.warcFiles.sum() != 0 || c.warcSize.sum() != 0
+                || c.records.sum() != 0 || c.recordBytes.sum() != 0).count();
+    }
+
+    public synchronized long getFlushes() {
+        return flushes;
+    }
+
+    public synchronized long getDeltasApplied() {
+        return deltasApplied;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+}
@@ -9,6 +9,7 @@ import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.zip.CRC32;
 import javax.xml.bind.DatatypeConverter;
 
 import bamboo.app.Bamboo;
@@ -77,6 +78,40 @@ public class Scrub {
         }
     }
 
+    /**
+     * The SHA-256 and CRC-32 of a file. The CRC is what zip entries need so we store it to avoid reading the whole
+     * file again before each download.
+     */
+    public static class Checksums {
+        public final String sha256;
+        public final long crc32;
+
+        Checksums(String sha256, long crc32) {
+            this.sha256 = sha256;
+            this.crc32 = crc32;
+        }
+    }
+
+    /**
+     * Calculates both checksums in a single pass over the file.
+     */
+    public static Checksums calculateChecksums(Path path) throws IOException {
+        try (ReadableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            CRC32 crc32 = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(65536);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                md.update(buffer.array(), 0, buffer.limit());
+                crc32.update(buffer);
+                buffer.clear();
+            }
+            return new Checksums(DatatypeConverter.printHexBinary(md.digest()).toLowerCase(), crc32.getValue());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
     static Result scrub(Warc warc) {
         String digest;
         try {
@@ -15,6 +15,7 @@ public class Warc {
     private long recordBytes;
     private String filename;
     private String sha256;
+    private Long crc32;
 
     public Warc() {
     }
@@ -90,4 +91,15 @@ public class Warc {
     public void setSha256(String sha256) {
         this.sha256 = sha256;
     }
+
+    /**
+     * CRC-32 of the whole file, or null if it was imported before we started storing it.
+     */
+    public Long getCrc32() {
+        return crc32;
+    }
+
+    public void setCrc32(Long crc32) {
+        this.crc32 = crc32;
+    }
 }
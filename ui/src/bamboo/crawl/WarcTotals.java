@@ -0,0 +1,66 @@
+package bamboo.crawl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The warc totals of a crawl: either as recorded on the crawl, as summed from its warcs or a difference between the two.
+ */
+public class WarcTotals {
+    private final long id;
+    private final long warcFiles;
+    private final long warcSize;
+    private final long records;
+    private final long recordBytes;
+
+    WarcTotals(long id, long warcFiles, long warcSize, long records, long recordBytes) {
+        this.id = id;
+        this.warcFiles = warcFiles;
+        this.warcSize = warcSize;
+        this.records = records;
+        this.recordBytes = recordBytes;
+    }
+
+    public WarcTotals(ResultSet rs) throws SQLException {
+        id = rs.getLong("id");
+        warcFiles = rs.getLong("warc_files");
+        warcSize = rs.getLong("warc_size");
+        records = rs.getLong("records");
+        recordBytes = rs.getLong("record_bytes");
+    }
+
+    /**
+     * Returns these totals less another's. A null other counts as zero.
+     */
+    WarcTotals minus(WarcTotals other) {
+        if (other == null) {
+            return this;
+        }
+        return new WarcTotals(id, warcFiles - other.warcFiles, warcSize - other.warcSize,
+                records - other.records, recordBytes - other.recordBytes);
+    }
+
+    boolean isZero() {
+        return warcFiles == 0 && warcSize == 0 && records == 0 && recordBytes == 0;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getWarcFiles() {
+        return warcFiles;
+    }
+
+    public long getWarcSize() {
+        return warcSize;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getRecordBytes() {
+        return recordBytes;
+    }
+}
@@ -0,0 +1,195 @@
+package bamboo.crawl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the results of indexing warcs and writes them to the database in batches, so each warc doesn't cost
+ * several round trips and commits of its own.
+ *
+ * A batch is written once it reaches the batch size or its oldest result has waited longer than the batch delay.
+ * Each result's future completes once its batch has been committed, or exceptionally if it couldn't be written. If a
+ * batch fails each warc in it is retried on its own so one missing warc doesn't lose the others' results.
+ */
+public class WarcUpdateBatcher implements AutoCloseable {
+    private final Warcs warcs;
+    private final int batchSize;
+    private final long batchMillis;
+    private final ScheduledExecutorService timer;
+
+    private final Object writeLock = new Object();
+    private final Map<Long, Pending> pending = new LinkedHashMap<>();
+    private long oldest;
+    private long batchesWritten;
+    private long warcsWritten;
+    private long failures;
+
+    private static class Pending {
+        final Warcs.IndexedWarc warc;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(Warcs.IndexedWarc warc) {
+            this.warc = warc;
+        }
+    }
+
+    /**
+     * @param batchMillis longest a result waits for the rest of its batch, or 0 to only write full batches and on
+     *                    flush (no timer thread is started so nothing needs closing)
+     */
+    public WarcUpdateBatcher(Warcs warcs, int batchSize, long batchMillis) {
+        this.warcs = warcs;
+        this.batchSize = batchSize;
+        this.batchMillis = batchMillis;
+        if (batchMillis > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "warc-update-batcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(batchMillis / 2, 1);
+            timer.scheduleWithFixedDelay(this::flushIfDue, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            timer = null;
+        }
+    }
+
+    /**
+     * Queues the result of indexing a warc. A later result for the same warc replaces an unwritten earlier one, whose
+     * future then completes along with the replacement's.
+     *
+     * @return completes once the result has been committed, or exceptionally if writing it failed
+     */
+    public CompletableFuture<Void> add(Warcs.IndexedWarc warc) {
+        Pending p = new Pending(warc);
+        boolean full;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                oldest = System.currentTimeMillis();
+            }
+            Pending replaced = pending.remove(warc.warcId);
+            if (replaced != null) {
+                p.done.whenComplete((v, t) -> {
+                    if (t != null) {
+                        replaced.done.completeExceptionally(t);
+                    } else {
+                        replaced.done.complete(null);
+                    }
+                });
+            }
+            pending.put(warc.warcId, p);
+            full = pending.size() >= batchSize;
+        }
+        if (full) {
+            flush();
+        }
+        return p.done;
+    }
+
+    /**
+     * Writes everything queued so far, waiting for any batch already being written by another thread.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            List<Pending> batch;
+            synchronized (this) {
+                batch = takeAll();
+            }
+            write(batch);
+        }
+    }
+
+    private void flushIfDue() {
+        try {
+            boolean due;
+            synchronized (this) {
+                due = !pending.isEmpty() && System.currentTimeMillis() - oldest >= batchMillis;
+            }
+            if (due) {
+                flush();
+            }
+        } catch (Throwable t) {
+            // keep the timer alive
+            t.printStackTrace();
+        }
+    }
+
+    private List<Pending> takeAll() {
+        List<Pending> batch = new ArrayList<>(pending.values());
+        pending.clear();
+        return batch;
+    }
+
+    private void write(List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Warcs.IndexedWarc> results = new ArrayList<>();
+        for (Pending p : batch) {
+            results.add(p.warc);
+        }
+        try {
+            warcs.updateIndexed(results);
+            recordWritten(batch.size(), 0);
+            for (Pending p : batch) {
+                p.done.complete(null);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error writing batch of " + batch.size() + " indexed warcs, retrying individually: " + e.getMessage());
+            for (Pending p : batch) {
+                try {
+                    warcs.updateIndexed(p.warc);
+                    recordWritten(1, 0);
+                    p.done.complete(null);
+                } catch (RuntimeException e2) {
+                    System.err.println("Error recording indexing of warc " + p.warc.warcId);
+                    e2.printStackTrace();
+                    recordWritten(0, 1);
+                    p.done.completeExceptionally(e2);
+                }
+            }
+        }
+    }
+
+    private synchronized void recordWritten(long warcCount, long failureCount) {
+        if (warcCount > 0) {
+            batchesWritten++;
+        }
+        warcsWritten += warcCount;
+        failures += failureCount;
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdown();
+        }
+        flush();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    public synchronized long getBatchesWritten() {
+        return batchesWritten;
+    }
+
+    public synchronized long getWarcsWritten() {
+        return warcsWritten;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,163 @@
+package bamboo.crawl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes warcs into a zip file as uncompressed (STORED) entries.
+ *
+ * A stored entry's header must contain its CRC-32 before any of its data is written. Warcs imported with a CRC are
+ * streamed in a single pass. For older warcs the CRC of the next entry is calculated in the background while the
+ * current one is streaming, so the client only waits for the first. CRCs calculated this way are saved so the next
+ * download doesn't need to calculate them again.
+ */
+class WarcZipWriter {
+    private static final ExecutorService sharedExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "warc-crc-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Warcs warcs;
+    private final ExecutorService executor;
+
+    WarcZipWriter(Warcs warcs) {
+        this(warcs, sharedExecutor);
+    }
+
+    WarcZipWriter(Warcs warcs, ExecutorService executor) {
+        this.warcs = warcs;
+        this.executor = executor;
+    }
+
+    /**
+     * The number of bytes an entry will contain and their CRC.
+     */
+    private static class Sum {
+        final long size;
+        final long crc;
+
+        Sum(long size, long crc) {
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+    void write(OutputStream out, String directory, List<Warc> warcList) throws IOException {
+        AtomicBoolean abandoned = new AtomicBoolean();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.setMethod(ZipOutputStream.STORED);
+            Future<Sum> next = warcList.isEmpty() ? null : sum(warcList.get(0), abandoned);
+            for (int i = 0; i < warcList.size(); i++) {
+                Warc warc = warcList.get(i);
+                Sum sum = await(next);
+                next = i + 1 < warcList.size() ? sum(warcList.get(i + 1), abandoned) : null;
+                writeEntry(zip, directory + warc.getFilename(), warc, sum);
+            }
+        } finally {
+            // don't interrupt: that would close the channel shared with other requests
+            abandoned.set(true);
+        }
+    }
+
+    private Future<Sum> sum(Warc warc, AtomicBoolean abandoned) throws IOException {
+        if (warc.getCrc32() != null && Files.size(warc.getPath()) == warc.getSize()) {
+            return CompletableFuture.completedFuture(new Sum(warc.getSize(), warc.getCrc32()));
+        }
+        return executor.submit(() -> {
+            Sum sum = calculate(warc, abandoned);
+            if (warc.getStateId() != Warc.OPEN && sum.size == warc.getSize()) {
+                try {
+                    warcs.updateCrc32(warc.getId(), sum.crc);
+                } catch (RuntimeException e) {
+                    System.err.println("Unable to save CRC-32 of warc " + warc.getId() + ": " + e.getMessage());
+                }
+            }
+            return sum;
+        });
+    }
+
+    private Sum calculate(Warc warc, AtomicBoolean abandoned) throws IOException {
+        try (ChannelPool.Lease lease = warcs.openChannel(warc)) {
+            FileChannel channel = lease.channel();
+            long size = channel.size();
+            CRC32 crc32 = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(65536);
+            long pos = 0;
+            while (pos < size) {
+                if (abandoned.get()) {
+                    throw new CancellationException("download of " + warc.getFilename() + " was abandoned");
+                }
+                buffer.clear();
+                if (size - pos < buffer.capacity()) {
+                    buffer.limit((int) (size - pos));
+                }
+                int n = channel.read(buffer, pos);
+                if (n < 0) {
+                    throw new EOFException(warc.getPath() + " was truncated while calculating its CRC-32");
+                }
+                buffer.flip();
+                crc32.update(buffer);
+                pos += n;
+            }
+            return new Sum(size, crc32.getValue());
+        }
+    }
+
+    private static Sum await(Future<Sum> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted calculating CRC-32");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void writeEntry(ZipOutputStream zip, String entryName, Warc warc, Sum sum) throws IOException {
+        try (ChannelPool.Lease lease = warcs.openChannel(warc)) {
+            FileChannel channel = lease.channel();
+
+            ZipEntry entry = new ZipEntry(entryName);
+            entry.setLastModifiedTime(Files.getLastModifiedTime(warc.getPath()));
+            entry.setSize(sum.size);
+            entry.setCompressedSize(sum.size);
+            entry.setCrc(sum.crc);
+            zip.putNextEntry(entry);
+
+            WritableByteChannel target = Channels.newChannel(zip);
+            long pos = 0;
+            while (pos < sum.size) {
+                long n = channel.transferTo(pos, sum.size - pos, target);
+                if (n <= 0) {
+                    throw new EOFException(warc.getPath() + " was truncated while being zipped");
+                }
+                pos += n;
+            }
+            zip.closeEntry();
+        }
+    }
+}
@@ -5,36 +5,82 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import bamboo.core.NotFoundException;
+import bamboo.task.WarcToIndex;
+import bamboo.util.CountCache;
 import bamboo.util.Pager;
+import org.skife.jdbi.v2.Query;
+import org.skife.jdbi.v2.ResultIterator;
 
 public class Warcs {
     private final WarcsDAO dao;
+    private final ChannelPool channels;
+    final Rollups rollups;
+    private final CountCache counts = new CountCache(1, TimeUnit.MINUTES);
 
     public Warcs(WarcsDAO warcsDAO) {
+        this(warcsDAO, 64);
+    }
+
+    /**
+     * @param openFiles number of warc files kept open for serving records and ranges
+     */
+    public Warcs(WarcsDAO warcsDAO, int openFiles) {
+        this(warcsDAO, openFiles, new Rollups(warcsDAO, 0));
+    }
+
+    /**
+     * @param rollups maintains the warc totals of crawls, series and collections
+     */
+    public Warcs(WarcsDAO warcsDAO, int openFiles, Rollups rollups) {
         this.dao = warcsDAO;
+        this.channels = new ChannelPool(openFiles);
+        this.rollups = rollups;
+    }
+
+    /**
+     * Opens a warc for reading, sharing the already open file if it's in the pool. Closing the lease releases it.
+     */
+    public ChannelPool.Lease openChannel(Warc warc) throws IOException {
+        return channels.open(warc.getPath());
     }
 
     public List<Warc> findByCrawlId(long crawlId) {
         return dao.findWarcsByCrawlId(crawlId);
     }
 
-    public Pager<Warc> paginateWithCrawlId(long page, long crawlId) {
-        return new Pager<>(page, dao.countWarcsWithCrawlId(crawlId),
-                (limit, offset) -> dao.paginateWarcsInCrawl(crawlId, limit, offset));
+    /**
+     * Pages through a crawl's warcs ordered by filename.
+     *
+     * @param after id of the last warc on the previous page, or -1 to page by offset
+     */
+    public Pager<Warc> paginateWithCrawlId(long page, long after, long crawlId) {
+        return Pager.keyset(page, after, counts.get("crawl:" + crawlId, () -> dao.countWarcsWithCrawlId(crawlId)),
+                (afterId, limit) -> dao.paginateWarcsInCrawlAfterId(crawlId, afterId, limit),
+                (limit, offset) -> dao.paginateWarcsInCrawl(crawlId, limit, offset),
+                Warc::getId);
     }
 
-    public Pager<Warc> paginateWithCrawlIdAndState(long page, long crawlId, int state) {
-        return new Pager<>(page, dao.countWarcsInCrawlAndState(crawlId, state),
-                (limit, offset) -> dao.paginateWarcsInCrawlAndState(crawlId, state, limit, offset));
+    public Pager<Warc> paginateWithCrawlIdAndState(long page, long after, long crawlId, int state) {
+        return Pager.keyset(page, after, counts.get("crawl:" + crawlId + ":state:" + state, () -> dao.countWarcsInCrawlAndState(crawlId, state)),
+                (afterId, limit) -> dao.paginateWarcsInCrawlAndStateAfterId(crawlId, state, afterId, limit),
+                (limit, offset) -> dao.paginateWarcsInCrawlAndState(crawlId, state, limit, offset),
+                Warc::getId);
     }
 
-    public Pager<Warc> paginateWithState(long page, int stateId) {
-        return new Pager<>(page, dao.countWarcsInState(stateId),
-                (offset, limit) -> dao.paginateWarcsInState(stateId, offset, limit));
+    public Pager<Warc> paginateWithState(long page, long after, int stateId) {
+        return Pager.keyset(page, after, counts.get("state:" + stateId, () -> dao.countWarcsInState(stateId)),
+                (afterId, limit) -> dao.findWarcsInStateAfterId(stateId, afterId, (int) limit),
+                (limit, offset) -> dao.paginateWarcsInState(stateId, limit, offset),
+                Warc::getId);
     }
 
     public Warc getOrNull(long id) {
@@ -74,10 +120,24 @@ public class Warcs {
         }
     }
 
+    public void updateCrc32(long warcId, long crc32) {
+        int rows = dao.updateWarcCrc32(warcId, crc32);
+        if (rows == 0) {
+            throw new NotFoundException("warc", warcId);
+        }
+    }
+
     public List<Warc> findByState(int stateId, int limit) {
         return dao.findWarcsInState(stateId, limit);
     }
 
+    /**
+     * Returns the next page of warcs in a state ordered by id, starting after the given id.
+     */
+    public List<Warc> findByState(int stateId, long afterId, int limit) {
+        return dao.findWarcsInStateAfterId(stateId, afterId, limit);
+    }
+
     public void updateState(long id, int stateId) {
         dao.inTransaction((dao, ts) -> {
             updateState0(id, stateId);
@@ -94,21 +154,80 @@ public class Warcs {
     }
 
     public void updateRecordStats(long warcId, RecordStats stats) {
+        Rollups.Changes changes = new Rollups.Changes();
         dao.inTransaction((dao, ts) -> {
-            dao.updateRecordStatsRollupForCrawl(warcId, stats);
-            dao.updateRecordStatsRollupForSeries(warcId, stats);
-            int rows = dao.updateWarcRecordStats(warcId, stats.getRecords(), stats.getRecordBytes());
-            if (rows == 0) {
-                throw new NotFoundException("warc", warcId);
-            }
+            Warc prev = lockWarcs(dao, java.util.Collections.singletonList(warcId)).get(warcId);
+            dao.updateWarcRecordStats(warcId, stats.getRecords(), stats.getRecordBytes());
+            rollups.journal(dao, recordChanges(changes, prev, stats));
             return null;
         });
+        rollups.committed(changes);
+    }
+
+    /**
+     * Adds the change in a crawl's records from replacing a warc's previous stats.
+     */
+    private static Rollups.Changes recordChanges(Rollups.Changes changes, Warc prev, RecordStats stats) {
+        return changes.crawlRecords(prev.getCrawlId(), stats.getRecords() - prev.getRecords(),
+                stats.getRecordBytes() - prev.getRecordBytes(), stats.getStartTime(), stats.getEndTime());
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads and locks the given warcs with a single query, in id order.
+     *
+     * @throws NotFoundException if one of the warcs doesn't exist
+     */
+    private static Map<Long, Warc> lockWarcs(WarcsDAO dao, List<Long> warcIds) {
+        Query<Warc> query = dao.getHandle()
+                .createQuery("SELECT * FROM warc WHERE id IN (" + placeholders(warcIds.size()) + ") ORDER BY id FOR UPDATE")
+                .map(new WarcsDAO.WarcMapper());
+        for (int i = 0; i < warcIds.size(); i++) {
+            query.bind(i, warcIds.get(i));
+        }
+        Map<Long, Warc> warcs = new HashMap<>();
+        for (Warc warc : query.list()) {
+            warcs.put(warc.getId(), warc);
+        }
+        for (long warcId : warcIds) {
+            if (!warcs.containsKey(warcId)) {
+                throw new NotFoundException("warc", warcId);
+            }
+        }
+        return warcs;
+    }
+
+    /**
+     * Reads and locks the collection_warc rows of the given warcs with a single query, keyed by warc id then
+     * collection id.
+     */
+    private static Map<Long, Map<Long, CollectionWarc>> lockCollectionWarcs(WarcsDAO dao, List<Long> warcIds) {
+        Query<CollectionWarc> query = dao.getHandle()
+                .createQuery("SELECT * FROM collection_warc WHERE warc_id IN (" + placeholders(warcIds.size()) + ") " +
+                        "ORDER BY warc_id, collection_id FOR UPDATE")
+                .map(new WarcsDAO.CollectionWarcMapper());
+        for (int i = 0; i < warcIds.size(); i++) {
+            query.bind(i, warcIds.get(i));
+        }
+        Map<Long, Map<Long, CollectionWarc>> rows = new HashMap<>();
+        for (CollectionWarc cw : query.list()) {
+            rows.computeIfAbsent(cw.warcId, k -> new HashMap<>()).put(cw.collectionId, cw);
+        }
+        return rows;
     }
 
     public void updateCollections(long warcId, Map<Long, RecordStats> collectionStatsMap) {
         for (Map.Entry<Long, RecordStats> entry : collectionStatsMap.entrySet()) {
             long collectionId = entry.getKey();
             RecordStats stats = entry.getValue();
+            Rollups.Changes changes = new Rollups.Changes();
 
             dao.inTransaction((dao, ts) -> {
                 long recordsDelta = stats.getRecords();
@@ -122,54 +241,159 @@ public class Warcs {
 
                 dao.deleteCollectionWarc(collectionId, warcId);
                 dao.insertCollectionWarc(collectionId, warcId, stats.getRecords(), stats.getRecordBytes());
-                dao.incrementRecordStatsForCollection(collectionId, recordsDelta, bytesDelta);
+                rollups.journal(dao, changes.collection(collectionId, recordsDelta, bytesDelta));
 
                 return null;
             });
+            rollups.committed(changes);
         }
     }
 
-    public long create(long crawlId, int stateId, Path path, String filename, long size, String sha256) {
-        return dao.inTransaction((dao, ts) -> {
-            dao.incrementWarcStatsForCrawlInternal(crawlId, 1, size);
-            dao.incrementWarcStatsForCrawlSeriesByCrawlId(crawlId, 1, size);
-            long warcId = dao.insertWarcWithoutRollup(crawlId, stateId, path.toString(), filename, size, sha256);
+    /**
+     * The outcome of indexing a warc: its record stats, its stats within each collection and its new state.
+     */
+    public static class IndexedWarc {
+        public final long warcId;
+        public final int stateId;
+        public final RecordStats stats;
+        public final Map<Long, RecordStats> collectionStats;
+
+        public IndexedWarc(long warcId, int stateId, RecordStats stats, Map<Long, RecordStats> collectionStats) {
+            this.warcId = warcId;
+            this.stateId = stateId;
+            this.stats = stats;
+            this.collectionStats = collectionStats;
+        }
+    }
+
+    /**
+     * Records the outcome of indexing one warc. Equivalent to updateRecordStats, updateCollections and updateState.
+     */
+    public void updateIndexed(IndexedWarc warc) {
+        updateIndexed(java.util.Collections.singletonList(warc));
+    }
+
+    /**
+     * Records the outcome of indexing many warcs in one transaction, sending each kind of statement as a single JDBC
+     * batch. The warcs' previous stats and collection stats are read with one query each so the changes to the crawl,
+     * series and collection totals can be journaled rather than applied to those rows directly. Warcs should be
+     * distinct. If any warc doesn't exist nothing is updated.
+     *
+     * @throws NotFoundException if one of the warcs doesn't exist
+     */
+    public void updateIndexed(List<IndexedWarc> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<IndexedWarc> sorted = new ArrayList<>(batch);
+        sorted.sort(Comparator.comparingLong(w -> w.warcId)); // consistent lock order between concurrent batches
+
+        List<Long> warcIds = new ArrayList<>();
+        List<RecordStats> stats = new ArrayList<>();
+        List<Integer> stateIds = new ArrayList<>();
+        List<Long> cwWarcIdsToLock = new ArrayList<>();
+        List<Long> cwCollectionIds = new ArrayList<>();
+        List<Long> cwWarcIds = new ArrayList<>();
+        List<RecordStats> cwStats = new ArrayList<>();
+        for (IndexedWarc warc : sorted) {
+            warcIds.add(warc.warcId);
+            stats.add(warc.stats);
+            stateIds.add(warc.stateId);
+            if (!warc.collectionStats.isEmpty()) {
+                cwWarcIdsToLock.add(warc.warcId);
+            }
+            for (Map.Entry<Long, RecordStats> entry : new TreeMap<>(warc.collectionStats).entrySet()) {
+                cwCollectionIds.add(entry.getKey());
+                cwWarcIds.add(warc.warcId);
+                cwStats.add(entry.getValue());
+            }
+        }
+
+        Rollups.Changes changes = new Rollups.Changes();
+        dao.inTransaction((dao, ts) -> {
+            // the crawl's change is the difference from the warc's old stats so read them before they're replaced
+            Map<Long, Warc> prevWarcs = lockWarcs(dao, warcIds);
+            for (IndexedWarc warc : sorted) {
+                recordChanges(changes, prevWarcs.get(warc.warcId), warc.stats);
+            }
+            dao.batchUpdateWarcRecordStats(warcIds, stats);
+
+            if (!cwCollectionIds.isEmpty()) {
+                Map<Long, Map<Long, CollectionWarc>> prevCollections = lockCollectionWarcs(dao, cwWarcIdsToLock);
+                for (IndexedWarc warc : sorted) {
+                    Map<Long, CollectionWarc> old = prevCollections.getOrDefault(warc.warcId, java.util.Collections.emptyMap());
+                    for (Map.Entry<Long, RecordStats> entry : new TreeMap<>(warc.collectionStats).entrySet()) {
+                        CollectionWarc prev = old.get(entry.getKey());
+                        changes.collection(entry.getKey(),
+                                entry.getValue().getRecords() - (prev == null ? 0 : prev.records),
+                                entry.getValue().getRecordBytes() - (prev == null ? 0 : prev.recordBytes));
+                    }
+                }
+                dao.batchDeleteCollectionWarcs(cwCollectionIds, cwWarcIds);
+                dao.batchInsertCollectionWarcs(cwCollectionIds, cwWarcIds, cwStats);
+            }
+            rollups.journal(dao, changes);
+
+            dao.batchUpdateWarcStateWithoutHistory(warcIds, stateIds);
+            dao.batchInsertWarcHistory(warcIds, stateIds);
+            return null;
+        });
+        rollups.committed(changes);
+    }
+
+    public long create(long crawlId, int stateId, Path path, String filename, long size, String sha256, Long crc32) {
+        Rollups.Changes changes = new Rollups.Changes().crawl(crawlId, 1, size);
+        long id = dao.inTransaction((dao, ts) -> {
+            long warcId = dao.insertWarcWithoutRollup(crawlId, stateId, path.toString(), filename, size, sha256, crc32);
             dao.insertWarcHistory(warcId, stateId);
+            rollups.journal(dao, changes);
             return warcId;
         });
+        rollups.committed(changes);
+        return id;
     }
 
     public void updateSize(long warcId, long currentSize) {
+        Rollups.Changes changes = new Rollups.Changes();
         dao.inTransaction((dao, ts) -> {
             Warc prev = getAndLock(warcId);
             dao.updateWarcSizeWithoutRollup(warcId, currentSize);
-            long crawlId = prev.getCrawlId();
-            long sizeDelta = currentSize - prev.getSize();
-            dao.incrementWarcStatsForCrawlInternal(crawlId, 0, sizeDelta);
-            dao.incrementWarcStatsForCrawlSeriesByCrawlId(crawlId, 0, sizeDelta);
+            rollups.journal(dao, changes.crawl(prev.getCrawlId(), 0, currentSize - prev.getSize()));
             return null;
         });
+        rollups.committed(changes);
     }
 
-    public void update(long warcId, int stateId, Path path, String filename, long size, String digest) {
+    public void update(long warcId, int stateId, Path path, String filename, long size, String digest, Long crc32) {
+        Rollups.Changes changes = new Rollups.Changes();
         dao.inTransaction((dao, ts) -> {
             Warc prev = getAndLock(warcId);
-            dao.updateWarcWithoutRollup(warcId, stateId, path.toString(), filename, size, digest);
+            dao.updateWarcWithoutRollup(warcId, stateId, path.toString(), filename, size, digest, crc32);
             dao.insertWarcHistory(warcId, stateId);
-            long crawlId = prev.getCrawlId();
-            long sizeDelta = size - prev.getSize();
-            dao.incrementWarcStatsForCrawlInternal(crawlId, 0, sizeDelta);
-            dao.incrementWarcStatsForCrawlSeriesByCrawlId(crawlId, 0, sizeDelta);
+            rollups.journal(dao, changes.crawl(prev.getCrawlId(), 0, size - prev.getSize()));
             return null;
         });
+        rollups.committed(changes);
     }
 
     private Warc getAndLock(long warcId) {
         return NotFoundException.check(dao.selectForUpdate(warcId), "warc", warcId);
     }
 
-    public List<Warc> findByCollectionId(long collectionId, long start, long rows) {
-        return dao.findByCollectionId(collectionId, start, rows);
+    /**
+     * Returns the id of the newest warc in a collection, or 0 if it's empty.
+     */
+    public long highestIdInCollection(long collectionId) {
+        Long id = dao.findHighestWarcIdInCollection(collectionId);
+        return id == null ? 0 : id;
+    }
+
+    /**
+     * Iterates over up to rows warcs in a collection with ids from start to end inclusive, ordered by id. Rows are
+     * fetched as the iterator advances. The iterator holds a database connection until it's closed.
+     */
+    public ResultIterator<WarcToIndex> iterateToIndexByCollectionId(long collectionId, long start, long end, long rows) {
+        return dao.iterateWarcsToIndexInCollection(collectionId, start, end, rows);
     }
 
     public boolean healthcheck(PrintWriter out) {
@@ -181,15 +405,21 @@ public class Warcs {
             return true;
         }
 
+        boolean ok;
         try (InputStream stream = Files.newInputStream(warc.getPath())) {
             stream.read();
             out.println("OK");
-            return true;
+            ok = true;
         } catch (IOException e) {
             out.println("ERROR: reading " + warc.getPath());
             e.printStackTrace(out);
-            return false;
+            ok = false;
         }
+
+        out.println("Open WARC files: " + channels.getOpenFiles() + "/" + channels.getCapacity() +
+                " hits: " + channels.getHits() + " misses: " + channels.getMisses() +
+                " evictions: " + channels.getEvictions());
+        return ok;
     }
 
     public static Warc fromFile(Path path) throws IOException {
@@ -197,7 +427,9 @@ public class Warcs {
         warc.setPath(path);
         warc.setFilename(path.getFileName().toString());
         warc.setSize(Files.size(path));
-        warc.setSha256(Scrub.calculateDigest("SHA-256", path));
+        Scrub.Checksums checksums = Scrub.calculateChecksums(path);
+        warc.setSha256(checksums.sha256);
+        warc.setCrc32(checksums.crc32);
         warc.setStateId(Warc.IMPORTED);
         return warc;
     }
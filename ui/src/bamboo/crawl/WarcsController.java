@@ -6,6 +6,7 @@ import static droute.Route.routes;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
@@ -15,31 +16,34 @@ import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import bamboo.app.Bamboo;
 import bamboo.task.Cdx;
 import bamboo.task.Document;
-import bamboo.task.TextExtractionException;
+import bamboo.task.ExtractionPool;
+import bamboo.task.RecordLocator;
+import bamboo.task.RecordPipeline;
 import bamboo.task.TextExtractor;
 import bamboo.task.WarcUtils;
 import bamboo.util.Parsing;
 import com.google.common.base.Charsets;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonWriter;
 import droute.Handler;
 import droute.Request;
 import droute.Response;
 import droute.Streamable;
-import org.archive.io.ArchiveReader;
-import org.archive.io.ArchiveRecord;
 
 public class WarcsController {
     final Bamboo wa;
@@ -48,6 +52,7 @@ public class WarcsController {
             GET("/warcs/:id/cdx", this::showCdx, "id", "[0-9]+"),
             GET("/warcs/:id/text", this::showText, "id", "[0-9]+"),
             GET("/warcs/:id/details", this::details, "id", "[0-9]+"),
+            GET("/warcs/:id/record/:offset", this::serveRecord, "id", "[0-9]+", "offset", "[0-9]+"),
             GET("/warcs/:filename", this::serve, "filename", "[^/]+"),
             GET("/warcs/:filename/cdx", this::showCdx, "filename", "[^/]+"),
             GET("/warcs/:filename/cdx", this::showText, "filename", "[^/]+")
@@ -131,28 +136,29 @@ public class WarcsController {
 
     private Response serve(Request request, Warc warc) {
         List<Range> ranges = Range.parseHeader(request.header("Range"), warc.getSize());
-        try {
-            if (ranges == null || ranges.isEmpty()) {
-                return response(200, Files.newInputStream(warc.getPath()))
-                        .withHeader("Content-Length", Long.toString(warc.getSize()))
-                        .withHeader("Content-Type", "application/warc")
-                        .withHeader("Content-Disposition", "filename=" + warc.getFilename())
-                        .withHeader("Accept-Ranges", "bytes");
-            } else if (ranges.size() == 1) {
-                return singleRangeResponse(warc.getPath(), ranges.get(0));
-            } else {
-                return multipleRangeResponse(warc.getPath(), ranges);
-            }
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        if (ranges == null || ranges.isEmpty()) {
+            return response(200, (Streamable) (OutputStream outStream) -> {
+                try (ChannelPool.Lease lease = wa.warcs.openChannel(warc)) {
+                    transferFully(lease.channel(), 0, warc.getSize(), Channels.newChannel(outStream));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).withHeader("Content-Length", Long.toString(warc.getSize()))
+                    .withHeader("Content-Type", "application/warc")
+                    .withHeader("Content-Disposition", "filename=" + warc.getFilename())
+                    .withHeader("Accept-Ranges", "bytes");
+        } else if (ranges.size() == 1) {
+            return singleRangeResponse(warc, ranges.get(0));
+        } else {
+            return multipleRangeResponse(warc, ranges);
         }
     }
 
-    private Response singleRangeResponse(Path path, Range range) {
+    private Response singleRangeResponse(Warc warc, Range range) {
         return response(206, (Streamable)(OutputStream outStream) -> {
             WritableByteChannel out = Channels.newChannel(outStream);
-            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
-                in.transferTo(range.start, range.length, out);
+            try (ChannelPool.Lease lease = wa.warcs.openChannel(warc)) {
+                transferFully(lease.channel(), range.start, range.length, out);
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
@@ -161,15 +167,86 @@ public class WarcsController {
                 .withHeader("Content-Type", "application/warc");
     }
 
+    /**
+     * Serves the single record starting at an offset, working out its length from the file itself. The record is
+     * sent still compressed (as it would be by a range request) unless decompress=1 is given.
+     */
+    Response serveRecord(Request request) {
+        Warc warc = findWarc(request);
+        long offset = Long.parseLong(request.param("offset"));
+        boolean compressed = warc.getFilename().endsWith(".gz");
+        boolean decompress = compressed && Parsing.parseLongOrDefault(request.queryParam("decompress"), 0) != 0;
+
+        // the body may never be written, so it takes its own lease rather than holding this one open
+        long length;
+        try (ChannelPool.Lease lease = wa.warcs.openChannel(warc)) {
+            try {
+                length = RecordLocator.recordLength(lease.channel(), offset, compressed);
+            } catch (IOException e) {
+                return response(404, "No record at offset " + offset + " in " + warc.getFilename() + ": " + e.getMessage());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (decompress) {
+            return response(200, (Streamable) (OutputStream outStream) -> {
+                try (ChannelPool.Lease lease = wa.warcs.openChannel(warc);
+                     InputStream in = new GZIPInputStream(RecordLocator.open(lease.channel(), offset, length), 8192)) {
+                    byte[] buf = new byte[8192];
+                    for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                        outStream.write(buf, 0, n);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).withHeader("Content-Type", recordContentType(warc));
+        }
+
+        return response(200, (Streamable) (OutputStream outStream) -> {
+            try (ChannelPool.Lease lease = wa.warcs.openChannel(warc)) {
+                transferFully(lease.channel(), offset, length, Channels.newChannel(outStream));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).withHeader("Content-Length", Long.toString(length))
+                .withHeader("Content-Type", recordContentType(warc));
+    }
+
+    /**
+     * Records from ARC files are ARC records, not WARC.
+     */
+    static String recordContentType(Warc warc) {
+        String filename = warc.getFilename();
+        if (filename.endsWith(".arc") || filename.endsWith(".arc.gz")) {
+            return "application/x-internet-archive";
+        }
+        return "application/warc";
+    }
+
+    /**
+     * FileChannel.transferTo may send less than asked for, so keep going until it's all sent.
+     */
+    private static void transferFully(FileChannel in, long position, long count, WritableByteChannel out) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(position, count, out);
+            if (n <= 0) {
+                throw new IOException("unexpected end of file at " + position);
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
     private static final String boundary = "Te2akaimeeThe8eip5oh";
 
-    private Response multipleRangeResponse(Path path, List<Range> ranges) throws IOException {
+    private Response multipleRangeResponse(Warc warc, List<Range> ranges) {
         return response(206, (Streamable) (OutputStream outStream) -> {
             WritableByteChannel out = Channels.newChannel(outStream);
-            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            try (ChannelPool.Lease lease = wa.warcs.openChannel(warc)) {
                 for (Range range : ranges) {
                     out.write(asciiBuffer("--" + boundary + "\r\nContent-Type: application/warc\r\nContent-Range: " + range.toString() + "\r\n\r\n"));
-                    in.transferTo(range.start, range.length, out);
+                    transferFully(lease.channel(), range.start, range.length, out);
                     out.write(asciiBuffer("\r\n"));
                 }
                 out.write(asciiBuffer("--" + boundary + "--\r\n"));
@@ -205,41 +282,160 @@ public class WarcsController {
         }
     }
 
-    private static final TextExtractor extractor = new TextExtractor();
+    /**
+     * Extractors for each combination of the pdfbox, boiled and tika options, indexed by bit.
+     */
+    private static final TextExtractor[] extractors = new TextExtractor[8];
+    static {
+        for (int i = 0; i < extractors.length; i++) {
+            extractors[i] = new TextExtractor();
+            extractors[i].setUsePdfBox((i & 1) != 0);
+            extractors[i].setBoilingEnabled((i & 2) != 0);
+            extractors[i].setUseTika((i & 4) != 0);
+        }
+    }
 
     private Response showText(Request request) {
-        TextExtractor extractor = new TextExtractor();
+        int options = 0;
 
         if (Parsing.parseLongOrDefault(request.queryParam("pdfbox"), 0) != 0) {
-            extractor.setUsePdfBox(true);
+            options |= 1;
         }
 
         if (Parsing.parseLongOrDefault(request.queryParam("boiled"), 0) != 0) {
-            extractor.setBoilingEnabled(true);
+            options |= 2;
         }
 
         if (Parsing.parseLongOrDefault(request.queryParam("tika"), 0) != 0) {
-            extractor.setUseTika(true);
+            options |= 4;
         }
 
+        TextExtractor extractor = extractors[options];
         Warc warc = findWarc(request);
         return response(200, (Streamable) (OutputStream outStream) -> {
-            try (ArchiveReader reader = WarcUtils.open(warc.getPath())) {
-                JsonWriter writer = gson.newJsonWriter(new OutputStreamWriter(outStream, StandardCharsets.UTF_8));
-                writer.beginArray();
-                for (ArchiveRecord record : reader) {
-                    if (record.getHeader().getUrl() == null) continue;
-                    try {
-                        Document doc = extractor.extract(record);
-                        gson.toJson(doc, Document.class, writer);
-                    } catch (TextExtractionException e) {
-                        continue; // skip it
+            try {
+                writeText(extractor, wa.extractionPool, warc, outStream);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).withHeader("Content-Type", "application/json");
+    }
+
+    /**
+     * Writes the documents extracted from a warc as a JSON array, one document at a time.
+     *
+     * With an extraction pool each document is extracted on the pool under its deadline and written once it's done
+     * before the next record is read, so the response holds at most one document's text (capped at the maximum
+     * document size). A document that times out is left out. Without a pool the text is extracted inline and escaped
+     * straight onto the output as it's extracted.
+     */
+    static void writeText(TextExtractor extractor, ExtractionPool extractionPool, Warc warc, OutputStream outStream) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(outStream, StandardCharsets.UTF_8));
+        JsonWriter writer = gson.newJsonWriter(out);
+        RecordPipeline.Sink sink = new RecordPipeline.Sink() {
+            boolean inText = false;
+
+            @Override
+            public boolean wantsDocument(RecordPipeline.ParsedRecord record) {
+                return true;
+            }
+
+            @Override
+            public Writer textWriter(RecordPipeline.ParsedRecord record) throws IOException {
+                // start the document's object, the rest of its fields follow the text
+                writer.beginObject();
+                writer.name("text");
+                writer.jsonValue("\"");
+                inText = true;
+                return new JsonStringWriter(out);
+            }
+
+            @Override
+            public void accept(RecordPipeline.ParsedRecord record) throws IOException {
+                if (!inText) {
+                    if (record.document() != null) {
+                        gson.toJson(record.document(), Document.class, writer);
+                    }
+                    return;
+                }
+                out.write('"');
+                inText = false;
+                if (record.document() == null) {
+                    writer.name("url").value(record.capture.url);
+                } else {
+                    JsonObject fields = gson.toJsonTree(record.document(), Document.class).getAsJsonObject();
+                    fields.remove("text");
+                    for (Map.Entry<String, JsonElement> field : fields.entrySet()) {
+                        writer.name(field.getKey());
+                        gson.toJson(field.getValue(), writer);
                     }
                 }
-                writer.endArray();
-                writer.flush();
+                writer.endObject();
             }
-        }).withHeader("Content-Type", "application/json");
+        };
+        writer.beginArray();
+        RecordPipeline pipeline = new RecordPipeline(extractor, Arrays.asList(sink));
+        pipeline.setExtractionPool(extractionPool, 0);
+        pipeline.run(warc.getPath(), warc.getFilename());
+        if (pipeline.failure(sink) != null) {
+            throw new IOException("writing text of " + warc.getFilename(), pipeline.failure(sink));
+        }
+        writer.endArray();
+        writer.flush();
+    }
+
+    /**
+     * Escapes what's written to it as the contents of a JSON string.
+     */
+    private static class JsonStringWriter extends Writer {
+        private final Writer out;
+
+        JsonStringWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] chars, int off, int len) throws IOException {
+            int end = off + len;
+            int runStart = off;
+            for (int i = off; i < end; i++) {
+                char c = chars[i];
+                if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                    continue;
+                }
+                out.write(chars, runStart, i - runStart);
+                runStart = i + 1;
+                switch (c) {
+                    case '"':
+                        out.write("\\\"");
+                        break;
+                    case '\\':
+                        out.write("\\\\");
+                        break;
+                    case '\n':
+                        out.write("\\n");
+                        break;
+                    case '\r':
+                        out.write("\\r");
+                        break;
+                    case '\t':
+                        out.write("\\t");
+                        break;
+                    default:
+                        out.write(String.format("\\u%04x", (int) c));
+                }
+            }
+            out.write(chars, runStart, end - runStart);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            // the response carries on after the text
+        }
     }
 
     Response details(Request request) {
@@ -1,8 +1,12 @@
 package bamboo.crawl;
 
+import bamboo.task.WarcToIndex;
+import org.skife.jdbi.v2.ResultIterator;
 import org.skife.jdbi.v2.StatementContext;
 import org.skife.jdbi.v2.sqlobject.*;
+import org.skife.jdbi.v2.sqlobject.customizers.FetchSize;
 import org.skife.jdbi.v2.sqlobject.customizers.RegisterMapper;
+import org.skife.jdbi.v2.sqlobject.mixins.GetHandle;
 import org.skife.jdbi.v2.sqlobject.mixins.Transactional;
 import org.skife.jdbi.v2.tweak.ResultSetMapper;
 
@@ -12,8 +16,9 @@ import java.sql.SQLException;
 import java.util.Iterator;
 import java.util.List;
 
-@RegisterMapper({WarcsDAO.WarcMapper.class, WarcsDAO.CollectionWarcMapper.class})
-public interface WarcsDAO extends Transactional<WarcsDAO> {
+@RegisterMapper({WarcsDAO.WarcMapper.class, WarcsDAO.CollectionWarcMapper.class, WarcsDAO.WarcToIndexMapper.class,
+        WarcsDAO.RollupDeltaMapper.class})
+public interface WarcsDAO extends Transactional<WarcsDAO>, GetHandle {
     class WarcMapper implements ResultSetMapper<Warc> {
         @Override
         public Warc map(int i, ResultSet rs, StatementContext statementContext) throws SQLException {
@@ -27,6 +32,8 @@ public interface WarcsDAO extends Transactional<WarcsDAO> {
             warc.setRecordBytes(rs.getLong("record_bytes"));
             warc.setFilename(rs.getString("filename"));
             warc.setSha256(rs.getString("sha256"));
+            long crc32 = rs.getLong("crc32");
+            warc.setCrc32(rs.wasNull() ? null : crc32);
             return warc;
         }
     }
@@ -37,22 +44,17 @@ public interface WarcsDAO extends Transactional<WarcsDAO> {
         String getFilename();
         long getSize();
         String getSha256();
+        Long getCrc32();
     }
 
-    @SqlUpdate("UPDATE warc SET warc_state_id = :stateId, path = :path, filename = :filename, size = :size, sha256 = :sha256 WHERE id = :warcId")
-    int updateWarcWithoutRollup(@Bind("warcId") long warcId, @Bind("stateId") int stateId, @Bind("path") String path, @Bind("filename") String filename, @Bind("size") long size, @Bind("sha256") String sha256);
+    @SqlUpdate("UPDATE warc SET warc_state_id = :stateId, path = :path, filename = :filename, size = :size, sha256 = :sha256, crc32 = :crc32 WHERE id = :warcId")
+    int updateWarcWithoutRollup(@Bind("warcId") long warcId, @Bind("stateId") int stateId, @Bind("path") String path, @Bind("filename") String filename, @Bind("size") long size, @Bind("sha256") String sha256, @Bind("crc32") Long crc32);
 
-    @SqlUpdate("UPDATE crawl_series SET warc_files = warc_files + :warc_files,  warc_size = warc_size + :warc_size WHERE id = (SELECT crawl_series_id FROM crawl WHERE crawl.id = :crawl_id)")
-    void incrementWarcStatsForCrawlSeriesByCrawlId(@Bind("crawl_id") long crawlId, @Bind("warc_files") int warcFilesDelta, @Bind("warc_size") long warcSizeDelta);
-
-    @SqlUpdate("UPDATE crawl SET warc_files = warc_files + :warc_files, warc_size = warc_size + :warc_size WHERE id = :crawlId")
-    void incrementWarcStatsForCrawlInternal(@Bind("crawlId") long crawlId, @Bind("warc_files") int warcFilesDelta, @Bind("warc_size") long warcSizeDelta);
-
-    @SqlUpdate("INSERT INTO warc (crawl_id, path, filename, size, warc_state_id, sha256) VALUES (:crawlId, :path, :filename, :size, :stateId, :sha256)")
+    @SqlUpdate("INSERT INTO warc (crawl_id, path, filename, size, warc_state_id, sha256, crc32) VALUES (:crawlId, :path, :filename, :size, :stateId, :sha256, :crc32)")
     @GetGeneratedKeys
-    long insertWarcWithoutRollup(@Bind("crawlId") long crawlId, @Bind("stateId") int stateId, @Bind("path") String path, @Bind("filename") String filename, @Bind("size") long size, @Bind("sha256") String sha256);
+    long insertWarcWithoutRollup(@Bind("crawlId") long crawlId, @Bind("stateId") int stateId, @Bind("path") String path, @Bind("filename") String filename, @Bind("size") long size, @Bind("sha256") String sha256, @Bind("crc32") Long crc32);
 
-    @SqlBatch("INSERT INTO warc (crawl_id, path, filename, size, warc_state_id, sha256) VALUES (:crawlId, :warc.path, :warc.filename, :warc.size, :warc.stateId, :warc.sha256)")
+    @SqlBatch("INSERT INTO warc (crawl_id, path, filename, size, warc_state_id, sha256, crc32) VALUES (:crawlId, :warc.path, :warc.filename, :warc.size, :warc.stateId, :warc.sha256, :warc.crc32)")
     void batchInsertWarcsWithoutRollup(@Bind("crawlId") long crawlId, @BindBean("warc") Iterator<Warc> warcs);
 
     @Deprecated
@@ -77,21 +79,39 @@ public interface WarcsDAO extends Transactional<WarcsDAO> {
     @SqlQuery("SELECT * FROM warc WHERE warc_state_id = :stateId LIMIT :limit")
     List<Warc> findWarcsInState(@Bind("stateId") int stateId, @Bind("limit") int limit);
 
+    @SqlQuery("SELECT * FROM warc WHERE warc_state_id = :stateId AND id > :afterId ORDER BY id LIMIT :limit")
+    List<Warc> findWarcsInStateAfterId(@Bind("stateId") int stateId, @Bind("afterId") long afterId, @Bind("limit") int limit);
+
     @SqlQuery("SELECT COUNT(*) FROM warc WHERE warc_state_id = :stateId")
     long countWarcsInState(@Bind("stateId") int stateId);
 
     @SqlQuery("SELECT COUNT(*) FROM warc WHERE crawl_id = :crawlId")
     long countWarcsWithCrawlId(@Bind("crawlId") long crawlId);
 
-    @SqlQuery("SELECT * FROM warc WHERE warc_state_id = :stateId LIMIT :limit OFFSET :offset")
+    @SqlQuery("SELECT * FROM warc WHERE warc_state_id = :stateId ORDER BY id LIMIT :limit OFFSET :offset")
     List<Warc> paginateWarcsInState(@Bind("stateId") int stateId, @Bind("limit") long limit, @Bind("offset") long offset);
 
-    @SqlQuery("SELECT * FROM warc WHERE crawl_id = :crawlId ORDER BY filename LIMIT :limit OFFSET :offset")
+    @SqlQuery("SELECT * FROM warc WHERE crawl_id = :crawlId ORDER BY filename, id LIMIT :limit OFFSET :offset")
     List<Warc> paginateWarcsInCrawl(@Bind("crawlId") long crawlId, @Bind("limit") long limit, @Bind("offset") long offset);
 
-    @SqlQuery("SELECT * FROM warc WHERE crawl_id = :crawlId AND warc_state_id = :stateId LIMIT :limit OFFSET :offset")
+    /**
+     * Seeks past the filename of the given warc, with id as the tie breaker.
+     */
+    @SqlQuery("SELECT * FROM warc WHERE crawl_id = :crawlId AND " +
+            "(filename > (SELECT filename FROM warc WHERE id = :afterId) OR " +
+            "(filename = (SELECT filename FROM warc WHERE id = :afterId) AND id > :afterId)) " +
+            "ORDER BY filename, id LIMIT :limit")
+    List<Warc> paginateWarcsInCrawlAfterId(@Bind("crawlId") long crawlId, @Bind("afterId") long afterId, @Bind("limit") long limit);
+
+    @SqlQuery("SELECT * FROM warc WHERE crawl_id = :crawlId AND warc_state_id = :stateId ORDER BY filename, id LIMIT :limit OFFSET :offset")
     List<Warc> paginateWarcsInCrawlAndState(@Bind("crawlId") long crawlId, @Bind("stateId") int stateId, @Bind("limit") long limit, @Bind("offset") long offset);
 
+    @SqlQuery("SELECT * FROM warc WHERE crawl_id = :crawlId AND warc_state_id = :stateId AND " +
+            "(filename > (SELECT filename FROM warc WHERE id = :afterId) OR " +
+            "(filename = (SELECT filename FROM warc WHERE id = :afterId) AND id > :afterId)) " +
+            "ORDER BY filename, id LIMIT :limit")
+    List<Warc> paginateWarcsInCrawlAndStateAfterId(@Bind("crawlId") long crawlId, @Bind("stateId") int stateId, @Bind("afterId") long afterId, @Bind("limit") long limit);
+
     @SqlQuery("SELECT COUNT(*) FROM warc WHERE crawl_id = :it AND warc_state_id = :stateId")
     long countWarcsInCrawlAndState(@Bind long crawlId, @Bind("stateId") int stateId);
 
@@ -110,25 +130,30 @@ public interface WarcsDAO extends Transactional<WarcsDAO> {
     @SqlUpdate("UPDATE warc SET sha256 = :digest WHERE id = :id")
     int updateWarcSha256(@Bind("id") long id, @Bind("digest") String digest);
 
+    @SqlUpdate("UPDATE warc SET crc32 = :crc32 WHERE id = :id")
+    int updateWarcCrc32(@Bind("id") long id, @Bind("crc32") long crc32);
+
     @SqlQuery("SELECT name FROM warc_state WHERE id = :stateId")
     String findWarcStateName(@Bind("stateId") int stateId);
 
+    /*
+     * Batched forms of the statements run when a warc finishes indexing. Each list holds one element per warc.
+     */
+
+    @SqlBatch("UPDATE warc SET records = :stats.records, record_bytes = :stats.recordBytes WHERE id = :warcId")
+    int[] batchUpdateWarcRecordStats(@Bind("warcId") List<Long> warcIds, @BindBean("stats") List<RecordStats> stats);
+
+    @SqlBatch("UPDATE warc SET warc_state_id = :stateId WHERE id = :warcId")
+    int[] batchUpdateWarcStateWithoutHistory(@Bind("warcId") List<Long> warcIds, @Bind("stateId") List<Integer> stateIds);
+
+    @SqlBatch("INSERT INTO warc_history (warc_id, warc_state_id) VALUES (:warcId, :stateId)")
+    void batchInsertWarcHistory(@Bind("warcId") List<Long> warcIds, @Bind("stateId") List<Integer> stateIds);
 
-    @SqlUpdate(
-            "UPDATE crawl SET " +
-            "  records = records + :stats.records - (SELECT records FROM warc WHERE id = :warcId), " +
-            "  record_bytes = record_bytes + :stats.recordBytes - (SELECT record_bytes FROM warc WHERE id = :warcId), " +
-            "  start_time = LEAST(start_time, :stats.startTime), " +
-            "  end_time = GREATEST(end_time, :stats.endTime) " +
-            "WHERE id = (SELECT crawl_id FROM warc WHERE id = :warcId)")
-    int updateRecordStatsRollupForCrawl(@Bind("warcId") long warcId, @BindBean("stats") RecordStats stats);
+    @SqlBatch("DELETE FROM collection_warc WHERE collection_id = :collectionId AND warc_id = :warcId")
+    void batchDeleteCollectionWarcs(@Bind("collectionId") List<Long> collectionIds, @Bind("warcId") List<Long> warcIds);
 
-    @SqlUpdate(
-            "UPDATE crawl_series SET " +
-            "  records = records + :stats.records - (SELECT records FROM warc WHERE id = :warcId), " +
-            "  record_bytes = record_bytes + :stats.recordBytes - (SELECT record_bytes FROM warc WHERE id = :warcId) " +
-            "WHERE id = (SELECT crawl.crawl_series_id FROM crawl INNER JOIN warc ON warc.crawl_id = crawl.id WHERE warc.id = :warcId)")
-    int updateRecordStatsRollupForSeries(@Bind("warcId") long warcId, @BindBean("stats") RecordStats stats);
+    @SqlBatch("INSERT INTO collection_warc (collection_id, warc_id, records, record_bytes) VALUES (:collectionId, :warcId, :stats.records, :stats.recordBytes)")
+    void batchInsertCollectionWarcs(@Bind("collectionId") List<Long> collectionIds, @Bind("warcId") List<Long> warcIds, @BindBean("stats") List<RecordStats> stats);
 
     class CollectionWarcMapper implements ResultSetMapper<CollectionWarc> {
         @Override
@@ -149,9 +174,62 @@ public interface WarcsDAO extends Transactional<WarcsDAO> {
     @SqlUpdate("INSERT INTO collection_warc (collection_id, warc_id, records, record_bytes) VALUES (:collectionId, :warcId, :records, :recordBytes)")
     void insertCollectionWarc(@Bind("collectionId") long collectionId, @Bind("warcId") long warcId, @Bind("records") long records, @Bind("recordBytes") long recordBytes);
 
-    @SqlUpdate("UPDATE collection SET records = records + :records, record_bytes = record_bytes + :bytes WHERE id = :id")
-    int incrementRecordStatsForCollection(@Bind("id") long collectionId, @Bind("records") long records, @Bind("bytes") long bytes);
+    /*
+     * The rollup_delta journal. Changes to the warc totals on crawls, series and collections are appended here and
+     * periodically folded into the totals by Rollups.
+     */
+
+    class RollupDeltaMapper implements ResultSetMapper<RollupDelta> {
+        @Override
+        public RollupDelta map(int index, ResultSet r, StatementContext ctx) throws SQLException {
+            return new RollupDelta(r);
+        }
+    }
+
+    @SqlBatch("INSERT INTO rollup_delta (target, target_id, warc_files, warc_size, records, record_bytes, start_time, end_time) " +
+            "VALUES (:target, :targetId, :warcFiles, :warcSize, :records, :recordBytes, :startTime, :endTime)")
+    void batchInsertRollupDeltas(@BindBean List<RollupDelta> deltas);
+
+    /**
+     * Reads without locking so journal inserts are never blocked. Rows are claimed by deleting them.
+     */
+    @SqlQuery("SELECT * FROM rollup_delta ORDER BY id LIMIT :limit")
+    List<RollupDelta> findRollupDeltas(@Bind("limit") int limit);
+
+    @SqlBatch("DELETE FROM rollup_delta WHERE id = :id")
+    int[] batchDeleteRollupDeltas(@Bind("id") List<Long> ids);
+
+    /**
+     * LEAST and GREATEST return null on MySQL if either side is, so the COALESCE keeps whichever time is known.
+     */
+    @SqlBatch("UPDATE crawl SET warc_files = warc_files + :warcFiles, warc_size = warc_size + :warcSize, " +
+            "records = records + :records, record_bytes = record_bytes + :recordBytes, " +
+            "start_time = COALESCE(LEAST(start_time, :startTime), start_time, :startTime), " +
+            "end_time = COALESCE(GREATEST(end_time, :endTime), end_time, :endTime) " +
+            "WHERE id = :targetId")
+    void batchIncrementStatsForCrawl(@BindBean List<RollupDelta> deltas);
+
+    @SqlBatch("UPDATE crawl_series SET warc_files = warc_files + :warcFiles, warc_size = warc_size + :warcSize, " +
+            "records = records + :records, record_bytes = record_bytes + :recordBytes " +
+            "WHERE id = (SELECT crawl_series_id FROM crawl WHERE crawl.id = :targetId)")
+    void batchIncrementStatsForSeriesByCrawlId(@BindBean List<RollupDelta> deltas);
+
+    @SqlBatch("UPDATE collection SET records = records + :records, record_bytes = record_bytes + :recordBytes WHERE id = :targetId")
+    void batchIncrementRecordStatsForCollection(@BindBean List<RollupDelta> deltas);
+
+    class WarcToIndexMapper implements ResultSetMapper<WarcToIndex> {
+        @Override
+        public WarcToIndex map(int index, ResultSet rs, StatementContext ctx) throws SQLException {
+            return new WarcToIndex(rs.getLong("id"), rs.getLong("records"));
+        }
+    }
+
+    @SqlQuery("SELECT MAX(warc_id) FROM collection_warc WHERE collection_id = :collectionId")
+    Long findHighestWarcIdInCollection(@Bind("collectionId") long collectionId);
 
-    @SqlQuery("SELECT w.* FROM warc w, collection_warc cw WHERE cw.warc_id = w.id AND cw.collection_id = :collectionId AND w.id >= :start ORDER BY w.id asc LIMIT :rows")
-    List<Warc> findByCollectionId(@Bind("collectionId") long collectionId, @Bind("start") long start, @Bind("rows") long rows);
+    @SqlQuery("SELECT w.id, w.records FROM collection_warc cw JOIN warc w ON w.id = cw.warc_id " +
+            "WHERE cw.collection_id = :collectionId AND cw.warc_id >= :start AND cw.warc_id <= :end " +
+            "ORDER BY cw.warc_id LIMIT :rows")
+    @FetchSize(1000)
+    ResultIterator<WarcToIndex> iterateWarcsToIndexInCollection(@Bind("collectionId") long collectionId, @Bind("start") long start, @Bind("end") long end, @Bind("rows") long rows);
 }
@@ -1,6 +1,6 @@
 package bamboo.seedlist;
 
-import com.google.common.net.InternetDomainName;
+import bamboo.util.Sites;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.archive.url.SURT;
 import org.archive.url.URLParser;
@@ -39,7 +39,8 @@ public class Seed {
 
     public String topPrivateDomain() {
         try {
-            return InternetDomainName.from(URLParser.parse(getUrl()).getHost()).topPrivateDomain().toString();
+            String host = URLParser.parse(getUrl()).getHost();
+            return host == null ? getUrl() : Sites.topPrivateDomain(host);
         } catch (URISyntaxException e) {
             return getUrl();
         }
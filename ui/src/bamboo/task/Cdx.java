@@ -1,5 +1,6 @@
 package bamboo.task;
 
+import bamboo.util.Surts;
 import bamboo.util.Urls;
 import com.codepoetics.protonpack.StreamUtils;
 import org.apache.commons.lang.StringUtils;
@@ -27,7 +28,8 @@ public class Cdx {
     public static void writeCdx(Path warc, String filename, Writer out) throws IOException {
         records(WarcUtils.open(warc), filename).forEach(record -> {
             try {
-                out.write(record.toCdxLine() + "\n");
+                record.writeCdxLine(out);
+                out.write('\n');
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
@@ -79,6 +81,8 @@ public class Cdx {
 
     public interface CdxRecord {
         String toCdxLine();
+
+        void writeCdxLine(Appendable out) throws IOException;
     }
 
     static List<Alias> parseUrlMap(InputStream in, String piAndDate) throws IOException {
@@ -175,6 +179,11 @@ public class Cdx {
             return "@alias " + alias + " " + target;
         }
 
+        @Override
+        public void writeCdxLine(Appendable out) throws IOException {
+            out.append("@alias ").append(alias).append(' ').append(target);
+        }
+
         public boolean isSane() {
             return isUrlSane(alias) && isUrlSane(target);
         }
@@ -191,39 +200,131 @@ public class Cdx {
         public String filename;
         public String digest;
 
+        /**
+         * Schemeless SURT of the url, computed on first use and then shared by everything routing the capture.
+         */
+        public String surt;
+
+        public String getSurt() {
+            if (surt == null) {
+                surt = Surts.toSchemelessSurt(url);
+            }
+            return surt;
+        }
+
         public String toCdxLine() {
-            return String.join(" ", "-", date, url, optional(contentType),
-                    status == -1 ? "-" : Integer.toString(status), optional(digest),
-                    optional(location), "-", Long.toString(contentLength),
-                    Long.toString(offset), filename);
+            StringBuilder sb = new StringBuilder(256);
+            try {
+                writeCdxLine(sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // can't happen with StringBuilder
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Writes the CDX line (without a trailing newline) straight to the output, escaping fields as they're copied
+         * rather than building intermediate strings.
+         */
+        @Override
+        public void writeCdxLine(Appendable out) throws IOException {
+            out.append("- ");
+            out.append(date).append(' ');
+            out.append(url).append(' ');
+            appendOptional(out, contentType);
+            out.append(' ');
+            if (status == -1) {
+                out.append('-');
+            } else {
+                appendLong(out, status);
+            }
+            out.append(' ');
+            appendOptional(out, digest);
+            out.append(' ');
+            appendOptional(out, location);
+            out.append(" - ");
+            appendLong(out, contentLength);
+            out.append(' ');
+            appendLong(out, offset);
+            out.append(' ');
+            out.append(filename);
         }
 
-        private static String optional(String s) {
+        private static void appendOptional(Appendable out, String s) throws IOException {
             if (s == null) {
-                return "-";
+                out.append('-');
+                return;
+            }
+            int start = 0;
+            for (int i = 0; i < s.length(); i++) {
+                String escape;
+                switch (s.charAt(i)) {
+                    case ' ': escape = "%20"; break;
+                    case '\n': escape = "%0A"; break;
+                    case '\r': escape = "%0D"; break;
+                    default: continue;
+                }
+                out.append(s, start, i).append(escape);
+                start = i + 1;
+            }
+            out.append(s, start, s.length());
+        }
+
+        private static void appendLong(Appendable out, long value) throws IOException {
+            if (out instanceof StringBuilder) {
+                ((StringBuilder) out).append(value);
+                return;
+            }
+            if (value < 0) {
+                if (value == Long.MIN_VALUE) {
+                    out.append(Long.toString(value));
+                    return;
+                }
+                out.append('-');
+                value = -value;
+            }
+            long divisor = 1;
+            while (divisor <= value / 10) {
+                divisor *= 10;
+            }
+            for (; divisor > 0; divisor /= 10) {
+                out.append((char) ('0' + (value / divisor) % 10));
             }
-            return s.replace(" ", "%20").replace("\n", "%0A").replace("\r", "%0D");
         }
 
         static Capture parseWarcRecord(String filename, ArchiveRecord record) throws IOException {
             ArchiveRecordHeader header = record.getHeader();
 
-            Capture capture = new Capture();
-
+            HttpHeader http = null;
             if (WarcUtils.isResponseRecord(header)) {
-                HttpHeader http = HttpHeader.parse(record, capture.url);
+                http = HttpHeader.parse(record, WarcUtils.getCleanUrl(header));
                 if (http == null) {
                     return null;
                 }
+            } else if (!WarcUtils.isResourceRecord(header)) {
+                return null;
+            }
+
+            Capture capture = fromHeaders(filename, header, http);
+            capture.digest = WarcUtils.getOrCalcDigest(record);
+            return capture;
+        }
+
+        /**
+         * Builds a capture from the WARC header and (for response records) the already parsed HTTP header. The
+         * digest is left for the caller to fill in as calculating it may require reading the payload.
+         */
+        static Capture fromHeaders(String filename, ArchiveRecordHeader header, HttpHeader http) {
+            Capture capture = new Capture();
+
+            if (http != null) {
                 capture.contentType = HttpHeader.cleanContentType(http.contentType);
                 capture.status = http.status;
                 capture.location = http.location;
-            } else if (WarcUtils.isResourceRecord(header)) {
+            } else {
                 capture.contentType = header.getMimetype();
                 capture.status = 200;
                 capture.location = null;
-            } else {
-                return null;
             }
 
             capture.url = WarcUtils.getCleanUrl(header);
@@ -231,7 +332,6 @@ public class Cdx {
             capture.contentLength = header.getContentLength();
             capture.offset = header.getOffset();
             capture.filename = filename;
-            capture.digest = WarcUtils.getOrCalcDigest(record);
             return capture;
         }
     }
@@ -0,0 +1,196 @@
+package bamboo.task;
+
+import bamboo.crawl.RecordStats;
+import bamboo.crawl.Warc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps a gzipped copy of every warc's full CDX output alongside its SURT keys so re-indexing (after changing a
+ * collection's URL filters or adding a collection to a series) only needs to re-filter and stream a small file
+ * rather than parse the warc again.
+ *
+ * There's one file per warc named by its id. The first line records the warc's SHA-256 (or its path, size and
+ * modification time if that's unknown) and the cache is ignored if the warc no longer matches. Each following line is either an alias line or a SURT
+ * followed by a space and the capture's CDX line, in the order the records appear in the warc.
+ */
+public class CdxCache {
+    private static final String HEADER = "#bamboo-cdx-cache ";
+
+    private final Path dir;
+
+    public CdxCache(Path dir) {
+        this.dir = dir;
+    }
+
+    private Path path(Warc warc) {
+        return dir.resolve(warc.getId() + ".cdx.gz");
+    }
+
+    private static BufferedReader openReader(Path path) throws IOException {
+        return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(path), 64 * 1024),
+                StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Whether there's a usable cache for this warc.
+     */
+    public boolean has(Warc warc) {
+        Path path = path(warc);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (BufferedReader reader = openReader(path)) {
+            return (HEADER + DigestCache.key(warc)).equals(reader.readLine());
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable CDX cache " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Receives CDX lines that have already been formatted.
+     */
+    interface LineSink {
+        void acceptAlias(Cdx.Alias alias) throws IOException;
+
+        /**
+         * @param line the CDX line including its trailing newline
+         */
+        void acceptLine(String surt, char[] line, int lineLength, long recordLength, Date time) throws IOException;
+    }
+
+    /**
+     * Feeds the cached lines to a sink (without finishing it) and returns statistics for the whole warc.
+     */
+    RecordStats replay(Warc warc, LineSink sink) throws IOException {
+        try (BufferedReader reader = openReader(path(warc))) {
+            String header = reader.readLine();
+            if (!(HEADER + DigestCache.key(warc)).equals(header)) {
+                throw new IOException("CDX cache for warc " + warc.getId() + " is stale");
+            }
+            return replay(reader, sink);
+        }
+    }
+
+    static void writeAlias(Writer writer, Cdx.Alias alias) throws IOException {
+        writer.write("@alias ");
+        writer.write(WarcUtils.cleanUrl(alias.alias));
+        writer.write(' ');
+        writer.write(WarcUtils.cleanUrl(alias.target));
+        writer.write('\n');
+    }
+
+    static void writeCapture(Writer writer, RecordPipeline.ParsedRecord record) throws IOException {
+        writer.write(record.surt);
+        writer.write(' ');
+        record.capture.writeCdxLine(writer);
+        writer.write('\n');
+    }
+
+    /**
+     * Reads lines written by {@link #writeAlias} and {@link #writeCapture} and passes them to the sinks.
+     */
+    static RecordStats replay(BufferedReader reader, LineSink... sinks) throws IOException {
+        RecordStats stats = new RecordStats();
+        char[] chars = new char[256];
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (line.startsWith("@alias ")) {
+                String[] fields = line.split(" ");
+                Cdx.Alias alias = new Cdx.Alias(fields[1], fields[2]);
+                for (LineSink sink : sinks) {
+                    sink.acceptAlias(alias);
+                }
+                continue;
+            }
+
+            int split = line.indexOf(' ');
+            String surt = line.substring(0, split);
+            String[] fields = line.substring(split + 1).split(" ");
+            Date time = WarcUtils.parseArcDate(fields[1]);
+            long length = Long.parseLong(fields[8]);
+            stats.update(length, time);
+
+            int lineLength = line.length() - split; // cdx line plus newline
+            if (chars.length < lineLength) {
+                chars = new char[Math.max(lineLength, chars.length * 2)];
+            }
+            line.getChars(split + 1, line.length(), chars, 0);
+            chars[lineLength - 1] = '\n';
+            for (LineSink sink : sinks) {
+                sink.acceptLine(surt, chars, lineLength, length, time);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Returns a sink which writes a new cache for the warc as it's indexed. The cache only replaces any existing one
+     * once the whole file has been read.
+     */
+    Sink newSink(Warc warc) throws IOException {
+        return new Sink(warc);
+    }
+
+    class Sink implements RecordPipeline.Sink, LineSink {
+        private final Warc warc;
+        private final Path tmp;
+        private final Writer writer;
+        private boolean finished;
+
+        Sink(Warc warc) throws IOException {
+            this.warc = warc;
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, warc.getId() + ".", ".tmp");
+            writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024),
+                    StandardCharsets.UTF_8));
+            writer.write(HEADER);
+            writer.write(DigestCache.key(warc));
+            writer.write('\n');
+        }
+
+        @Override
+        public boolean wantsDigest() {
+            return true;
+        }
+
+        @Override
+        public void acceptAlias(Cdx.Alias alias) throws IOException {
+            writeAlias(writer, alias);
+        }
+
+        @Override
+        public void accept(RecordPipeline.ParsedRecord record) throws IOException {
+            writeCapture(writer, record);
+        }
+
+        @Override
+        public void acceptLine(String surt, char[] line, int lineLength, long recordLength, Date time) throws IOException {
+            writer.write(surt);
+            writer.write(' ');
+            writer.write(line, 0, lineLength);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.close();
+            Files.move(tmp, path(warc), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                writer.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+}
@@ -1,48 +1,88 @@
 package bamboo.task;
 
+import bamboo.core.Config;
 import bamboo.crawl.Collection;
 import bamboo.crawl.*;
 import bamboo.crawl.Collections;
+import bamboo.util.MultiSurtFilter;
 import bamboo.util.SurtFilter;
-import org.archive.io.ArchiveReader;
-import org.archive.url.SURT;
+import bamboo.util.Surts;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.zip.ZipException;
 
 import static bamboo.task.WarcUtils.cleanUrl;
-import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
-import static java.nio.file.StandardOpenOption.READ;
-import static java.nio.file.StandardOpenOption.WRITE;
 
 public class CdxIndexer implements Runnable {
-    private static final int BATCH_SIZE = 1024;
     private final Warcs warcs;
     private final Crawls crawls;
     private final Serieses serieses;
     private final Collections collections;
+    private final SolrIndexer solrIndexer;
+    private final WorkerPool pool;
+    private final SpillBuffer.Pool bufferPool;
+    private final boolean streamCdx;
+    private final DigestCache digestCache;
+    private final CdxCache cdxCache;
+    private final WarcSplitter splitter;
+    private final WarcUpdateBatcher updates;
     private final List<Consumer<Long>> warcIndexedListeners = new ArrayList<>();
+    private volatile BooleanSupplier solrEnabled = () -> true;
 
     public CdxIndexer(Warcs warcs, Crawls crawls, Serieses serieses, Collections collections) {
+        this(warcs, crawls, serieses, collections, null);
+    }
+
+    public CdxIndexer(Warcs warcs, Crawls crawls, Serieses serieses, Collections collections, SolrIndexer solrIndexer) {
+        this(new Config(), warcs, crawls, serieses, collections, solrIndexer,
+                new WorkerPool("CDX Indexer", Runtime.getRuntime().availableProcessors(), 64));
+    }
+
+    /**
+     * When a solr indexer is given, text is extracted and sent to Solr in the same pass over the file as CDX
+     * indexing and successfully indexed warcs go straight to the SOLR_INDEXED state.
+     */
+    public CdxIndexer(Config config, Warcs warcs, Crawls crawls, Serieses serieses, Collections collections,
+                      SolrIndexer solrIndexer, WorkerPool pool) {
+        this(config, warcs, crawls, serieses, collections, solrIndexer, pool,
+                new WarcSplitter(config.getWarcSplitSize(), config.getWarcSplitThreads()));
+    }
+
+    /**
+     * Without a shared batcher each warc's results are written as soon as it's indexed.
+     */
+    public CdxIndexer(Config config, Warcs warcs, Crawls crawls, Serieses serieses, Collections collections,
+                      SolrIndexer solrIndexer, WorkerPool pool, WarcSplitter splitter) {
+        this(config, warcs, crawls, serieses, collections, solrIndexer, pool, splitter,
+                new WarcUpdateBatcher(warcs, 1, 0));
+    }
+
+    public CdxIndexer(Config config, Warcs warcs, Crawls crawls, Serieses serieses, Collections collections,
+                      SolrIndexer solrIndexer, WorkerPool pool, WarcSplitter splitter, WarcUpdateBatcher updates) {
         this.warcs = warcs;
         this.crawls = crawls;
         this.serieses = serieses;
         this.collections = collections;
+        this.solrIndexer = solrIndexer;
+        this.pool = pool;
+        this.bufferPool = new SpillBuffer.Pool(config.getCdxBufferBudget());
+        this.streamCdx = config.getCdxStreaming();
+        this.digestCache = config.getDigestCacheDir() != null ? new DigestCache(config.getDigestCacheDir()) : null;
+        this.cdxCache = config.getCdxCacheDir() != null ? new CdxCache(config.getCdxCacheDir()) : null;
+        this.splitter = splitter;
+        this.updates = updates;
     }
 
     public void onWarcIndexed(Consumer<Long> callback) {
@@ -50,96 +90,240 @@ public class CdxIndexer implements Runnable {
     }
 
     public void run() {
-        while (true) {
-            List<Warc> candidates = warcs.findByState(Warc.IMPORTED, BATCH_SIZE);
+        try {
+            // flush batched results once the workers run dry rather than waiting out the batch timer
+            new WarcStateFeeder(warcs, Warc.IMPORTED, pool, this::indexWarc, updates::flush).run();
+        } catch (InterruptedException e) {
+            // task disabled
+        }
+    }
 
-            if (candidates.isEmpty()) {
-                break;
-            }
+    /**
+     * Decides whether warcs are also indexed into Solr as they're CDX indexed. Bamboo ties this to the Solr Indexer
+     * task being enabled.
+     */
+    public void setSolrEnabled(BooleanSupplier solrEnabled) {
+        this.solrEnabled = solrEnabled;
+    }
 
-            indexWarcs(candidates);
-        }
+    public WorkerPool getWorkerPool() {
+        return pool;
     }
 
-    public void indexWarcs(List<Warc> candidates) {
-        int threads = Runtime.getRuntime().availableProcessors();
-        ExecutorService threadPool = Executors.newFixedThreadPool(threads);
-        try {
-            for (Warc warc : candidates) {
-                threadPool.submit(() -> {
-                    try {
-                        indexWarc(warc);
-                    } catch (Throwable t) {
-                        t.printStackTrace();
-                    }
-                });
-            }
-            threadPool.shutdown();
-            threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            threadPool.shutdownNow();
-        }
+    public SpillBuffer.Pool getBufferPool() {
+        return bufferPool;
     }
 
-    private void indexWarc(Warc warc) throws IOException {
+    /**
+     * Indexes a warc and queues its results to be written. The returned future completes once they've been
+     * committed, or exceptionally if they couldn't be.
+     */
+    private CompletableFuture<Void> indexWarc(Warc warc) throws IOException {
         System.out.println("\nCDX indexing " + warc.getId() + " " + warc.getPath());
 
         // fetch the list of collections from the database
         List<CdxBuffer> buffers = new ArrayList<>();
         Crawl crawl = crawls.get(warc.getCrawlId());
-        for (CollectionWithFilters collection: collections.findByCrawlSeriesId(crawl.getCrawlSeriesId())) {
-            buffers.add(new CdxBuffer(collection));
-        }
+        List<CollectionWithFilters> collectionList = collections.findByCrawlSeriesId(crawl.getCrawlSeriesId());
+
+        // only index into solr along the way while the solr indexer is enabled, otherwise leave it to catch up later
+        SolrIndexer inlineSolr = solrIndexer != null && solrEnabled.getAsBoolean() ? solrIndexer : null;
 
         RecordStats stats;
+        boolean solrIndexed = false;
+        List<RecordPipeline.Sink> sinks = new ArrayList<>();
         Map<Long, RecordStats> collectionStats = new HashMap<>();
 
         try {
-            // parse the warc file
-            try {
-                stats = writeCdx(warc.getPath(), warc.getFilename(), buffers);
-            } catch (RuntimeException e) {
-                if (e.getCause() != null && e.getCause() instanceof ZipException) {
-                    warcs.updateState(warc.getId(), Warc.CDX_ERROR);
-                    return;
-                } else {
+            for (CollectionWithFilters collection : collectionList) {
+                buffers.add(new CdxBuffer(collection, bufferPool, streamCdx));
+            }
+            CdxSink cdxSink = new CdxSink(buffers);
+            List<Long> starts;
+
+            if (cdxCache != null && cdxCache.has(warc)) {
+                // we've parsed this warc before so just re-filter the cached CDX and leave solr to the solr indexer
+                System.out.println("Replaying cached CDX for " + warc.getId());
+                stats = cdxCache.replay(warc, cdxSink);
+                cdxSink.finish();
+            } else if ((starts = splitter.split(warc)).size() > 1) {
+                // read ranges of the file concurrently, spooling their CDX to be sent in file order afterwards
+                System.out.println("Splitting " + warc.getId() + " into " + starts.size() + " ranges");
+                List<RecordPipeline> pipelines = new ArrayList<>();
+                List<CdxSpool> spools = new ArrayList<>();
+                List<SolrIndexer.SolrSink> solrSinks = new ArrayList<>();
+                DigestCache.WarcDigests knownDigests = digestCache != null ? digestCache.load(warc) : null;
+                for (int i = 0; i < starts.size(); i++) {
+                    List<RecordPipeline.Sink> rangeSinks = new ArrayList<>();
+                    CdxSpool spool = new CdxSpool(bufferPool);
+                    sinks.add(spool);
+                    spools.add(spool);
+                    rangeSinks.add(spool);
+                    if (inlineSolr != null) {
+                        SolrIndexer.SolrSink solrSink = inlineSolr.newSink(collectionList);
+                        solrSinks.add(solrSink);
+                        rangeSinks.add(solrSink);
+                    }
+                    RecordPipeline pipeline = newPipeline(rangeSinks);
+                    pipeline.setKnownDigests(knownDigests);
+                    pipelines.add(pipeline);
+                }
+
+                try {
+                    splitter.run(warc.getPath(), warc.getFilename(), starts, pipelines);
+                } catch (IOException | RuntimeException e) {
+                    if (isCorrupt(e)) {
+                        warcs.updateState(warc.getId(), Warc.CDX_ERROR);
+                        return CompletableFuture.completedFuture(null);
+                    }
                     throw e;
                 }
-            } catch (ZipException | FileNotFoundException e) {
-                warcs.updateState(warc.getId(), Warc.CDX_ERROR);
-                return;
-            } catch (IOException e) {
-                if (e.getMessage().endsWith(" is not a WARC file.")) {
-                    warcs.updateState(warc.getId(), Warc.CDX_ERROR);
-                    return;
-                } else {
+
+                if (knownDigests != null) {
+                    digestCache.save(warc, knownDigests);
+                }
+
+                stats = new RecordStats();
+                for (int i = 0; i < spools.size(); i++) {
+                    rethrow(pipelines.get(i).failure(spools.get(i)));
+                    stats.add(spools.get(i).replay(cdxSink));
+                }
+                cdxSink.finish();
+
+                if (cdxCache != null) {
+                    CdxCache.Sink cacheSink = cdxCache.newSink(warc);
+                    sinks.add(cacheSink);
+                    try {
+                        for (CdxSpool spool : spools) {
+                            spool.replay(cacheSink);
+                        }
+                        cacheSink.finish();
+                    } catch (IOException e) {
+                        // the cache is only an optimisation, we'll parse the warc again next time
+                        System.err.println("Unable to write CDX cache for " + warc.getId() + " " + warc.getPath());
+                        e.printStackTrace();
+                    }
+                }
+
+                solrIndexed = inlineSolr != null;
+                for (int i = 0; i < solrSinks.size(); i++) {
+                    Throwable failure = pipelines.get(i).failure(solrSinks.get(i));
+                    if (failure != null) {
+                        System.err.println("Solr indexing failed for " + warc.getId() + " " + warc.getPath());
+                        failure.printStackTrace();
+                        solrIndexed = false;
+                    }
+                }
+            } else {
+                RecordPipeline.StatsSink statsSink = new RecordPipeline.StatsSink();
+                sinks.add(statsSink);
+                sinks.add(cdxSink);
+                SolrIndexer.SolrSink solrSink = null;
+                if (inlineSolr != null) {
+                    solrSink = inlineSolr.newSink(collectionList);
+                    sinks.add(solrSink);
+                }
+                CdxCache.Sink cacheSink = null;
+                if (cdxCache != null) {
+                    cacheSink = cdxCache.newSink(warc);
+                    sinks.add(cacheSink);
+                }
+                RecordPipeline pipeline = newPipeline(sinks);
+                DigestCache.WarcDigests knownDigests = null;
+                if (digestCache != null) {
+                    knownDigests = digestCache.load(warc);
+                    pipeline.setKnownDigests(knownDigests);
+                }
+
+                // parse the warc file
+                try {
+                    pipeline.run(warc.getPath(), warc.getFilename());
+                } catch (IOException | RuntimeException e) {
+                    if (isCorrupt(e)) {
+                        warcs.updateState(warc.getId(), Warc.CDX_ERROR);
+                        return CompletableFuture.completedFuture(null);
+                    }
                     throw e;
                 }
+
+                if (knownDigests != null) {
+                    digestCache.save(warc, knownDigests);
+                }
+
+                // the records were submitted to each collection when the cdx sink finished
+                rethrow(pipeline.failure(cdxSink));
+                stats = statsSink.stats;
+
+                solrIndexed = solrSink != null;
+                if (solrSink != null && pipeline.failure(solrSink) != null) {
+                    // leave the warc for the solr indexer to retry on its own
+                    System.err.println("Solr indexing failed for " + warc.getId() + " " + warc.getPath());
+                    pipeline.failure(solrSink).printStackTrace();
+                    solrIndexed = false;
+                }
+
+                if (cacheSink != null && pipeline.failure(cacheSink) != null) {
+                    // the cache is only an optimisation, we'll parse the warc again next time
+                    System.err.println("Unable to write CDX cache for " + warc.getId() + " " + warc.getPath());
+                    pipeline.failure(cacheSink).printStackTrace();
+                }
             }
 
-            // submit the records to each collection
             for (CdxBuffer buffer : buffers) {
-                buffer.submit();
                 collectionStats.put(buffer.collection.getId(), buffer.stats);
             }
         } finally {
             for (CdxBuffer buffer: buffers) {
                 buffer.close();
             }
+            for (RecordPipeline.Sink sink : sinks) {
+                sink.close();
+            }
         }
 
+        // queue the statistics and the finished state to be written to the database with other warcs
+        int stateId = solrIndexed ? Warc.SOLR_INDEXED : Warc.CDX_INDEXED;
+        CompletableFuture<Void> written = updates.add(new Warcs.IndexedWarc(warc.getId(), stateId, stats, collectionStats));
+        written.whenComplete((result, t) -> {
+            if (t == null) {
+                sendWarcIndexedNotification(warc.getId());
+            } else {
+                System.err.println("Unable to record CDX indexing of " + warc.getId() + " " + warc.getPath());
+            }
+        });
 
-        // update the statistics in the database
-        warcs.updateRecordStats(warc.getId(), stats);
-        warcs.updateCollections(warc.getId(), collectionStats);
+        System.out.println("Finished CDX indexing " + warc.getId() + " " + warc.getPath() + " " + stats);
+        return written;
+    }
 
-        // mark indexing as finished
-        warcs.updateState(warc.getId(), Warc.CDX_INDEXED);
+    private RecordPipeline newPipeline(List<RecordPipeline.Sink> sinks) {
+        return solrIndexer != null ? solrIndexer.newPipeline(sinks) : new RecordPipeline(SolrIndexer.extractor, sinks);
+    }
 
-        System.out.println("Finished CDX indexing " + warc.getId() + " " + warc.getPath() + " " + stats);
-        sendWarcIndexedNotification(warc.getId());
+    /**
+     * Whether an exception from reading a warc means the file is corrupt or missing, rather than a problem worth
+     * retrying.
+     */
+    static boolean isCorrupt(Exception e) {
+        if (e instanceof ZipException || e instanceof FileNotFoundException) {
+            return true;
+        } else if (e instanceof RuntimeException) {
+            return e.getCause() != null && e.getCause() instanceof ZipException;
+        } else {
+            return e.getMessage() != null && e.getMessage().endsWith(" is not a WARC file.");
+        }
+    }
+
+    static void rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
     }
 
     private void sendWarcIndexedNotification(long warcId) {
@@ -149,7 +333,16 @@ public class CdxIndexer implements Runnable {
     }
 
     void indexWarc(long warcId) throws IOException {
-        indexWarc(warcs.get(warcId));
+        CompletableFuture<Void> written = indexWarc(warcs.get(warcId));
+        updates.flush();
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted recording CDX indexing of warc " + warcId);
+        } catch (ExecutionException e) {
+            rethrow(e.getCause());
+        }
     }
 
     public boolean healthcheck(PrintWriter out) {
@@ -188,57 +381,120 @@ public class CdxIndexer implements Runnable {
         final SurtFilter filter;
         final Writer writer;
         final RecordStats stats = new RecordStats();
-        private final Path bufferPath;
-        private final FileChannel channel;
+        private final SpillBuffer buffer;
+        private HttpURLConnection streamingConn;
+        private boolean submitted;
+
+        /**
+         * Lines are held in memory drawn from the given pool and only written to a temporary file once the pool's
+         * budget is exhausted.
+         */
+        CdxBuffer(CollectionWithFilters collection, SpillBuffer.Pool pool) throws IOException {
+            this(collection, pool, false);
+        }
 
-        CdxBuffer(CollectionWithFilters collection) throws IOException {
+        /**
+         * In streaming mode a chunked POST to the CDX server is opened once the first buffer of lines is ready and
+         * the rest are sent as they're produced, so the server can ingest while the warc is still being parsed
+         * without holding an idle request open while the parser starts up. Otherwise the lines are spooled and sent
+         * with a content length once the whole file has been read.
+         */
+        CdxBuffer(CollectionWithFilters collection, SpillBuffer.Pool pool, boolean streaming) throws IOException {
             this.collection = collection;
             cdxServer = new URL(collection.getCdxUrl());
             filter = new SurtFilter(collection.urlFilters);
 
-            bufferPath = Files.createTempFile("bamboo", ".cdx");
-
-            channel = FileChannel.open(bufferPath, DELETE_ON_CLOSE, READ, WRITE);
+            OutputStream out;
+            if (streaming) {
+                buffer = null;
+                out = new StreamingOutput();
+            } else {
+                buffer = new SpillBuffer(pool);
+                out = buffer;
+            }
 
-            writer = new BufferedWriter(Channels.newWriter(channel, "utf-8"));
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
             writer.append(" CDX N b a m s k r M S V g\n");
         }
 
-        void append(String surt, long recordLength, String cdxLine, Date time) {
-            if (filter == null || filter.accepts(surt)) {
-                try {
-                    writer.write(cdxLine + "\n");
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
-                }
-                stats.update(recordLength, time);
-            }
-        }
-
-        void submit() throws IOException {
-            writer.flush();
-            channel.position(0);
-
+        private HttpURLConnection openConnection() throws IOException {
             HttpURLConnection conn = (HttpURLConnection) cdxServer.openConnection();
             conn.setRequestMethod("POST");
             conn.addRequestProperty("Content-Type", "text/plain");
-            conn.setFixedLengthStreamingMode(channel.size());
             conn.setDoOutput(true);
+            return conn;
+        }
 
-            try (OutputStream out = conn.getOutputStream();
-                 InputStream stream = Channels.newInputStream(channel)) {
-                byte[] buf = new byte[8192];
-                while (true) {
-                    int n = stream.read(buf);
-                    if (n < 0) {
-                        break;
-                    }
-                    out.write(buf, 0, n);
+        /**
+         * Opens the chunked POST on the first write, so nothing is sent until the writer's buffer fills or the
+         * buffer is submitted.
+         */
+        private class StreamingOutput extends OutputStream {
+            private OutputStream out;
+
+            private OutputStream open() throws IOException {
+                if (out == null) {
+                    streamingConn = openConnection();
+                    streamingConn.setChunkedStreamingMode(64 * 1024);
+                    out = streamingConn.getOutputStream();
                 }
+                return out;
+            }
 
-                out.flush();
+            @Override
+            public void write(int b) throws IOException {
+                open().write(b);
             }
 
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                open().write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (out != null) {
+                    out.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                open().close();
+            }
+        }
+
+        /**
+         * Appends a formatted CDX line (including its newline) for a capture that has already passed this
+         * collection's filter.
+         */
+        void append(long recordLength, char[] line, int lineLength, Date time) {
+            try {
+                writer.write(line, 0, lineLength);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            stats.update(recordLength, time);
+        }
+
+        void submit() throws IOException {
+            HttpURLConnection conn;
+            if (buffer == null) {
+                writer.close(); // sends the final chunk, opening the connection if nothing has been sent yet
+                conn = streamingConn;
+            } else {
+                writer.flush();
+
+                conn = openConnection();
+                conn.setFixedLengthStreamingMode(buffer.size());
+
+                try (OutputStream out = conn.getOutputStream()) {
+                    buffer.writeTo(out);
+                    out.flush();
+                }
+            }
+            submitted = true;
+
             try (BufferedReader rdr = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
                 String output = rdr.readLine();
                 int status = conn.getResponseCode();
@@ -249,23 +505,26 @@ public class CdxIndexer implements Runnable {
         }
 
         void appendAlias(String alias, String target) {
-            String surt = toSchemalessSURT(alias);
-            if (filter == null || filter.accepts(surt)) {
-                try {
-                    writer.write("@alias ");
-                    writer.write(cleanUrl(alias));
-                    writer.write(' ');
-                    writer.write(cleanUrl(target));
-                    writer.write('\n');
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
-                }
+            try {
+                writer.write("@alias ");
+                writer.write(cleanUrl(alias));
+                writer.write(' ');
+                writer.write(cleanUrl(target));
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
 
         @Override
         public void close() throws IOException {
-            channel.close();
+            if (buffer != null) {
+                buffer.close();
+            }
+            if (streamingConn != null && !submitted) {
+                // drop the connection without completing the request so a partly read warc isn't ingested
+                streamingConn.disconnect();
+            }
         }
     }
 
@@ -276,35 +535,85 @@ public class CdxIndexer implements Runnable {
     }
 
     static String toSchemalessSURT(String url) {
-        return SURT.toSURT(stripScheme(url));
+        return Surts.toSchemelessSurt(url);
     }
 
-    private static RecordStats writeCdx(Path warc, String filename, List<CdxBuffer> buffers) throws IOException {
-        RecordStats stats = new RecordStats();
-        try (ArchiveReader reader = WarcUtils.open(warc)) {
-            Cdx.records(reader, filename).forEach(record -> {
-                if (record instanceof Cdx.Alias) {
-                    Cdx.Alias alias = (Cdx.Alias) record;
-                    for (CdxBuffer buffer : buffers) {
-                        buffer.appendAlias(alias.alias, alias.target);
-                    }
-                } else {
-                    Cdx.Capture capture = (Cdx.Capture) record;
-                    Date time;
-                    try {
-                        time = WarcUtils.parseArcDate(capture.date);
-                    } catch (DateTimeParseException e) {
-                        return; // skip record if we can't get a sane time
-                    }
-                    stats.update(capture.contentLength, time);
-                    String surt = toSchemalessSURT(capture.url);
-                    for (CdxBuffer buffer : buffers) {
-                        buffer.append(surt, capture.contentLength, capture.toCdxLine(), time);
-                    }
-                }
-            });
+    /**
+     * Routes captures and aliases from the record pipeline into each collection's CDX buffer and submits them once
+     * the whole file has been read. The collections' filters are evaluated together with one lookup per record.
+     */
+    static class CdxSink implements RecordPipeline.Sink, CdxCache.LineSink {
+        private final List<CdxBuffer> buffers;
+        private final MultiSurtFilter filter;
+        private final StringBuilder line = new StringBuilder(256);
+        private char[] lineChars = new char[256];
+
+        CdxSink(List<CdxBuffer> buffers) {
+            this.buffers = buffers;
+            List<SurtFilter> filters = new ArrayList<>();
+            for (CdxBuffer buffer : buffers) {
+                filters.add(buffer.filter);
+            }
+            filter = new MultiSurtFilter(filters);
+        }
+
+        @Override
+        public boolean wantsDigest() {
+            return true;
+        }
+
+        @Override
+        public void acceptAlias(Cdx.Alias alias) {
+            BitSet targets = filter.accepting(toSchemalessSURT(alias.alias));
+            for (int i = targets.nextSetBit(0); i >= 0; i = targets.nextSetBit(i + 1)) {
+                buffers.get(i).appendAlias(alias.alias, alias.target);
+            }
+        }
+
+        /**
+         * Routes an already formatted CDX line to the collections accepting it.
+         */
+        @Override
+        public void acceptLine(String surt, char[] line, int lineLength, long recordLength, Date time) {
+            BitSet targets = filter.accepting(surt);
+            for (int i = targets.nextSetBit(0); i >= 0; i = targets.nextSetBit(i + 1)) {
+                buffers.get(i).append(recordLength, line, lineLength, time);
+            }
+        }
+
+        @Override
+        public void accept(RecordPipeline.ParsedRecord record) {
+            BitSet targets = filter.accepting(record.surt);
+            if (targets.isEmpty()) {
+                return;
+            }
+            Cdx.Capture capture = record.capture;
+
+            // format the line once into reused buffers and copy it to each collection
+            line.setLength(0);
+            try {
+                capture.writeCdxLine(line);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            line.append('\n');
+            int length = line.length();
+            if (lineChars.length < length) {
+                lineChars = new char[Math.max(length, lineChars.length * 2)];
+            }
+            line.getChars(0, length, lineChars, 0);
+
+            for (int i = targets.nextSetBit(0); i >= 0; i = targets.nextSetBit(i + 1)) {
+                buffers.get(i).append(capture.contentLength, lineChars, length, record.time);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            for (CdxBuffer buffer : buffers) {
+                buffer.submit();
+            }
         }
-        return stats;
     }
 
     public static void main(String args[]) throws IOException {
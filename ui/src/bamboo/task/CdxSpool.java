@@ -0,0 +1,54 @@
+package bamboo.task;
+
+import bamboo.crawl.RecordStats;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Holds the CDX lines for one range of a split warc in a {@link SpillBuffer}, in the same format as {@link CdxCache},
+ * so they can be passed on in file order once every range has been read.
+ */
+class CdxSpool implements RecordPipeline.Sink {
+    private final SpillBuffer buffer;
+    private final Writer writer;
+
+    CdxSpool(SpillBuffer.Pool pool) {
+        buffer = new SpillBuffer(pool);
+        writer = new BufferedWriter(new OutputStreamWriter(buffer, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean wantsDigest() {
+        return true;
+    }
+
+    @Override
+    public void acceptAlias(Cdx.Alias alias) throws IOException {
+        CdxCache.writeAlias(writer, alias);
+    }
+
+    @Override
+    public void accept(RecordPipeline.ParsedRecord record) throws IOException {
+        CdxCache.writeCapture(writer, record);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Passes the spooled lines to the sinks and returns statistics for the range.
+     */
+    RecordStats replay(CdxCache.LineSink... sinks) throws IOException {
+        writer.flush();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(buffer.newInputStream(), StandardCharsets.UTF_8));
+        return CdxCache.replay(reader, sinks);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.close();
+    }
+}
@@ -0,0 +1,121 @@
+package bamboo.task;
+
+import bamboo.crawl.Warc;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persists the payload digests we had to calculate for records lacking a WARC-Payload-Digest header (notably ARC
+ * files) so re-indexing a file never needs to hash it again.
+ *
+ * There's one file per warc named by its id. Each file records the warc's SHA-256 (or its path, size and modification
+ * time if that's unknown) and is ignored if the warc no longer matches.
+ */
+public class DigestCache {
+    private static final int MAGIC = 0xBA3B0D16;
+
+    private final Path dir;
+
+    public DigestCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Digests for the records of one warc keyed by record offset. Safe to share between the threads reading ranges of
+     * a split warc.
+     */
+    public static class WarcDigests {
+        private final Map<Long, String> digests;
+        private boolean dirty;
+
+        WarcDigests(Map<Long, String> digests) {
+            this.digests = digests;
+        }
+
+        public synchronized String get(long offset) {
+            return digests.get(offset);
+        }
+
+        public synchronized void put(long offset, String digest) {
+            if (!digest.equals(digests.put(offset, digest))) {
+                dirty = true;
+            }
+        }
+
+        public synchronized int size() {
+            return digests.size();
+        }
+
+        synchronized boolean isDirty() {
+            return dirty;
+        }
+    }
+
+    private Path path(Warc warc) {
+        return dir.resolve(warc.getId() + ".sha1");
+    }
+
+    /**
+     * Identifies the content of a warc so cached data about it can be invalidated if the file changes. Without a
+     * digest the size alone isn't enough as unrelated files of the same size would match, so the path and
+     * modification time are included.
+     */
+    static String key(Warc warc) throws IOException {
+        if (warc.getSha256() != null) {
+            return warc.getSha256();
+        }
+        return "size:" + warc.getSize() + " mtime:" + Files.getLastModifiedTime(warc.getPath()).toMillis()
+                + " path:" + warc.getPath();
+    }
+
+    public WarcDigests load(Warc warc) {
+        Path path = path(warc);
+        Map<Long, String> digests = new HashMap<>();
+        if (Files.exists(path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                if (in.readInt() == MAGIC && in.readUTF().equals(key(warc))) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        digests.put(in.readLong(), in.readUTF());
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable digest cache " + path + ": " + e.getMessage());
+                digests.clear();
+            }
+        }
+        return new WarcDigests(digests);
+    }
+
+    /**
+     * Writes the digests out if any were added since they were loaded.
+     */
+    public void save(Warc warc, WarcDigests warcDigests) throws IOException {
+        if (!warcDigests.isDirty()) {
+            return;
+        }
+        Files.createDirectories(dir);
+        Path path = path(warc);
+        Path tmp = Files.createTempFile(dir, warc.getId() + ".", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(key(warc));
+                out.writeInt(warcDigests.digests.size());
+                for (Map.Entry<Long, String> entry : warcDigests.digests.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        warcDigests.dirty = false;
+    }
+}
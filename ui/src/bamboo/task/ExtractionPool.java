@@ -0,0 +1,278 @@
+package bamboo.task;
+
+import org.archive.io.ArchiveRecordHeader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs text extraction on a fixed number of worker threads with a hard deadline per document, so one pathological
+ * PDF or Office file can't stall indexing of the rest of its warc.
+ *
+ * Bodies are copied into a {@link SpillBuffer} by the thread reading the warc so it can carry on to the next record
+ * while the extraction runs. The queue of copied bodies is bounded: when it's full the reader waits for room, for at
+ * most the deadline. A document is also given up on if it waits in the queue past the deadline, or runs past it
+ * once started, in which case its worker is interrupted.
+ *
+ * Most parsers ignore interrupts, so the worker is also abandoned: a replacement is started immediately and the
+ * stuck thread exits once its parser finally returns. At most {@code threads} workers are abandoned at once. Past
+ * that no replacements are started, a stuck worker resumes work if its parser ever returns, and new documents fail
+ * straight away rather than queueing for workers which may never come back.
+ */
+public class ExtractionPool {
+    private final int threads;
+    private final long timeoutNanos;
+    private final SpillBuffer.Pool bufferPool;
+    private final int maxStuckWorkers;
+    private final BlockingQueue<Job> queue;
+    private final AtomicInteger workerCount = new AtomicInteger();
+    private final AtomicInteger stuckWorkers = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private boolean started = false;
+
+    public ExtractionPool(int threads, long timeoutMillis) {
+        this(threads, timeoutMillis, new SpillBuffer.Pool(64 * 1024 * 1024));
+    }
+
+    public ExtractionPool(int threads, long timeoutMillis, SpillBuffer.Pool bufferPool) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+        this.maxStuckWorkers = threads;
+        this.queue = new LinkedBlockingQueue<>(threads * 4);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.bufferPool = bufferPool;
+    }
+
+    private synchronized void startWorkers() {
+        if (!started) {
+            started = true;
+            for (int i = 0; i < threads; i++) {
+                startWorker();
+            }
+        }
+    }
+
+    private void startWorker() {
+        Thread thread = new Thread(this::work, "text-extractor-" + workerCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void work() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                continue; // a late interrupt meant for a job that has since finished
+            }
+            job.run();
+            if (job.abandoned) {
+                stuckWorkers.decrementAndGet();
+                if (job.replaced) {
+                    return; // a replacement has already taken our place
+                }
+            }
+            Thread.interrupted(); // clear any interrupt which arrived as the job finished
+        }
+    }
+
+    SpillBuffer newBuffer() {
+        return new SpillBuffer(bufferPool);
+    }
+
+    /**
+     * Queues extraction of a body previously copied into a buffer from {@link #newBuffer()}. The job takes ownership
+     * of the buffer and closes it when done. The document's text is written to the given sink.
+     *
+     * Waits up to the deadline for room in the queue. If there's still none, or stuck workers have gone unreplaced,
+     * the job is failed immediately and {@link Job#await()} throws.
+     */
+    Job submit(TextExtractor extractor, ArchiveRecordHeader warcHeader, HttpHeader httpHeader, SpillBuffer body, TextSink text) throws InterruptedException {
+        startWorkers();
+        Job job = new Job(extractor, warcHeader, httpHeader, body, text);
+        if (stuckWorkers.get() > maxStuckWorkers) {
+            job.reject(new TextExtractionException(stuckWorkers.get() + " text extraction workers are stuck"));
+        } else if (!queue.offer(job, timeoutNanos, TimeUnit.NANOSECONDS)) {
+            job.reject(new TextExtractionException("text extraction queue full for " + getTimeoutMillis() + "ms"));
+        }
+        return job;
+    }
+
+    class Job {
+        private final TextExtractor extractor;
+        private final ArchiveRecordHeader warcHeader;
+        private final HttpHeader httpHeader;
+        private final SpillBuffer body;
+        private final TextSink text;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long submitTime = System.nanoTime();
+        private volatile long startTime;
+        private volatile Thread thread;
+        private volatile boolean abandoned;
+        private volatile boolean replaced;
+        private boolean finished;
+        private Document document;
+        private Throwable failure;
+
+        Job(TextExtractor extractor, ArchiveRecordHeader warcHeader, HttpHeader httpHeader, SpillBuffer body, TextSink text) {
+            this.extractor = extractor;
+            this.warcHeader = warcHeader;
+            this.httpHeader = httpHeader;
+            this.body = body;
+            this.text = text;
+        }
+
+        void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return; // cancelled before it started
+            }
+            thread = Thread.currentThread();
+            startTime = System.nanoTime();
+            started.countDown();
+            try (InputStream in = body.newInputStream()) {
+                document = extractor.extract(warcHeader, httpHeader, in, text);
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                closeBody();
+                completed.incrementAndGet();
+                synchronized (this) {
+                    finished = true;
+                }
+                done.countDown();
+            }
+        }
+
+        private void closeBody() {
+            try {
+                body.close();
+            } catch (IOException e) {
+                // only releases memory and deletes a temp file
+            }
+        }
+
+        /**
+         * Fails a job that never made it into the queue.
+         */
+        private void reject(TextExtractionException e) {
+            claimed.set(true);
+            failure = e;
+            closeBody();
+            started.countDown();
+            done.countDown();
+        }
+
+        /**
+         * Waits for the extraction to finish, giving up if it waits in the queue or runs longer than the pool's
+         * timeout.
+         */
+        Document await() throws TextExtractionException, InterruptedException {
+            if (!started.await(submitTime + timeoutNanos - System.nanoTime(), TimeUnit.NANOSECONDS) && discard()) {
+                throw new TextExtractionException("still queued after " + getTimeoutMillis() + "ms");
+            }
+            started.await(); // a worker may have claimed it just as we gave up waiting
+            if (!done.await(startTime + timeoutNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                cancel();
+            }
+            if (done.getCount() > 0) {
+                throw new TextExtractionException("timed out after " + getTimeoutMillis() + "ms");
+            }
+            if (failure instanceof TextExtractionException) {
+                throw (TextExtractionException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw new TextExtractionException(failure);
+            }
+            return document;
+        }
+
+        /**
+         * The sink the text was written to. Only safe to read once {@link #await()} has returned.
+         */
+        TextSink text() {
+            return text;
+        }
+
+        /**
+         * Drops the job if it hasn't started yet. One already running is left to finish.
+         */
+        boolean discard() {
+            if (claimed.compareAndSet(false, true)) {
+                queue.remove(this);
+                closeBody();
+                started.countDown();
+                done.countDown();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Gives up on the job. If it hasn't started it never will, otherwise its worker is interrupted and replaced.
+         */
+        void cancel() {
+            if (discard()) {
+                return;
+            }
+            synchronized (this) {
+                if (finished) {
+                    return; // only just made it
+                }
+                abandoned = true;
+                replaced = stuckWorkers.incrementAndGet() <= maxStuckWorkers;
+            }
+            timedOut.incrementAndGet();
+            System.err.println("Text extraction of " + warcHeader.getUrl() + " timed out, abandoning thread " + thread.getName());
+            thread.interrupt();
+            if (replaced) {
+                startWorker();
+            }
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getTimeoutMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Number of documents that exceeded the deadline.
+     */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * Number of abandoned workers whose parser still hasn't returned.
+     */
+    public int getStuckWorkers() {
+        return stuckWorkers.get();
+    }
+}
@@ -0,0 +1,84 @@
+package bamboo.task;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides from the WARC and HTTP headers alone whether a record could produce a document worth indexing in Solr, so
+ * images, video, redirects and error pages are passed over without building a Document or parsing their bodies.
+ * Nothing reads the payload of a rejected record so the reader just skips to the next one.
+ *
+ * Rejections are counted per content type for the tasks page.
+ */
+public class IndexableFilter {
+    private final TextExtractor extractor;
+    private final boolean enabled;
+    private final Set<String> skipTypes;
+    private final ConcurrentMap<String, AtomicLong> skipped = new ConcurrentHashMap<>();
+    private final AtomicLong passed = new AtomicLong();
+
+    /**
+     * @param enabled when false every record is passed through to extraction
+     * @param skipTypes additional content types to reject even though they could be extracted
+     */
+    public IndexableFilter(TextExtractor extractor, boolean enabled, Collection<String> skipTypes) {
+        this.extractor = extractor;
+        this.enabled = enabled;
+        this.skipTypes = new HashSet<>(skipTypes);
+    }
+
+    public boolean accept(RecordPipeline.ParsedRecord record) {
+        if (!enabled) {
+            return true;
+        }
+        Cdx.Capture capture = record.capture;
+        // resource records carry the raw WARC Content-Type which may have parameters
+        String contentType = HttpHeader.cleanContentType(capture.contentType);
+        if (capture.status < 200 || capture.status > 299 ||
+                !extractor.readsBody(contentType) ||
+                skipTypes.contains(contentType)) {
+            String type = contentType == null ? "unknown" : contentType;
+            skipped.computeIfAbsent(type, t -> new AtomicLong()).incrementAndGet();
+            return false;
+        }
+        passed.incrementAndGet();
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Set<String> getSkipTypes() {
+        return skipTypes;
+    }
+
+    /**
+     * Number of records passed through to text extraction.
+     */
+    public long getPassed() {
+        return passed.get();
+    }
+
+    public long getSkippedTotal() {
+        long total = 0;
+        for (AtomicLong count : skipped.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /**
+     * Skipped record counts by content type, most skipped first.
+     */
+    public List<Map.Entry<String, Long>> getSkipped() {
+        List<Map.Entry<String, Long>> counts = new ArrayList<>();
+        for (Map.Entry<String, AtomicLong> entry : skipped.entrySet()) {
+            counts.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().get()));
+        }
+        counts.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return counts;
+    }
+}
@@ -0,0 +1,143 @@
+package bamboo.task;
+
+import de.l3s.boilerpipe.document.TextDocument;
+import de.l3s.boilerpipe.sax.BoilerpipeHTMLContentHandler;
+import de.l3s.boilerpipe.sax.BoilerpipeHTMLParser;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.tika.Tika;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parser instances shared between documents. Constructing a Tika facade loads its parser registry and mime database
+ * which costs far more than parsing a typical small Office document, and PDFBox's text stripper and boilerpipe's
+ * HTML parser have smaller but still noticeable setup costs.
+ *
+ * Tika's facade is thread-safe so a single instance is shared. The PDFBox and boilerpipe parsers keep per-document
+ * state so each thread gets its own and reuses it for every document it extracts.
+ *
+ * Construction time is recorded so the time saved by reuse can be shown on the tasks page.
+ */
+public class ParserContext {
+    private static final ParserContext shared = new ParserContext();
+
+    private volatile Tika tika;
+    private final ThreadLocal<PDFTextStripper> pdfTextStripper = new ThreadLocal<>();
+    private final ThreadLocal<BoilerpipeHTMLParser> htmlParser = new ThreadLocal<>();
+
+    private final Counter tikaStats = new Counter();
+    private final Counter pdfBoxStats = new Counter();
+    private final Counter boilerpipeStats = new Counter();
+
+    public static ParserContext shared() {
+        return shared;
+    }
+
+    Tika tika() {
+        Tika tika = this.tika;
+        if (tika == null) {
+            synchronized (this) {
+                tika = this.tika;
+                if (tika == null) {
+                    long start = System.nanoTime();
+                    tika = new Tika();
+                    tikaStats.created(System.nanoTime() - start);
+                    this.tika = tika;
+                }
+            }
+        }
+        tikaStats.used();
+        return tika;
+    }
+
+    PDFTextStripper pdfTextStripper() throws IOException {
+        PDFTextStripper stripper = pdfTextStripper.get();
+        if (stripper == null) {
+            long start = System.nanoTime();
+            stripper = new PDFTextStripper();
+            pdfBoxStats.created(System.nanoTime() - start);
+            pdfTextStripper.set(stripper);
+        }
+        pdfBoxStats.used();
+        return stripper;
+    }
+
+    /**
+     * Parses HTML into a boilerpipe text document, equivalent to BoilerpipeSAXInput.getTextDocument().
+     */
+    TextDocument parseHtml(InputSource source) throws IOException, SAXException {
+        BoilerpipeHTMLParser parser = htmlParser.get();
+        if (parser == null) {
+            long start = System.nanoTime();
+            parser = new BoilerpipeHTMLParser();
+            boilerpipeStats.created(System.nanoTime() - start);
+            htmlParser.set(parser);
+        }
+        boilerpipeStats.used();
+        BoilerpipeHTMLContentHandler handler = new BoilerpipeHTMLContentHandler();
+        parser.setContentHandler(handler);
+        try {
+            parser.parse(source);
+        } finally {
+            parser.setContentHandler(null); // don't hold on to the document
+        }
+        return handler.toTextDocument();
+    }
+
+    /**
+     * Instances created and documents parsed by one kind of parser.
+     */
+    public static class Counter {
+        private final AtomicLong instances = new AtomicLong();
+        private final AtomicLong documents = new AtomicLong();
+        private final AtomicLong initNanos = new AtomicLong();
+
+        void created(long nanos) {
+            instances.incrementAndGet();
+            initNanos.addAndGet(nanos);
+        }
+
+        void used() {
+            documents.incrementAndGet();
+        }
+
+        public long getInstances() {
+            return instances.get();
+        }
+
+        public long getDocuments() {
+            return documents.get();
+        }
+
+        public long getInitMillis() {
+            return initNanos.get() / 1000000;
+        }
+
+        /**
+         * Estimated time saved compared to creating a parser for every document: the average construction time
+         * multiplied by the number of documents that reused an instance.
+         */
+        public long getSavedMillis() {
+            long instances = getInstances();
+            if (instances == 0) {
+                return 0;
+            }
+            return initNanos.get() / instances * (getDocuments() - instances) / 1000000;
+        }
+    }
+
+    public Counter getTikaStats() {
+        return tikaStats;
+    }
+
+    public Counter getPdfBoxStats() {
+        return pdfBoxStats;
+    }
+
+    public Counter getBoilerpipeStats() {
+        return boilerpipeStats;
+    }
+}
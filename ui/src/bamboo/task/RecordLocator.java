@@ -0,0 +1,221 @@
+package bamboo.task;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Works out where a single record ends given the offset it starts at, so it can be served without the client
+ * knowing its length in advance.
+ *
+ * In a compressed warc each record is its own gzip member, so the member is inflated (and the output discarded) just
+ * far enough to find the end of the deflate stream and its trailer. In an uncompressed warc or arc the length is
+ * taken from the record header.
+ */
+public class RecordLocator {
+    private static final Pattern ARC_HEADER = Pattern.compile("\\S+ \\S+ \\d{14} \\S+ (\\d+)");
+    private static final int FEXTRA = 4, FNAME = 8, FCOMMENT = 16, FHCRC = 2;
+
+    private RecordLocator() {
+    }
+
+    /**
+     * Returns the length in bytes of the record starting at offset.
+     *
+     * @throws IOException if there's no record starting there
+     */
+    public static long recordLength(FileChannel channel, long offset, boolean compressed) throws IOException {
+        return compressed ? gzipMemberLength(channel, offset) : plainRecordLength(channel, offset);
+    }
+
+    static long gzipMemberLength(FileChannel channel, long offset) throws IOException {
+        InputStream in = open(channel, offset, Long.MAX_VALUE);
+        int magic1 = in.read(), magic2 = in.read(), method = in.read(), flags = in.read();
+        if (magic1 != 0x1f || magic2 != 0x8b || method != 8) {
+            throw new IOException("no gzip member at offset " + offset);
+        }
+        long headerLength = 10;
+        skipFully(in, 6); // mtime, xfl, os
+        if ((flags & FEXTRA) != 0) {
+            int xlen = readByte(in) | readByte(in) << 8;
+            skipFully(in, xlen);
+            headerLength += 2 + xlen;
+        }
+        if ((flags & FNAME) != 0) {
+            headerLength += skipString(in);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            headerLength += skipString(in);
+        }
+        if ((flags & FHCRC) != 0) {
+            skipFully(in, 2);
+            headerLength += 2;
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            byte[] input = new byte[16 * 1024];
+            byte[] output = new byte[64 * 1024];
+            long pos = offset + headerLength;
+            ByteBuffer buf = ByteBuffer.wrap(input);
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    buf.clear();
+                    int n = channel.read(buf, pos);
+                    if (n <= 0) {
+                        throw new EOFException("gzip member at offset " + offset + " is truncated");
+                    }
+                    pos += n;
+                    inflater.setInput(input, 0, n);
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("gzip member at offset " + offset + " needs a preset dictionary");
+                }
+                inflater.inflate(output);
+            }
+            long deflateEnd = pos - inflater.getRemaining();
+            return deflateEnd + 8 - offset; // crc32 and size trailer
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt gzip member at offset " + offset, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static long plainRecordLength(FileChannel channel, long offset) throws IOException {
+        InputStream in = open(channel, offset, Long.MAX_VALUE);
+        String firstLine = readLine(in);
+        if (firstLine == null) {
+            throw new EOFException("no record at offset " + offset);
+        }
+        long headerLength = firstLine.length(); // one char per byte
+        String trimmed = firstLine.trim();
+
+        Matcher m = ARC_HEADER.matcher(trimmed);
+        if (m.matches()) {
+            return headerLength + Long.parseLong(m.group(1)) + 1; // record is followed by a newline
+        }
+        if (!trimmed.startsWith("WARC/")) {
+            throw new IOException("no record at offset " + offset);
+        }
+
+        long contentLength = -1;
+        for (String line = readLine(in); ; line = readLine(in)) {
+            if (line == null) {
+                throw new EOFException("record header at offset " + offset + " is truncated");
+            }
+            headerLength += line.length();
+            if (line.trim().isEmpty()) {
+                break;
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                contentLength = Long.parseLong(line.substring(colon + 1).trim());
+            }
+        }
+        if (contentLength < 0) {
+            throw new IOException("record at offset " + offset + " has no Content-Length");
+        }
+        return headerLength + contentLength + 4; // record is followed by CRLF CRLF
+    }
+
+    /**
+     * Reads a line including its terminator, or null at the end of the file.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            line.append((char) c);
+            if (c == '\n') {
+                break;
+            }
+            if (line.length() > 64 * 1024) {
+                throw new IOException("record header line too long");
+            }
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("gzip header is truncated");
+        }
+        return b;
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        for (long i = 0; i < n; i++) {
+            readByte(in);
+        }
+    }
+
+    private static int skipString(InputStream in) throws IOException {
+        int length = 1;
+        while (readByte(in) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Returns a stream of up to length bytes of the channel starting at offset. Reads are positional so the channel's
+     * own position is untouched and it can be shared between threads.
+     */
+    public static InputStream open(FileChannel channel, long offset, long length) {
+        return new InputStream() {
+            private final ByteBuffer buf = ByteBuffer.allocate(8192);
+            private long pos = offset;
+            private long remaining = length;
+
+            {
+                buf.flip();
+            }
+
+            private boolean fill() throws IOException {
+                if (buf.hasRemaining()) {
+                    return true;
+                }
+                if (remaining <= 0) {
+                    return false;
+                }
+                buf.clear();
+                if (remaining < buf.capacity()) {
+                    buf.limit((int) remaining);
+                }
+                int n = channel.read(buf, pos);
+                buf.flip();
+                if (n <= 0) {
+                    return false;
+                }
+                pos += n;
+                remaining -= n;
+                return true;
+            }
+
+            @Override
+            public int read() throws IOException {
+                return fill() ? buf.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, buf.remaining());
+                buf.get(b, off, n);
+                return n;
+            }
+        };
+    }
+}
@@ -0,0 +1,487 @@
+package bamboo.task;
+
+import bamboo.crawl.RecordStats;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.ArchiveRecordHeader;
+import org.archive.util.Base32;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.regex.Matcher;
+
+/**
+ * Reads each record of a WARC file once and fans it out to a set of sinks. The WARC and HTTP headers are parsed only
+ * once per record and the payload digest and extracted text are shared between the sinks, so CDX and Solr indexing
+ * can be done in a single pass over the file.
+ *
+ * A sink which throws is marked as failed and receives no further records but the remaining sinks carry on. Callers
+ * should check {@link #failure(Sink)} after {@link #run(Path, String)} returns.
+ */
+public class RecordPipeline {
+    private final TextExtractor extractor;
+    private final List<Sink> sinks;
+    private final Map<Sink, Throwable> failures = new IdentityHashMap<>();
+    private DigestCache.WarcDigests knownDigests;
+    private ExtractionPool extractionPool;
+    private int readAhead;
+    private long stoppedAt = -1;
+
+    public RecordPipeline(TextExtractor extractor, List<? extends Sink> sinks) {
+        this.extractor = extractor;
+        this.sinks = new ArrayList<>(sinks);
+    }
+
+    public interface Sink extends Closeable {
+        /**
+         * Whether this sink needs the text extracted from the record. Extraction is only done if at least one sink
+         * asks for it.
+         */
+        default boolean wantsDocument(ParsedRecord record) {
+            return false;
+        }
+
+        /**
+         * Whether this sink reads Document.text. When none of the sinks receiving a document do, the text is only
+         * counted (see {@link ParsedRecord#textLength()}) rather than held in memory.
+         */
+        default boolean wantsText() {
+            return true;
+        }
+
+        /**
+         * Where to write the document's text as it's extracted, or null to leave it to Document.text as usual. Only
+         * asked of pipelines without an extraction pool, where each document is extracted and delivered before the
+         * next is read.
+         */
+        default Writer textWriter(ParsedRecord record) throws IOException {
+            return null;
+        }
+
+        /**
+         * Whether this sink needs the payload digest of records which lack a WARC-Payload-Digest header.
+         */
+        default boolean wantsDigest() {
+            return false;
+        }
+
+        default void acceptAlias(Cdx.Alias alias) throws IOException {
+        }
+
+        void accept(ParsedRecord record) throws IOException;
+
+        /**
+         * Called once the whole file has been read successfully.
+         */
+        default void finish() throws IOException {
+        }
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    public static class ParsedRecord {
+        public final ArchiveRecordHeader header;
+        public final HttpHeader http;
+        public final Cdx.Capture capture;
+        public final String surt;
+        public final Date time;
+        Document document;
+        long textLength;
+
+        ParsedRecord(ArchiveRecordHeader header, HttpHeader http, Cdx.Capture capture, String surt, Date time) {
+            this.header = header;
+            this.http = http;
+            this.capture = capture;
+            this.surt = surt;
+            this.time = time;
+        }
+
+        /**
+         * The extracted document or null if no sink asked for it or text extraction failed.
+         */
+        public Document document() {
+            return document;
+        }
+
+        /**
+         * Number of characters of text extracted from the document (after truncation to the size limit).
+         */
+        public long textLength() {
+            return textLength;
+        }
+    }
+
+    /**
+     * Tallies statistics for every capture in the file.
+     */
+    public static class StatsSink implements Sink {
+        public final RecordStats stats = new RecordStats();
+
+        @Override
+        public void accept(ParsedRecord record) {
+            stats.update(record.capture.contentLength, record.time);
+        }
+    }
+
+    /**
+     * Supplies digests calculated on a previous run. Any newly calculated digests are added to it.
+     */
+    public void setKnownDigests(DigestCache.WarcDigests knownDigests) {
+        this.knownDigests = knownDigests;
+    }
+
+    /**
+     * Extracts text on the given pool rather than the reading thread, with a deadline per document. Null extracts
+     * inline.
+     */
+    public void setExtractionPool(ExtractionPool extractionPool) {
+        setExtractionPool(extractionPool, extractionPool != null ? extractionPool.getThreads() * 4 : 0);
+    }
+
+    /**
+     * Extracts text on the given pool, reading up to readAhead records past one still being extracted. With 0 each
+     * document is extracted and delivered before the next record is read.
+     */
+    public void setExtractionPool(ExtractionPool extractionPool, int readAhead) {
+        this.extractionPool = extractionPool;
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Returns the exception that caused a sink to fail or null if it succeeded.
+     */
+    public Throwable failure(Sink sink) {
+        return failures.get(sink);
+    }
+
+    public void run(Path warc, String filename) throws IOException {
+        try (ArchiveReader reader = WarcUtils.open(warc)) {
+            run(reader, filename);
+        }
+    }
+
+    /**
+     * Reads only the records which start within [start, end) of a compressed warc. The start must be a record
+     * boundary (see {@link WarcSplitter}). Sinks are finished at the end of the range.
+     */
+    public void run(Path warc, String filename, long start, long end) throws IOException {
+        try (ArchiveReader reader = WarcUtils.open(warc, start)) {
+            run(reader, filename, end);
+        }
+    }
+
+    /**
+     * The offset of the record at which a ranged run stopped or -1 if it reached the end of the file.
+     */
+    public long stoppedAt() {
+        return stoppedAt;
+    }
+
+    void run(ArchiveReader reader, String filename) throws IOException {
+        run(reader, filename, Long.MAX_VALUE);
+    }
+
+    private void run(ArchiveReader reader, String filename, long end) throws IOException {
+        boolean wantsDigest = false;
+        for (Sink sink : sinks) {
+            wantsDigest |= sink.wantsDigest();
+        }
+
+        // records waiting on the extraction pool, and any read after them, are held here so sinks see file order
+        Deque<Pending> window = new ArrayDeque<>();
+        int windowSize = readAhead;
+
+        try {
+            for (ArchiveRecord record : reader) {
+                if (record.getHeader().getOffset() >= end) {
+                    stoppedAt = record.getHeader().getOffset();
+                    break;
+                }
+
+                String url = record.getHeader().getUrl();
+                if (url == null) {
+                    continue;
+                }
+
+                Matcher m = Cdx.CdxRecordProducer.PANDORA_URL_MAP.matcher(url);
+                if (m.matches()) {
+                    for (Cdx.Alias alias : Cdx.parseUrlMap(record, m.group(1))) {
+                        if (window.isEmpty()) {
+                            deliverAlias(alias);
+                        } else {
+                            window.add(new Pending(alias));
+                        }
+                    }
+                    continue;
+                }
+
+                ParsedRecord parsed = parse(record, filename);
+                if (parsed == null) {
+                    continue;
+                }
+
+                List<Sink> wantsDocument = new ArrayList<>();
+                boolean keepText = false;
+                for (Sink sink : sinks) {
+                    if (!failures.containsKey(sink) && sink.wantsDocument(parsed)) {
+                        wantsDocument.add(sink);
+                        keepText |= sink.wantsText();
+                    }
+                }
+
+                String digest = WarcUtils.getPayloadDigest(record.getHeader());
+                if (digest == null && wantsDigest && knownDigests != null) {
+                    digest = knownDigests.get(record.getHeader().getOffset());
+                }
+                MessageDigest md = digest == null && wantsDigest ? WarcUtils.sha1() : null;
+                InputStream body = md == null ? record : new SkipDigestingInputStream(record, md);
+
+                ExtractionPool.Job job = null;
+                if (!wantsDocument.isEmpty()) {
+                    if (extractionPool != null && extractor.readsBody(parsed.capture.contentType)) {
+                        job = submitExtraction(parsed, body, keepText);
+                    } else {
+                        Writer textWriter = extractionPool == null ? findTextWriter(parsed, wantsDocument) : null;
+                        extractInline(parsed, wantsDocument, body, keepText, textWriter);
+                    }
+                }
+
+                if (md != null) {
+                    byte[] buf = WarcUtils.readBuffer();
+                    while (body.read(buf) >= 0) {
+                        // drain the remainder of the payload through the digest
+                    }
+                    digest = Base32.encode(md.digest());
+                    if (knownDigests != null) {
+                        knownDigests.put(record.getHeader().getOffset(), digest);
+                    }
+                }
+                parsed.capture.digest = digest;
+
+                if (job == null && window.isEmpty()) {
+                    deliver(parsed);
+                } else {
+                    window.add(new Pending(parsed, wantsDocument, job));
+                    while (window.size() > windowSize) {
+                        complete(window.poll());
+                    }
+                }
+            }
+
+            while (!window.isEmpty()) {
+                complete(window.poll());
+            }
+        } finally {
+            for (Pending pending : window) {
+                if (pending.job != null) {
+                    pending.job.discard();
+                }
+            }
+        }
+
+        for (Sink sink : sinks) {
+            if (!failures.containsKey(sink)) {
+                try {
+                    sink.finish();
+                } catch (IOException | RuntimeException e) {
+                    failures.put(sink, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A record (or alias) read from the file but not yet delivered to the sinks.
+     */
+    private static class Pending {
+        final Cdx.Alias alias;
+        final ParsedRecord record;
+        final List<Sink> wantsDocument;
+        final ExtractionPool.Job job;
+
+        Pending(Cdx.Alias alias) {
+            this(alias, null, null, null);
+        }
+
+        Pending(ParsedRecord record, List<Sink> wantsDocument, ExtractionPool.Job job) {
+            this(null, record, wantsDocument, job);
+        }
+
+        private Pending(Cdx.Alias alias, ParsedRecord record, List<Sink> wantsDocument, ExtractionPool.Job job) {
+            this.alias = alias;
+            this.record = record;
+            this.wantsDocument = wantsDocument;
+            this.job = job;
+        }
+    }
+
+    /**
+     * DigestInputStream passes skip() straight through, leaving the skipped bytes out of the digest. Extractors
+     * which skip parts of a body would then produce the wrong payload digest, so skip by reading instead.
+     */
+    private static class SkipDigestingInputStream extends DigestInputStream {
+        SkipDigestingInputStream(InputStream in, MessageDigest md) {
+            super(in, md);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buf = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buf, 0, (int) Math.min(buf.length, n - skipped));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+    }
+
+    private static TextSink newTextSink(boolean keepText) {
+        return keepText ? TextSink.buffer(TextExtractor.maxDocSize) : TextSink.counter(TextExtractor.maxDocSize);
+    }
+
+    /**
+     * Records the text length and, if a sink wants it, the text itself. Text from a failed extraction is dropped.
+     */
+    private static void setText(ParsedRecord parsed, TextSink text) {
+        if (parsed.document.getTextError() == null) {
+            parsed.textLength = text.length();
+            if (text.isBuffered()) {
+                parsed.document.setText(text.toString());
+            }
+        }
+    }
+
+    private ExtractionPool.Job submitExtraction(ParsedRecord parsed, InputStream body, boolean keepText) throws IOException {
+        SpillBuffer buffer = extractionPool.newBuffer();
+        try {
+            byte[] buf = WarcUtils.readBuffer();
+            for (int n = body.read(buf); n >= 0; n = body.read(buf)) {
+                buffer.write(buf, 0, n);
+            }
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+        try {
+            return extractionPool.submit(extractor, parsed.header, parsed.http, buffer, newTextSink(keepText));
+        } catch (InterruptedException e) {
+            buffer.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted queueing text extraction");
+        }
+    }
+
+    private static Writer findTextWriter(ParsedRecord parsed, List<Sink> wantsDocument) throws IOException {
+        for (Sink sink : wantsDocument) {
+            Writer writer = sink.textWriter(parsed);
+            if (writer != null) {
+                return writer;
+            }
+        }
+        return null;
+    }
+
+    private void extractInline(ParsedRecord parsed, List<Sink> wantsDocument, InputStream body, boolean keepText, Writer textWriter) {
+        try {
+            TextSink text = textWriter != null ? new TextSink(textWriter, TextExtractor.maxDocSize) : newTextSink(keepText);
+            parsed.document = extractor.extract(parsed.header, parsed.http, body, text);
+            parsed.document.setSurt(parsed.surt);
+            setText(parsed, text);
+        } catch (TextExtractionException e) {
+            parsed.document = null;
+        } catch (RuntimeException e) {
+            // only the sinks that wanted the text are affected
+            for (Sink sink : wantsDocument) {
+                failures.put(sink, e);
+            }
+        }
+    }
+
+    private void complete(Pending pending) throws IOException {
+        if (pending.alias != null) {
+            deliverAlias(pending.alias);
+            return;
+        }
+        ParsedRecord parsed = pending.record;
+        if (pending.job != null) {
+            try {
+                parsed.document = pending.job.await();
+                parsed.document.setSurt(parsed.surt);
+                setText(parsed, pending.job.text());
+            } catch (TextExtractionException e) {
+                parsed.document = null;
+            } catch (RuntimeException e) {
+                for (Sink sink : pending.wantsDocument) {
+                    failures.put(sink, e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for text extraction");
+            }
+        }
+        deliver(parsed);
+    }
+
+    private void deliverAlias(Cdx.Alias alias) {
+        for (Sink sink : sinks) {
+            if (!failures.containsKey(sink)) {
+                try {
+                    sink.acceptAlias(alias);
+                } catch (IOException | RuntimeException e) {
+                    failures.put(sink, e);
+                }
+            }
+        }
+    }
+
+    private void deliver(ParsedRecord parsed) {
+        for (Sink sink : sinks) {
+            if (!failures.containsKey(sink)) {
+                try {
+                    sink.accept(parsed);
+                } catch (IOException | RuntimeException e) {
+                    failures.put(sink, e);
+                }
+            }
+        }
+    }
+
+    private static ParsedRecord parse(ArchiveRecord record, String filename) throws IOException {
+        ArchiveRecordHeader header = record.getHeader();
+
+        HttpHeader http = null;
+        if (WarcUtils.isResponseRecord(header)) {
+            http = HttpHeader.parse(record, WarcUtils.getCleanUrl(header));
+            if (http == null) {
+                return null;
+            }
+        } else if (!WarcUtils.isResourceRecord(header)) {
+            return null;
+        }
+
+        Cdx.Capture capture;
+        Date time;
+        try {
+            capture = Cdx.Capture.fromHeaders(filename, header, http);
+            time = WarcUtils.parseArcDate(capture.date);
+        } catch (DateTimeParseException e) {
+            return null; // skip record if we can't get a sane time
+        }
+
+        return new ParsedRecord(header, http, capture, capture.getSurt(), time);
+    }
+}
@@ -0,0 +1,86 @@
+package bamboo.task;
+
+import bamboo.crawl.Crawls;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the warc totals recorded on each crawl against its warcs, a chunk of crawls at a time, and corrects any that
+ * have drifted. This replaces recalculating every crawl in one statement, which holds locks on the crawl table for
+ * as long as it takes to sum the whole warc table.
+ *
+ * Each chunk is one short transaction that also saves the position, so a pass that is disabled or interrupted resumes
+ * where it stopped. After each chunk it pauses for at least as long as the chunk took, so it never keeps the
+ * database busy more than half the time. The task stops after one full pass; enable it again to run another.
+ */
+public class RollupRefresher implements Runnable {
+    private final Crawls crawls;
+    private final int chunkSize;
+    private final long pauseMillis;
+
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong crawlsChecked = new AtomicLong();
+    private final AtomicLong crawlsCorrected = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+    private volatile long position;
+
+    public RollupRefresher(Crawls crawls, int chunkSize, long pauseMillis) {
+        this.crawls = crawls;
+        this.chunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long start = System.currentTimeMillis();
+                Crawls.TotalsCheck check = crawls.checkWarcTotals(chunkSize);
+                position = check.lastId;
+                if (check.checked == 0) {
+                    passes.incrementAndGet();
+                    return;
+                }
+                chunks.incrementAndGet();
+                crawlsChecked.addAndGet(check.checked);
+                if (check.corrected > 0) {
+                    crawlsCorrected.addAndGet(check.corrected);
+                    System.out.println("Corrected warc totals of " + check.corrected + " crawls up to crawl " + check.lastId);
+                }
+                Thread.sleep(Math.max(pauseMillis, System.currentTimeMillis() - start));
+            }
+        } catch (InterruptedException e) {
+            // disabled, the next run resumes from the saved position
+        } catch (RuntimeException e) {
+            System.err.println("Error checking crawl warc totals after crawl " + position);
+            e.printStackTrace();
+        }
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Id of the last crawl checked, or 0 at the start of a pass.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public long getChunks() {
+        return chunks.get();
+    }
+
+    public long getCrawlsChecked() {
+        return crawlsChecked.get();
+    }
+
+    public long getCrawlsCorrected() {
+        return crawlsCorrected.get();
+    }
+
+    public long getPasses() {
+        return passes.get();
+    }
+}
@@ -1,16 +1,14 @@
 package bamboo.task;
 
 import bamboo.crawl.*;
+import bamboo.util.MultiSurtFilter;
 import bamboo.util.SurtFilter;
 import com.google.common.net.InternetDomainName;
 import org.apache.solr.client.solrj.SolrServer;
-import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.common.SolrInputDocument;
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveReaderFactory;
 import org.archive.io.ArchiveRecord;
-import org.archive.url.SURT;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -18,60 +16,111 @@ import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
-public class SolrIndexer implements Runnable {
+public class SolrIndexer implements Runnable, AutoCloseable {
 
-    static final int BATCH_SIZE = 1024;
     static final int COMMIT_WITHIN_MS = 300000;
 
     private final Crawls crawls;
     private final Warcs warcs;
     private final Collections collections;
+    private final WorkerPool pool;
+    private final WarcSplitter splitter;
+    private final SolrUpdater updater;
+    private final boolean ownsUpdater;
+    private ExtractionPool extractionPool;
+    private IndexableFilter indexableFilter = new IndexableFilter(extractor, true, new ArrayList<>());
     private SolrServer solr;
 
-    private static TextExtractor extractor = new TextExtractor();
+    static final TextExtractor extractor = new TextExtractor();
 
     public SolrIndexer(Collections collections, Crawls crawls, Warcs warcs) {
+        this(collections, crawls, warcs, new WorkerPool("Solr Indexer", Runtime.getRuntime().availableProcessors(), 64));
+    }
+
+    public SolrIndexer(Collections collections, Crawls crawls, Warcs warcs, WorkerPool pool) {
+        this(collections, crawls, warcs, pool, new WarcSplitter(0, 1));
+    }
+
+    /**
+     * Sends to Solr through an updater of its own, which is stopped by {@link #close()}.
+     */
+    public SolrIndexer(Collections collections, Crawls crawls, Warcs warcs, WorkerPool pool, WarcSplitter splitter) {
+        this(collections, crawls, warcs, pool, splitter, new SolrUpdater(4, 100, 5000), true);
+    }
+
+    public SolrIndexer(Collections collections, Crawls crawls, Warcs warcs, WorkerPool pool, WarcSplitter splitter,
+                       SolrUpdater updater) {
+        this(collections, crawls, warcs, pool, splitter, updater, false);
+    }
+
+    private SolrIndexer(Collections collections, Crawls crawls, Warcs warcs, WorkerPool pool, WarcSplitter splitter,
+                        SolrUpdater updater, boolean ownsUpdater) {
+        this.ownsUpdater = ownsUpdater;
         this.crawls = crawls;
         this.collections = collections;
         this.warcs = warcs;
+        this.pool = pool;
+        this.splitter = splitter;
+        this.updater = updater;
     }
 
     public void run() {
-        while (true) {
-            List<Warc> warcList = warcs.findByState(Warc.CDX_INDEXED, BATCH_SIZE);
-
-            if (warcList.isEmpty()) {
-                break;
-            }
-
-            indexWarcs(warcList);
+        try {
+            new WarcStateFeeder(warcs, Warc.CDX_INDEXED, pool, this::indexWarc).run();
+        } catch (InterruptedException e) {
+            // task disabled
         }
     }
 
-    public void indexWarcs(List<Warc> warcs) {
-        int threads = Runtime.getRuntime().availableProcessors();
-        ExecutorService threadPool = Executors.newFixedThreadPool(threads);
-        try {
-            for (Warc warc : warcs) {
-                threadPool.submit(() -> indexWarc(warc));
-            }
-            threadPool.shutdown();
-            threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } finally {
-            threadPool.shutdownNow();
+    /**
+     * Stops the Solr updater if this indexer created it. One passed in is left to its owner.
+     */
+    @Override
+    public void close() {
+        if (ownsUpdater) {
+            updater.close();
         }
     }
 
+    public WorkerPool getWorkerPool() {
+        return pool;
+    }
+
+    /**
+     * Runs text extraction on the given pool so slow documents don't hold up reading the rest of the warc.
+     */
+    public void setExtractionPool(ExtractionPool extractionPool) {
+        this.extractionPool = extractionPool;
+    }
+
+    /**
+     * Configures the fast-reject filter deciding which records are worth extracting text from.
+     */
+    public void setIndexableFilter(boolean enabled, List<String> skipTypes) {
+        this.indexableFilter = new IndexableFilter(extractor, enabled, skipTypes);
+    }
+
+    public IndexableFilter getIndexableFilter() {
+        return indexableFilter;
+    }
+
+    /**
+     * Creates a pipeline which extracts text the way this indexer is configured to.
+     */
+    RecordPipeline newPipeline(List<? extends RecordPipeline.Sink> sinks) {
+        RecordPipeline pipeline = new RecordPipeline(extractor, sinks);
+        pipeline.setExtractionPool(extractionPool);
+        return pipeline;
+    }
+
     public boolean healthcheck(PrintWriter out) {
         boolean ok = true;
         System.out.print("Checking Solr indexes are reachable... ");
@@ -99,64 +148,135 @@ public class SolrIndexer implements Runnable {
 
     static class Solr {
         private final SurtFilter filter;
-        private final SolrServer server;
+        private final SolrUpdater.Batcher batcher;
         private final Collection collection;
 
-        public Solr(CollectionWithFilters collection) {
+        public Solr(CollectionWithFilters collection, SolrUpdater updater) {
             this.collection = collection;
-            server = new HttpSolrServer(collection.getSolrUrl());
+            batcher = updater.newBatcher(collection.getSolrUrl());
             filter = new SurtFilter(collection.urlFilters);
         }
 
-        public void add(String surt, SolrInputDocument doc) throws IOException, SolrServerException {
-            if (filter.accepts(surt)) {
-                server.add(doc, COMMIT_WITHIN_MS);
+        public void add(SolrInputDocument doc) throws IOException {
+            batcher.add(doc);
+        }
+
+        /**
+         * Waits until Solr has accepted every document added.
+         */
+        public void flush() throws IOException {
+            batcher.flush();
+        }
+    }
+
+    /**
+     * Creates a record pipeline sink that sends documents to the Solr indexes of any of the given collections that
+     * have one.
+     */
+    SolrSink newSink(List<CollectionWithFilters> collectionList) {
+        List<Solr> solrs = new ArrayList<>();
+        for (CollectionWithFilters collection : collectionList) {
+            if (collection.getSolrUrl() != null && !collection.getSolrUrl().isEmpty()) {
+                solrs.add(new Solr(collection, updater));
             }
         }
+        return new SolrSink(solrs, indexableFilter);
     }
 
-    boolean anyFilterAccepts(List<Solr> solrs, String surt) {
-        for (Solr solr : solrs) {
-            if (solr.filter.accepts(surt)) {
-                return true;
+    static class SolrSink implements RecordPipeline.Sink {
+        private final List<Solr> solrs;
+        private final MultiSurtFilter filter;
+        private final IndexableFilter indexableFilter;
+        private RecordPipeline.ParsedRecord lastRecord;
+        private BitSet lastTargets;
+
+        SolrSink(List<Solr> solrs, IndexableFilter indexableFilter) {
+            this.solrs = solrs;
+            this.indexableFilter = indexableFilter;
+            List<SurtFilter> filters = new ArrayList<>();
+            for (Solr solr : solrs) {
+                filters.add(solr.filter);
+            }
+            filter = new MultiSurtFilter(filters);
+        }
+
+        boolean isEmpty() {
+            return solrs.isEmpty();
+        }
+
+        /**
+         * The indexes of the solrs accepting a record. The pipeline asks wantsDocument and then accept for the same
+         * record so the lookup is remembered between the two.
+         */
+        private BitSet targets(RecordPipeline.ParsedRecord record) {
+            if (record != lastRecord) {
+                lastTargets = filter.accepting(record.surt);
+                lastRecord = record;
+            }
+            return lastTargets;
+        }
+
+        @Override
+        public boolean wantsDocument(RecordPipeline.ParsedRecord record) {
+            // skip extracting records we're not going to accept anyway
+            return !targets(record).isEmpty() && indexableFilter.accept(record);
+        }
+
+        @Override
+        public boolean wantsText() {
+            // we only index metadata so just need to know there was some text
+            return false;
+        }
+
+        @Override
+        public void accept(RecordPipeline.ParsedRecord record) throws IOException {
+            if (record.document() == null) return;
+            BitSet targets = targets(record);
+            if (targets.isEmpty()) return;
+            SolrInputDocument doc = makeDoc(record.document(), record.textLength());
+            if (doc == null) return;
+
+            for (int i = targets.nextSetBit(0); i >= 0; i = targets.nextSetBit(i + 1)) {
+                solrs.get(i).add(doc);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            for (Solr solr : solrs) {
+                solr.flush();
             }
         }
-        return false;
     }
 
     void indexWarc(Warc warc) {
         System.out.println(new Date() +  " Solr indexing " + warc.getId() + " " + warc.getPath());
 
-        List<Solr> solrs = new ArrayList<>();
-
         Crawl crawl = crawls.get(warc.getCrawlId());
         List<CollectionWithFilters> collectionList = collections.listWhereSeriesId(crawl.getCrawlSeriesId());
-        for (CollectionWithFilters collection : collectionList) {
-            if (collection.getSolrUrl() != null && !collection.getSolrUrl().isEmpty()) {
-                solrs.add(new Solr(collection));
-            }
-        }
+        SolrSink sink = newSink(collectionList);
 
-        List<SolrInputDocument> batch = new ArrayList<>();
-        try (ArchiveReader reader = WarcUtils.open(warc.getPath())) {
-            for (ArchiveRecord record : reader) {
-                if (record.getHeader().getUrl() == null) continue;
-                String surt = SURT.toSURT(WarcUtils.getCleanUrl(record.getHeader()));
-                if (surt == null || !anyFilterAccepts(solrs, surt)) {
-                    continue; // skip indexing records we're not going to accept anyway
+        try {
+            List<Long> starts;
+            if (sink.isEmpty()) {
+                // nothing to do
+            } else if ((starts = splitter.split(warc)).size() > 1) {
+                // documents can be added in any order so each range just gets its own sink
+                List<RecordPipeline> pipelines = new ArrayList<>();
+                List<SolrSink> sinks = new ArrayList<>();
+                for (int i = 0; i < starts.size(); i++) {
+                    SolrSink rangeSink = i == 0 ? sink : newSink(collectionList);
+                    sinks.add(rangeSink);
+                    pipelines.add(newPipeline(Arrays.asList(rangeSink)));
                 }
-
-                SolrInputDocument doc = makeDoc(record);
-                if (doc == null) continue;
-
-                for (Solr solr : solrs) {
-                    try {
-                        solr.add(surt, doc);
-                    } catch (RuntimeException e) {
-                        System.err.println("Error indexing " + doc.get("id"));
-                        throw e;
-                    }
+                splitter.run(warc.getPath(), warc.getFilename(), starts, pipelines);
+                for (int i = 0; i < pipelines.size(); i++) {
+                    CdxIndexer.rethrow(pipelines.get(i).failure(sinks.get(i)));
                 }
+            } else {
+                RecordPipeline pipeline = newPipeline(Arrays.asList(sink));
+                pipeline.run(warc.getPath(), warc.getFilename());
+                CdxIndexer.rethrow(pipeline.failure(sink));
             }
 
             warcs.updateState(warc.getId(), Warc.SOLR_INDEXED);
@@ -180,17 +300,27 @@ public class SolrIndexer implements Runnable {
         } catch (TextExtractionException e) {
             return null;
         }
+        return makeDoc(doc);
+    }
+
+    static SolrInputDocument makeDoc(Document doc) {
+        return makeDoc(doc, doc.getText() == null ? 0 : doc.getText().length());
+    }
 
+    /**
+     * Builds the Solr document for a Document whose text was streamed elsewhere (or only counted).
+     */
+    static SolrInputDocument makeDoc(Document doc, long textLength) {
         if (doc.getStatusCode() < 200 || doc.getStatusCode() > 299) {
             return null;
         }
 
-        if (doc.getText() == null || doc.getText().isEmpty()) {
+        if (textLength == 0) {
             return null;
         }
 
         SolrInputDocument solrDoc = new SolrInputDocument();
-        solrDoc.addField("id", doc.getSite() + "!" + doc.getUrl() + " " + WarcUtils.arcDateFormat.format(doc.getDate().toInstant()));
+        solrDoc.addField("id", doc.getSite() + "!" + doc.getUrl() + " " + WarcUtils.arcDateFormat.format(doc.getDate().toInstant().atOffset(ZoneOffset.UTC)));
         solrDoc.addField("url", doc.getUrl());
         solrDoc.addField("length", doc.getContentLength());
         solrDoc.addField("code", doc.getStatusCode());
@@ -0,0 +1,282 @@
+package bamboo.task;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpClientUtil;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends documents to Solr in batches over a small number of concurrent update streams, instead of one HTTP request
+ * per document. All indexing threads share the streams and a single HTTP connection pool.
+ *
+ * Each sink collects documents per collection and hands a batch over once it reaches the batch size or its oldest
+ * document has waited longer than the batch delay. A timer sends batches which reach the delay while their sink is
+ * busy elsewhere, such as extracting a slow document. Senders block once every stream is busy and another batch is
+ * queued for each, so extraction can't run arbitrarily far ahead of Solr. Batches failing with a connection error or
+ * 5xx response are retried with exponential backoff.
+ */
+public class SolrUpdater implements AutoCloseable {
+    private final int streams;
+    private final int batchSize;
+    private final long batchMillis;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+    private final CloseableHttpClient httpClient;
+    private final ConcurrentMap<String, SolrServer> servers = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final Semaphore permits;
+
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong documentsSent = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public SolrUpdater(int streams, int batchSize, long batchMillis) {
+        this(streams, batchSize, batchMillis, 3, 1000);
+    }
+
+    SolrUpdater(int streams, int batchSize, long batchMillis, int maxRetries, long retryDelayMillis) {
+        if (streams < 1) {
+            throw new IllegalArgumentException("streams must be at least 1");
+        }
+        this.streams = streams;
+        this.batchSize = batchSize;
+        this.batchMillis = batchMillis;
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelayMillis;
+        this.permits = new Semaphore(streams * 2);
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(HttpClientUtil.PROP_MAX_CONNECTIONS, streams * 4);
+        params.set(HttpClientUtil.PROP_MAX_CONNECTIONS_PER_HOST, streams * 2);
+        httpClient = (CloseableHttpClient) HttpClientUtil.createClient(params); // declared as HttpClient by solrj 4
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(streams, runnable -> {
+            Thread thread = new Thread(runnable, "solr-update-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "solr-batch-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns a batcher sending to the Solr core at the given URL. Each sink should have its own.
+     */
+    Batcher newBatcher(String url) {
+        return newBatcher(servers.computeIfAbsent(url, u -> new HttpSolrServer(u, httpClient)));
+    }
+
+    Batcher newBatcher(SolrServer server) {
+        return new Batcher(server);
+    }
+
+    class Batcher {
+        private final SolrServer server;
+        private final List<Future<?>> sent = new ArrayList<>();
+        private List<SolrInputDocument> docs = new ArrayList<>();
+        private long firstAdded;
+        private ScheduledFuture<?> deadline;
+        private IOException overdueFailure;
+
+        Batcher(SolrServer server) {
+            this.server = server;
+        }
+
+        synchronized void add(SolrInputDocument doc) throws IOException {
+            if (docs.isEmpty()) {
+                firstAdded = System.currentTimeMillis();
+                if (batchMillis > 0) {
+                    List<SolrInputDocument> batch = docs;
+                    deadline = timer.schedule(() -> sendOverdue(batch), batchMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            docs.add(doc);
+            if (docs.size() >= batchSize || System.currentTimeMillis() - firstAdded >= batchMillis) {
+                send();
+            }
+            checkSent(false);
+        }
+
+        /**
+         * Called by the timer once a batch has waited the batch delay. Any failure is reported by the next add or
+         * flush along with those of the other batches.
+         */
+        private synchronized void sendOverdue(List<SolrInputDocument> batch) {
+            if (docs != batch || docs.isEmpty()) {
+                return; // already sent
+            }
+            try {
+                send();
+            } catch (IOException e) {
+                overdueFailure = e;
+            } catch (RuntimeException e) {
+                overdueFailure = new IOException(e);
+            }
+        }
+
+        private void send() throws IOException {
+            if (deadline != null) {
+                deadline.cancel(false);
+                deadline = null;
+            }
+            List<SolrInputDocument> batch = docs;
+            docs = new ArrayList<>();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for a Solr update stream");
+            }
+            try {
+                sent.add(executor.submit(() -> {
+                    try {
+                        sendWithRetries(server, batch);
+                        return null;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Rethrows the failure of any batch that has finished, forgetting the successful ones. If wait is set blocks
+         * until every batch has finished.
+         */
+        private void checkSent(boolean wait) throws IOException {
+            if (overdueFailure != null) {
+                IOException e = overdueFailure;
+                overdueFailure = null;
+                throw e;
+            }
+            for (Iterator<Future<?>> it = sent.iterator(); it.hasNext(); ) {
+                Future<?> future = it.next();
+                if (!wait && !future.isDone()) {
+                    continue;
+                }
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for Solr");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+                it.remove();
+            }
+        }
+
+        /**
+         * Sends any partial batch and waits until Solr has accepted every document added so far.
+         */
+        synchronized void flush() throws IOException {
+            if (!docs.isEmpty()) {
+                send();
+            }
+            checkSent(true);
+        }
+    }
+
+    private void sendWithRetries(SolrServer server, List<SolrInputDocument> batch) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                server.add(batch, SolrIndexer.COMMIT_WITHIN_MS);
+                batchesSent.incrementAndGet();
+                documentsSent.addAndGet(batch.size());
+                return;
+            } catch (SolrServerException | IOException | SolrException e) {
+                if (attempt >= maxRetries || !isTransient(e)) {
+                    failures.incrementAndGet();
+                    System.err.println("Error indexing batch of " + batch.size() + " documents starting with " +
+                            batch.get(0).getFieldValue("id") + ": " + e.getMessage());
+                    throw e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+                retries.incrementAndGet();
+                Thread.sleep(retryDelayMillis << attempt);
+            }
+        }
+    }
+
+    /**
+     * Whether it's worth trying again: connection failures and server errors but not rejected documents.
+     */
+    static boolean isTransient(Exception e) {
+        if (e instanceof SolrException) {
+            return ((SolrException) e).code() >= 500;
+        }
+        return true;
+    }
+
+    /**
+     * Stops the update streams, abandoning any batches not yet sent, and closes the HTTP connections.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+        for (SolrServer server : servers.values()) {
+            server.shutdown();
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            System.err.println("Error closing Solr HTTP client: " + e.getMessage());
+        }
+    }
+
+    public int getStreams() {
+        return streams;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getBatchesSent() {
+        return batchesSent.get();
+    }
+
+    public long getDocumentsSent() {
+        return documentsSent.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Number of batches being sent or waiting for a free stream.
+     */
+    public int getInFlight() {
+        return streams * 2 - permits.availablePermits();
+    }
+}
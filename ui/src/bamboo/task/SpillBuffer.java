@@ -0,0 +1,254 @@
+package bamboo.task;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An output buffer which holds its contents in memory, in chunks borrowed from a shared {@link Pool}, and only spills
+ * to a temporary file once the pool's byte budget is used up. Small outputs never touch the disk while large ones
+ * can't exhaust the heap no matter how many are being written concurrently.
+ */
+public class SpillBuffer extends OutputStream {
+    private final Pool pool;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] chunk;
+    private int chunkPos;
+    private long size;
+    private FileChannel spillChannel;
+    private OutputStream spillStream;
+
+    public SpillBuffer(Pool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * A global budget of memory shared by every buffer drawing from it. Released chunks are kept for reuse.
+     */
+    public static class Pool {
+        private final int chunkSize;
+        private final long budget;
+        private final AtomicLong used = new AtomicLong();
+        private final AtomicLong spills = new AtomicLong();
+        private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+        public Pool(long budget) {
+            this(budget, 64 * 1024);
+        }
+
+        public Pool(long budget, int chunkSize) {
+            this.budget = budget;
+            this.chunkSize = chunkSize;
+        }
+
+        byte[] tryAcquire() {
+            while (true) {
+                long current = used.get();
+                if (current + chunkSize > budget) {
+                    return null;
+                }
+                if (used.compareAndSet(current, current + chunkSize)) {
+                    byte[] chunk = free.poll();
+                    return chunk != null ? chunk : new byte[chunkSize];
+                }
+            }
+        }
+
+        void release(byte[] chunk) {
+            free.offer(chunk);
+            used.addAndGet(-chunkSize);
+        }
+
+        public long getBudget() {
+            return budget;
+        }
+
+        public long getUsed() {
+            return used.get();
+        }
+
+        /**
+         * Number of buffers which have exceeded the budget and spilled to disk.
+         */
+        public long getSpills() {
+            return spills.get();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (spillStream == null && (chunk == null || chunkPos == chunk.length) && !nextChunk()) {
+            spill();
+        }
+        if (spillStream != null) {
+            spillStream.write(b);
+        } else {
+            chunk[chunkPos++] = (byte) b;
+        }
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        size += len;
+        while (len > 0) {
+            if (spillStream != null) {
+                spillStream.write(b, off, len);
+                return;
+            }
+            if ((chunk == null || chunkPos == chunk.length) && !nextChunk()) {
+                spill();
+                continue;
+            }
+            int n = Math.min(len, chunk.length - chunkPos);
+            System.arraycopy(b, off, chunk, chunkPos, n);
+            chunkPos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private boolean nextChunk() {
+        byte[] next = pool.tryAcquire();
+        if (next == null) {
+            return false;
+        }
+        chunks.add(next);
+        chunk = next;
+        chunkPos = 0;
+        return true;
+    }
+
+    private void spill() throws IOException {
+        Path path = Files.createTempFile("bamboo", ".spill");
+        spillChannel = FileChannel.open(path, DELETE_ON_CLOSE, READ, WRITE);
+        spillStream = new BufferedOutputStream(Channels.newOutputStream(spillChannel), 64 * 1024);
+        pool.spills.incrementAndGet();
+        writeChunksTo(spillStream);
+        releaseChunks();
+    }
+
+    /**
+     * Number of bytes written to the buffer.
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isSpilled() {
+        return spillStream != null;
+    }
+
+    /**
+     * Copies the buffer's contents to the given stream.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (spillStream != null) {
+            spillStream.flush();
+            spillChannel.position(0);
+            byte[] buf = new byte[64 * 1024];
+            long remaining = spillChannel.size();
+            InputStream in = Channels.newInputStream(spillChannel);
+            while (remaining > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n < 0) {
+                    break;
+                }
+                out.write(buf, 0, n);
+                remaining -= n;
+            }
+            spillChannel.position(spillChannel.size());
+        } else {
+            writeChunksTo(out);
+        }
+    }
+
+    /**
+     * Returns a stream which reads the buffer's contents from the start. The buffer mustn't be written to or closed
+     * while the stream is in use.
+     */
+    public InputStream newInputStream() throws IOException {
+        if (spillStream != null) {
+            spillStream.flush();
+            long end = spillChannel.size();
+            return new InputStream() {
+                private long pos = 0;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (pos >= end) {
+                        return -1;
+                    }
+                    int n = spillChannel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+                    if (n > 0) {
+                        pos += n;
+                    }
+                    return n;
+                }
+            };
+        }
+        List<InputStream> streams = new ArrayList<>();
+        for (byte[] c : chunks) {
+            streams.add(new ByteArrayInputStream(c, 0, c == chunk ? chunkPos : c.length));
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    private void writeChunksTo(OutputStream out) throws IOException {
+        for (byte[] c : chunks) {
+            out.write(c, 0, c == chunk ? chunkPos : c.length);
+        }
+    }
+
+    private void releaseChunks() {
+        for (byte[] c : chunks) {
+            pool.release(c);
+        }
+        chunks.clear();
+        chunk = null;
+        chunkPos = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (spillStream != null) {
+            spillStream.flush();
+        }
+    }
+
+    /**
+     * Returns memory to the pool and deletes any spill file.
+     */
+    @Override
+    public void close() throws IOException {
+        releaseChunks();
+        if (spillChannel != null) {
+            spillChannel.close();
+            spillChannel = null;
+            spillStream = null;
+        }
+    }
+}
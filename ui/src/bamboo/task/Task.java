@@ -4,7 +4,7 @@ public class Task {
     final Runnable runnable;
     final String name;
     Thread thread;
-    boolean enabled = true;
+    volatile boolean enabled = true;
 
     public Task(Runnable runnable) {
         this.runnable = runnable;
@@ -4,6 +4,7 @@ import bamboo.app.Bamboo;
 import bamboo.crawl.Warc;
 import bamboo.util.Pager;
 import bamboo.util.Parsing;
+import bamboo.util.Sites;
 import droute.Csrf;
 import droute.Handler;
 import droute.Request;
@@ -30,7 +31,17 @@ public class TasksController {
     Response index(Request request) {
         return render("bamboo/views/tasks.ftl",
                 "csrfToken", Csrf.token(request),
-                "tasks", bamboo.taskmaster.getTasks());
+                "tasks", bamboo.taskmaster.getTasks(),
+                "workerPools", bamboo.taskmaster.getWorkerPools(),
+                "extractionPool", bamboo.extractionPool,
+                "indexableFilter", bamboo.indexableFilter,
+                "solrUpdater", bamboo.solrUpdater,
+                "warcUpdates", bamboo.warcUpdates,
+                "rollups", bamboo.rollups,
+                "rollupRefresher", bamboo.rollupRefresher,
+                "parsers", ParserContext.shared(),
+                "siteCache", Sites.stats(),
+                "siteCacheSize", Sites.size());
     }
 
     Response disable(Request request) {
@@ -52,7 +63,8 @@ public class TasksController {
     }
 
     Response cdxQueue(Request request) {
-        Pager<Warc> pager = bamboo.warcs.paginateWithState(Parsing.parseLongOrDefault(request.queryParam("page"), 1), Warc.IMPORTED);
+        Pager<Warc> pager = bamboo.warcs.paginateWithState(Parsing.parseLongOrDefault(request.queryParam("page"), 1),
+                Parsing.parseLongOrDefault(request.queryParam("after"), -1), Warc.IMPORTED);
         return render("bamboo/views/tasks/warcs.ftl",
                 "queueName", "CDX Indexing",
                 "warcs", pager.items,
@@ -60,7 +72,8 @@ public class TasksController {
     }
 
     Response solrQueue(Request request) {
-        Pager<Warc> pager = bamboo.warcs.paginateWithState(Parsing.parseLongOrDefault(request.queryParam("page"), 1), Warc.CDX_INDEXED);
+        Pager<Warc> pager = bamboo.warcs.paginateWithState(Parsing.parseLongOrDefault(request.queryParam("page"), 1),
+                Parsing.parseLongOrDefault(request.queryParam("after"), -1), Warc.CDX_INDEXED);
         return render("bamboo/views/tasks/warcs.ftl",
                 "queueName", "Solr Indexing",
                 "warcs", pager.items,
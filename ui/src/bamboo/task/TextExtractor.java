@@ -1,12 +1,13 @@
 package bamboo.task;
 
-import com.google.common.net.InternetDomainName;
+import bamboo.util.Sites;
+import bamboo.util.Surts;
 import com.lowagie.text.pdf.PdfReader;
 import com.lowagie.text.pdf.parser.PdfTextExtractor;
 import de.l3s.boilerpipe.BoilerpipeProcessingException;
+import de.l3s.boilerpipe.document.TextBlock;
 import de.l3s.boilerpipe.document.TextDocument;
 import de.l3s.boilerpipe.extractors.DefaultExtractor;
-import de.l3s.boilerpipe.sax.BoilerpipeSAXInput;
 import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -15,6 +16,10 @@ import org.apache.tika.Tika;
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
 import org.archive.io.ArchiveRecord;
 import org.archive.io.ArchiveRecordHeader;
 import org.xml.sax.InputSource;
@@ -24,41 +29,95 @@ import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.BufferOverflowException;
-import java.nio.CharBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.regex.Pattern;
+import java.util.HashSet;
+import java.util.Set;
 
 public class TextExtractor {
     static final int pdfDiskOffloadThreshold = 32 * 1024 * 1024;
     static final int maxDocSize = 0x100000;
     static final long timeLimitMillis = 5000;
 
+    static final Set<String> TIKA_TYPES = new HashSet<>(Arrays.asList(
+            "application/vnd.ms-excel",
+            "text/csv",
+            "application/csv",
+            "application/vnd.ms-powerpoint",
+            "application/msword",
+            "application/vnd.ms-word.document.macroEnabled.12",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "application/vnd.oasis.opendocument.presentation",
+            "application/vnd.oasis.opendocument.text",
+            "application/vnd.oasis.opendocument.spreadsheet"));
+
     private boolean boilingEnabled = false;
     private boolean usePdfBox = false;
     private boolean useTika = false;
 
+    /**
+     * Whether extraction would parse the body of a record with this (cleaned) content type. Other types only get
+     * their metadata recorded.
+     */
+    public boolean readsBody(String contentType) {
+        return "text/html".equals(contentType) || "application/pdf".equals(contentType) ||
+                (useTika && TIKA_TYPES.contains(contentType));
+    }
+
     public Document extract(ArchiveRecord record) throws TextExtractionException {
-        Document doc = new Document();
         ArchiveRecordHeader warcHeader = record.getHeader();
-
-        String url = WarcUtils.getCleanUrl(warcHeader);
+        HttpHeader httpHeader = null;
 
         if (WarcUtils.isResponseRecord(warcHeader)) {
-            HttpHeader httpHeader;
             try {
-                httpHeader = HttpHeader.parse(record, url);
+                httpHeader = HttpHeader.parse(record, WarcUtils.getCleanUrl(warcHeader));
             } catch (IOException e) {
                 throw new TextExtractionException("parsing http header: " + e.getMessage(), e);
             }
             if (httpHeader == null) {
                 throw new TextExtractionException("response record missing http header");
             }
+        }
+
+        Document doc = extract(warcHeader, httpHeader, record);
+        doc.setSurt(Surts.toSchemelessSurt(doc.getUrl()));
+        return doc;
+    }
+
+    /**
+     * Extracts a document from a record whose HTTP header (if any) has already been parsed. The body stream should
+     * be positioned at the start of the payload.
+     */
+    public Document extract(ArchiveRecordHeader warcHeader, HttpHeader httpHeader, InputStream body) throws TextExtractionException {
+        TextSink text = TextSink.buffer(maxDocSize);
+        Document doc = extract(warcHeader, httpHeader, body, text);
+        if (doc.getTextError() == null) {
+            doc.setText(text.toString());
+        }
+        return doc;
+    }
+
+    /**
+     * Extracts a document, streaming its text to a sink instead of storing it in Document.text. If extraction fails
+     * part way through the text error is set and the sink may have received some of the text.
+     */
+    public Document extract(ArchiveRecordHeader warcHeader, HttpHeader httpHeader, InputStream body, TextSink text) throws TextExtractionException {
+        Document doc = new Document();
+
+        String url = WarcUtils.getCleanUrl(warcHeader);
+
+        if (WarcUtils.isResponseRecord(warcHeader)) {
+            if (httpHeader == null) {
+                throw new TextExtractionException("response record missing http header");
+            }
             doc.setContentType(HttpHeader.cleanContentType(httpHeader.contentType));
             doc.setStatusCode(httpHeader.status);
         } else if (WarcUtils.isResourceRecord(warcHeader)) {
@@ -96,36 +155,22 @@ public class TextExtractor {
         try {
             switch (doc.getContentType()) {
                 case "text/html":
-                    extractHtml(record, doc);
+                    extractHtml(body, doc, text);
                     break;
                 case "application/pdf":
                     if (usePdfBox) {
-                        extractPdfBox(record, doc);
+                        extractPdfBox(body, doc, text);
                     } else {
-                        extractPdf(record, doc);
+                        extractPdf(body, warcHeader, doc, text);
                     }
                     break;
-                case "application/vnd.ms-excel":
-                case "text/csv":
-                case "application/csv":
-                case "application/vnd.ms-powerpoint":
-                case "application/msword":
-                case "application/vnd.ms-word.document.macroEnabled.12":
-                case "application/vnd.openxmlformats-officedocument.wordprocessingml.document":
-                case "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet":
-                case "application/vnd.openxmlformats-officedocument.presentationml.presentation":
-                case "application/vnd.oasis.opendocument.presentation":
-                case "application/vnd.oasis.opendocument.text":
-                case "application/vnd.oasis.opendocument.spreadsheet":
-                    if (useTika) {
-                        extractTika(record, doc);
+                default:
+                    if (useTika && TIKA_TYPES.contains(doc.getContentType())) {
+                        extractTika(body, doc, text);
                     } else {
                         doc.setTextError("not implemented for content-type");
                     }
                     break;
-                default:
-                    doc.setTextError("not implemented for content-type");
-                    break;
             }
         } catch (TextExtractionException e) {
             doc.setTextError(e.getMessage());
@@ -135,43 +180,74 @@ public class TextExtractor {
     }
 
     public static void extractTika(InputStream record, Document doc) throws TextExtractionException {
-        Tika tika = new Tika();
+        TextSink text = TextSink.buffer(maxDocSize);
+        extractTika(record, doc, text);
+        doc.setText(text.toString());
+    }
+
+    static void extractTika(InputStream record, Document doc, TextSink text) throws TextExtractionException {
+        // equivalent to Tika.parseToString() but writing to our sink instead of a StringWriter
+        Tika tika = ParserContext.shared().tika();
         Metadata metadata = new Metadata();
+        WriteOutContentHandler handler = new WriteOutContentHandler(text, maxDocSize);
         try {
-            String text = tika.parseToString(record, metadata, maxDocSize);
-            doc.setText(text);
-            doc.setTitle(metadata.get(TikaCoreProperties.TITLE));
+            ParseContext context = new ParseContext();
+            context.set(Parser.class, tika.getParser());
+            tika.getParser().parse(record, new BodyContentHandler(handler), metadata, context);
+        } catch (SAXException e) {
+            if (!handler.isWriteLimitReached(e)) {
+                throw new TextExtractionException("Tika failed", e);
+            }
         } catch (IOException | TikaException e) {
             throw new TextExtractionException("Tika failed", e);
         }
+        doc.setTitle(metadata.get(TikaCoreProperties.TITLE));
     }
 
-    private void extractHtml(ArchiveRecord record, Document doc) throws TextExtractionException {
+    private void extractHtml(InputStream body, Document doc, TextSink text) throws TextExtractionException {
         try {
-            BoundedInputStream in = new BoundedInputStream(record, maxDocSize);
-            TextDocument textDoc = new BoilerpipeSAXInput(new InputSource(in)).getTextDocument();
+            BoundedInputStream in = new BoundedInputStream(body, maxDocSize);
+            TextDocument textDoc = ParserContext.shared().parseHtml(new InputSource(in));
             doc.setTitle(textDoc.getTitle());
-            doc.setText(textDoc.getText(true, true).replace("\uFFFF", ""));
+            writeBlocks(textDoc, true, text);
             if (boilingEnabled) {
                 DefaultExtractor.INSTANCE.process(textDoc);
-                doc.setBoiled(textDoc.getContent().replace("\uFFFF", ""));
+                TextSink boiled = TextSink.buffer(maxDocSize);
+                writeBlocks(textDoc, false, boiled);
+                doc.setBoiled(boiled.toString());
             }
-        } catch (SAXException | BoilerpipeProcessingException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+        } catch (IOException | SAXException | BoilerpipeProcessingException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
             throw new TextExtractionException(e);
         }
     }
 
-    private static void extractPdf(ArchiveRecord record, Document doc) throws TextExtractionException {
-        doc.setTitle(record.getHeader().getUrl());
+    /**
+     * Writes the same text as TextDocument.getText(true, includeNonContent) without building it as one String.
+     */
+    static void writeBlocks(TextDocument textDoc, boolean includeNonContent, TextSink text) throws IOException {
+        try {
+            for (TextBlock block : textDoc.getTextBlocks()) {
+                if (block.isContent() || includeNonContent) {
+                    text.write(block.getText());
+                    text.write('\n');
+                }
+            }
+        } catch (BufferOverflowException e) {
+            // reached maxDocSize
+        }
+    }
+
+    private static void extractPdf(InputStream body, ArchiveRecordHeader warcHeader, Document doc, TextSink text) throws TextExtractionException {
+        doc.setTitle(warcHeader.getUrl());
 
         try {
-            if (record.getHeader().getLength() > pdfDiskOffloadThreshold) {
+            if (warcHeader.getLength() > pdfDiskOffloadThreshold) {
                 // PDFReader needs (uncompressed) random access to the file.  When given a stream it loads the whole
                 // lot into a memory buffer. So for large records let's decompress to a temporary file first.
                 Path tmp = Files.createTempFile("bamboo-solr-tmp", ".pdf");
-                Files.copy(record, tmp, StandardCopyOption.REPLACE_EXISTING);
+                Files.copy(body, tmp, StandardCopyOption.REPLACE_EXISTING);
                 try {
-                    extractPdfContent(new PdfReader(tmp.toString()), doc);
+                    extractPdfContent(new PdfReader(tmp.toString()), doc, text);
                 } finally {
                     try {
                         Files.deleteIfExists(tmp);
@@ -180,7 +256,7 @@ public class TextExtractor {
                     }
                 }
             } else {
-                extractPdfContent(new PdfReader(record), doc);
+                extractPdfContent(new PdfReader(body), doc, text);
             }
         } catch (NoClassDefFoundError | RuntimeException | IOException e) {
             throw new TextExtractionException(e);
@@ -188,21 +264,23 @@ public class TextExtractor {
     }
 
     static void extractPdfContent(PdfReader pdfReader, Document doc) throws TextExtractionException, IOException {
+        TextSink text = TextSink.buffer(maxDocSize);
+        extractPdfContent(pdfReader, doc, text);
+        doc.setText(text.toString());
+    }
+
+    static void extractPdfContent(PdfReader pdfReader, Document doc, TextSink text) throws TextExtractionException, IOException {
         try {
             long deadline = System.currentTimeMillis() + timeLimitMillis;
-            CharBuffer buf = CharBuffer.allocate(maxDocSize);
             PdfTextExtractor extractor = new PdfTextExtractor(pdfReader);
             try {
                 for (int i = 1; i <= pdfReader.getNumberOfPages() && System.currentTimeMillis() < deadline; ++i) {
-                    String text = extractor.getTextFromPage(i);
-                    buf.append(text.replace("\uFFFF", ""));
-                    buf.append(' ');
+                    text.write(extractor.getTextFromPage(i));
+                    text.write(' ');
                 }
             } catch (BufferOverflowException e) {
                 // reached maxDocSize amount of content
             }
-            buf.flip();
-            doc.setText(buf.toString());
 
             // extract the title from the metadata if it has one
             Object metadataTitle = pdfReader.getInfo().get("Title");
@@ -221,21 +299,25 @@ public class TextExtractor {
     }
 
     static void extractPdfBox(InputStream stream, Document doc) throws TextExtractionException {
-        StringWriter sw = new StringWriter();
+        TextSink text = TextSink.buffer(maxDocSize);
+        extractPdfBox(stream, doc, text);
+        doc.setText(text.toString());
+    }
+
+    static void extractPdfBox(InputStream stream, Document doc, TextSink text) throws TextExtractionException {
         try (PDDocument pdf = PDDocument.load(stream, MemoryUsageSetting.setupTempFileOnly())) {
             String title = pdf.getDocumentInformation().getTitle();
             if (title != null) {
                 doc.setTitle(title);
             }
 
-            PDFTextStripper stripper = new PDFTextStripper();
-            stripper.writeText(pdf, new TruncatingWriter(sw, maxDocSize, System.currentTimeMillis() + timeLimitMillis));
+            PDFTextStripper stripper = ParserContext.shared().pdfTextStripper();
+            stripper.writeText(pdf, new TruncatingWriter(text, maxDocSize, System.currentTimeMillis() + timeLimitMillis));
         } catch (BufferOverflowException e) {
             // reached maxDocSize, just stop early
         } catch (Exception e) {
             throw new TextExtractionException(e);
         }
-        doc.setText(sw.toString());
     }
 
     public void setUsePdfBox(boolean usePdfBox) {
@@ -292,17 +374,8 @@ public class TextExtractor {
         }
     }
 
-    private final static Pattern WWW_PREFIX = Pattern.compile("^www[0-9]*\\.");
-
     private static String topPrivateDomain(String url) throws MalformedURLException {
-        String host = new URL(url).getHost();
-        try {
-            InternetDomainName domain = InternetDomainName.from(host);
-            return domain.topPrivateDomain().toString();
-        } catch (IllegalStateException | IllegalArgumentException e) {
-            // IP addresses, hosts which don't have a known TLD etc
-            return WWW_PREFIX.matcher(host).replaceFirst("");
-        }
+        return Sites.topPrivateDomain(new URL(url).getHost());
     }
 
     /**
@@ -0,0 +1,151 @@
+package bamboo.task;
+
+import org.apache.commons.io.output.StringBuilderWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+
+/**
+ * Receives text as it's extracted from a document so it can be passed straight on (or just counted) rather than
+ * collected into one String per parser step. Enforces the document size limit and drops U+FFFF, which boilerpipe and
+ * iText emit as padding.
+ *
+ * Once the limit is reached the rest of the text is cut off and further writes throw BufferOverflowException so the
+ * parser stops early.
+ */
+public class TextSink extends Writer {
+    private final Writer out;
+    private final long limit;
+    private long length;
+    private boolean truncated;
+
+    /**
+     * @param out where to send the text or null to only count it
+     */
+    public TextSink(Writer out, long limit) {
+        this.out = out;
+        this.limit = limit;
+    }
+
+    /**
+     * A sink that keeps the text in memory, see {@link #toString()}.
+     */
+    public static TextSink buffer(long limit) {
+        return new TextSink(new StringBuilderWriter(), limit);
+    }
+
+    /**
+     * A sink that discards the text, keeping only its length.
+     */
+    public static TextSink counter(long limit) {
+        return new TextSink(null, limit);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (c == '\uFFFF') {
+            return;
+        }
+        checkSpace();
+        if (out != null) {
+            out.write(c);
+        }
+        length++;
+    }
+
+    @Override
+    public void write(String s, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int skip = s.indexOf('\uFFFF', off);
+            int runEnd = skip < 0 || skip > end ? end : skip;
+            if (runEnd > off) {
+                checkSpace();
+                int n = clamp(runEnd - off);
+                if (out != null) {
+                    out.write(s, off, n);
+                }
+                length += n;
+            }
+            off = runEnd + 1;
+        }
+    }
+
+    @Override
+    public void write(char[] chars, int off, int len) throws IOException {
+        int end = off + len;
+        int runStart = off;
+        for (int i = off; i <= end; i++) {
+            if (i == end || chars[i] == '\uFFFF') {
+                if (i > runStart) {
+                    checkSpace();
+                    int n = clamp(i - runStart);
+                    if (out != null) {
+                        out.write(chars, runStart, n);
+                    }
+                    length += n;
+                }
+                runStart = i + 1;
+            }
+        }
+    }
+
+    private void checkSpace() {
+        if (length >= limit) {
+            truncated = true;
+            throw new BufferOverflowException();
+        }
+    }
+
+    private int clamp(int len) {
+        if (len > limit - length) {
+            truncated = true;
+            return (int) (limit - length);
+        }
+        return len;
+    }
+
+    /**
+     * Number of characters passed on, after truncation.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Whether some of the text was cut off by the limit.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Whether this sink keeps the text, see {@link #buffer(long)}.
+     */
+    public boolean isBuffered() {
+        return out instanceof StringBuilderWriter;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    /**
+     * The text received so far if this sink was created by {@link #buffer(long)}.
+     */
+    @Override
+    public String toString() {
+        return isBuffered() ? out.toString() : super.toString();
+    }
+}
@@ -0,0 +1,178 @@
+package bamboo.task;
+
+import bamboo.crawl.Warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Splits large compressed warcs (and arcs) into byte ranges which can be indexed on several threads at once.
+ *
+ * Every record in a compressed file is its own gzip member so a reader can start at any record. To find one we scan
+ * forward from the desired split point for a gzip header and check it decompresses to the start of a WARC or ARC
+ * record. After the ranges are read we also check each one stopped exactly where the next began, so a misidentified
+ * boundary is an error rather than silently lost or duplicated records.
+ */
+public class WarcSplitter {
+    private static final Pattern ARC_HEADER = Pattern.compile("\\S+ \\S+ \\d{14} \\S+ \\d+");
+
+    private final long minSize;
+    private final int threads;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param minSize files smaller than this are not split, 0 disables splitting
+     * @param threads maximum number of ranges read at once across all files
+     */
+    public WarcSplitter(long minSize, int threads) {
+        this.minSize = minSize;
+        this.threads = threads;
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "warc-splitter-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the start offset of each range the warc should be read in. Small, uncompressed or still open files get
+     * a single range starting at 0.
+     */
+    List<Long> split(Warc warc) throws IOException {
+        if (minSize <= 0 || threads < 2 || warc.getSize() < minSize || !isSplittable(warc.getPath())) {
+            List<Long> starts = new ArrayList<>();
+            starts.add(0L);
+            return starts;
+        }
+        int parts = (int) Math.min(threads, Math.max(2, warc.getSize() / minSize));
+        return split(warc.getPath(), parts);
+    }
+
+    static boolean isSplittable(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(".warc.gz") || name.endsWith(".arc.gz");
+    }
+
+    /**
+     * Returns 0 followed by the first record boundary at or after each multiple of size / parts. Fewer ranges are
+     * returned if no boundary is found.
+     */
+    static List<Long> split(Path path, int parts) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            long size = channel.size();
+            for (int i = 1; i < parts; i++) {
+                long last = starts.get(starts.size() - 1);
+                long boundary = findRecord(channel, Math.max(size * i / parts, last + 1));
+                if (boundary < 0) {
+                    break;
+                }
+                starts.add(boundary);
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * Returns the offset of the first record starting at or after the given position or -1 if there are none.
+     */
+    static long findRecord(FileChannel channel, long from) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        byte[] b = buf.array();
+        long pos = from;
+        while (true) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n < 3) {
+                return -1;
+            }
+            for (int i = 0; i + 2 < n; i++) {
+                if (b[i] == (byte) 0x1f && b[i + 1] == (byte) 0x8b && b[i + 2] == 8 && isRecordStart(channel, pos + i)) {
+                    return pos + i;
+                }
+            }
+            pos += n - 2;
+        }
+    }
+
+    private static boolean isRecordStart(FileChannel channel, long offset) {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        try {
+            channel.read(buf, offset);
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(buf.array(), 0, buf.position()));
+            StringBuilder line = new StringBuilder();
+            for (int c = in.read(); c >= 0 && c != '\n' && line.length() < 1024; c = in.read()) {
+                line.append((char) c);
+            }
+            String s = line.toString().trim();
+            return s.startsWith("WARC/") || ARC_HEADER.matcher(s).matches();
+        } catch (IOException e) {
+            return false; // not a gzip member or not one we can decompress the start of
+        }
+    }
+
+    /**
+     * Reads each range with its own pipeline concurrently and waits for them all to finish. The caller should then
+     * check each pipeline's sinks for failures.
+     */
+    void run(Path path, String filename, List<Long> starts, List<RecordPipeline> pipelines) throws IOException {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < starts.size(); i++) {
+            long start = starts.get(i);
+            long end = i + 1 < starts.size() ? starts.get(i + 1) : Long.MAX_VALUE;
+            RecordPipeline pipeline = pipelines.get(i);
+            futures.add(executor.submit(() -> {
+                pipeline.run(path, filename, start, end);
+                return null;
+            }));
+        }
+
+        // wait for every range even if one fails or we're interrupted as the caller will close the sinks they use
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while reading " + path);
+        }
+        CdxIndexer.rethrow(failure);
+
+        for (int i = 0; i + 1 < starts.size(); i++) {
+            long stoppedAt = pipelines.get(i).stoppedAt();
+            if (stoppedAt != starts.get(i + 1)) {
+                throw new IOException("Range " + i + " of " + path + " ended at " + stoppedAt +
+                        " rather than the next range's start " + starts.get(i + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package bamboo.task;
+
+import bamboo.crawl.Warc;
+import bamboo.crawl.Warcs;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streams warcs in a particular state from the database into a worker pool. Warcs are read in id order a page at a
+ * time so the pool's bounded queue is kept topped up without ever holding a whole batch in memory or waiting for a
+ * batch to finish before fetching the next.
+ *
+ * Once a pass over the table has queued everything, the table is read again as soon as any warc finishes (or after
+ * a few seconds) rather than waiting for the slowest one, so newly imported warcs are picked up while the rest of the
+ * pass is still running. Warcs still in flight, including those whose results are waiting to be written, are skipped.
+ *
+ * Warcs which fail are not resubmitted during the same run, so a broken file can't keep the workers spinning. This
+ * includes failures reported after the job itself returned, such as its results failing to be written.
+ */
+class WarcStateFeeder {
+    private static final int PAGE_SIZE = 1024;
+    private static final long RESCAN_MILLIS = 5000;
+
+    interface WarcJob {
+        void run(Warc warc) throws Exception;
+    }
+
+    /**
+     * A job whose outcome is only known once the returned stage completes.
+     */
+    interface AsyncWarcJob {
+        CompletionStage<?> run(Warc warc) throws Exception;
+    }
+
+    private final Warcs warcs;
+    private final int stateId;
+    private final WorkerPool pool;
+    private final AsyncWarcJob job;
+    private final Runnable onIdle;
+    private final Set<Long> failed = ConcurrentHashMap.newKeySet();
+    private final Set<Long> inFlight = new HashSet<>();
+    private int running;
+
+    WarcStateFeeder(Warcs warcs, int stateId, WorkerPool pool, WarcJob job) {
+        this(warcs, stateId, pool, warc -> {
+            job.run(warc);
+            return null;
+        }, () -> {});
+    }
+
+    /**
+     * @param onIdle run whenever no jobs are running but some outcomes are still pending, to hurry them along
+     */
+    WarcStateFeeder(Warcs warcs, int stateId, WorkerPool pool, AsyncWarcJob job, Runnable onIdle) {
+        this.warcs = warcs;
+        this.stateId = stateId;
+        this.pool = pool;
+        this.job = job;
+        this.onIdle = onIdle;
+    }
+
+    /**
+     * Feeds the pool until a pass over the table finds nothing new to do and every warc submitted has finished. If
+     * interrupted the pool's queue is cleared and its running jobs are interrupted too.
+     */
+    void run() throws InterruptedException {
+        try {
+            while (true) {
+                long submitted = 0;
+                long lastId = -1;
+                while (true) {
+                    List<Warc> page = warcs.findByState(stateId, lastId, PAGE_SIZE);
+                    if (page.isEmpty()) {
+                        break;
+                    }
+                    for (Warc warc : page) {
+                        lastId = warc.getId();
+                        if (submit(warc)) {
+                            submitted++;
+                        }
+                    }
+                }
+                if (submitted == 0 && !awaitProgress()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            pool.cancel();
+            throw e;
+        }
+    }
+
+    private boolean submit(Warc warc) throws InterruptedException {
+        long id = warc.getId();
+        synchronized (inFlight) {
+            if (failed.contains(id) || !inFlight.add(id)) {
+                return false;
+            }
+            running++;
+        }
+        boolean queued = false;
+        try {
+            queued = pool.submit(id, () -> runJob(warc));
+        } finally {
+            if (!queued) {
+                jobReturned();
+                outcomeKnown(id);
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Waits until some warc in flight finishes. Returns false if there was none.
+     */
+    private boolean awaitProgress() throws InterruptedException {
+        synchronized (inFlight) {
+            if (inFlight.isEmpty()) {
+                return false;
+            }
+            if (running > 0) {
+                inFlight.wait(RESCAN_MILLIS);
+                return true;
+            }
+        }
+        onIdle.run();
+        synchronized (inFlight) {
+            if (!inFlight.isEmpty()) {
+                inFlight.wait(RESCAN_MILLIS);
+            }
+        }
+        return true;
+    }
+
+    private void runJob(Warc warc) {
+        CompletionStage<?> outcome = null;
+        try {
+            outcome = job.run(warc);
+        } catch (Throwable t) {
+            failed.add(warc.getId());
+            t.printStackTrace();
+        } finally {
+            jobReturned();
+        }
+        if (outcome == null) {
+            outcomeKnown(warc.getId());
+        } else {
+            outcome.whenComplete((result, t) -> {
+                if (t != null) {
+                    failed.add(warc.getId());
+                }
+                outcomeKnown(warc.getId());
+            });
+        }
+    }
+
+    private void jobReturned() {
+        synchronized (inFlight) {
+            running--;
+            inFlight.notifyAll();
+        }
+    }
+
+    private void outcomeKnown(long id) {
+        synchronized (inFlight) {
+            inFlight.remove(id);
+            inFlight.notifyAll();
+        }
+    }
+}
@@ -22,9 +22,36 @@ public class WarcUtils {
     public final static DateTimeFormatter warcDateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
     public final static DateTimeFormatter arcDateFormat = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
 
+    private static final ThreadLocal<MessageDigest> sha1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private static final ThreadLocal<byte[]> readBuffer = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
     private WarcUtils() {
     }
 
+    /**
+     * Returns this thread's SHA1 instance, reset and ready for use. It must not be held across calls that might
+     * also use it.
+     */
+    static MessageDigest sha1() {
+        MessageDigest md = sha1.get();
+        md.reset();
+        return md;
+    }
+
+    /**
+     * Returns a scratch buffer for this thread to read record bodies through.
+     */
+    static byte[] readBuffer() {
+        return readBuffer.get();
+    }
+
     static boolean isResponseRecord(ArchiveRecordHeader h) {
         String warcType = (String)h.getHeaderValue("WARC-Type");
         if (warcType != null && !warcType.equals("response"))
@@ -55,33 +82,36 @@ public class WarcUtils {
     }
 
     static String getOrCalcDigest(ArchiveRecord record) throws IOException {
-        String digest = (String) record.getHeader().getHeaderValue("WARC-Payload-Digest");
+        String digest = getPayloadDigest(record.getHeader());
         if (digest == null) {
             return calcDigest(record);
-        } else if (digest.startsWith("sha1:")) {
-            return digest.substring(5);
         } else {
             return digest;
         }
     }
 
-    static String calcDigest(ArchiveRecord record) throws IOException {
-        String digest;
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA1");
-            byte[] buf = new byte[8192];
-            for (; ; ) {
-                int len = record.read(buf);
-                if (len < 0) break;
-                md.update(buf, 0, len);
-            }
-            digest = Base32.encode(md.digest());
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+    /**
+     * Returns the WARC-Payload-Digest header without its "sha1:" prefix or null if the record doesn't have one.
+     */
+    static String getPayloadDigest(ArchiveRecordHeader h) {
+        String digest = (String) h.getHeaderValue("WARC-Payload-Digest");
+        if (digest != null && digest.startsWith("sha1:")) {
+            return digest.substring(5);
         }
         return digest;
     }
 
+    static String calcDigest(ArchiveRecord record) throws IOException {
+        MessageDigest md = sha1();
+        byte[] buf = readBuffer();
+        for (; ; ) {
+            int len = record.read(buf);
+            if (len < 0) break;
+            md.update(buf, 0, len);
+        }
+        return Base32.encode(md.digest());
+    }
+
     /**
      * We've encountered some ARC files collected circa 2000 which have corrupt dates. It appears there was a data
      * race in the software that originally wrote them. This attempts to repair them.
@@ -165,4 +195,12 @@ public class WarcUtils {
             return ArchiveReaderFactory.get(path.toFile());
         }
     }
+
+    /**
+     * Opens a compressed warc or arc positioned at the record starting at the given offset. Record offsets are still
+     * relative to the start of the file.
+     */
+    public static ArchiveReader open(Path path, long offset) throws IOException {
+        return ArchiveReaderFactory.get(path.toFile(), offset);
+    }
 }
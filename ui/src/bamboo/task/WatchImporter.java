@@ -107,7 +107,7 @@ public class WatchImporter implements Runnable {
              * Create the record under the final closed filename as its currently the key wayback uses to request
              * a particular warc and we don't want to have to deal with it changing.
              */
-            warcId = warcs.create(watch.crawlId, Warc.OPEN, path, filename, 0L, null);
+            warcId = warcs.create(watch.crawlId, Warc.OPEN, path, filename, 0L, null, null);
             prevSize = 0;
         }
         if (currentSize > prevSize) {
@@ -128,14 +128,14 @@ public class WatchImporter implements Runnable {
         Crawl crawl = crawls.get(watch.crawlId);
 
         long size = Files.size(path);
-        String digest = Scrub.calculateDigest("SHA-256", path);
+        Scrub.Checksums checksums = Scrub.calculateChecksums(path);
 
         Path dest = moveWarcToCrawlDir(path, crawl);
 
         if (warc == null) {
-            warcs.create(watch.crawlId, Warc.IMPORTED, dest, filename, size, digest);
+            warcs.create(watch.crawlId, Warc.IMPORTED, dest, filename, size, checksums.sha256, checksums.crc32);
         } else {
-            warcs.update(warc.getId(), Warc.IMPORTED, dest, filename, size, digest);
+            warcs.update(warc.getId(), Warc.IMPORTED, dest, filename, size, checksums.sha256, checksums.crc32);
         }
     }
 
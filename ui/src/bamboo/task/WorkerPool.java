@@ -0,0 +1,226 @@
+package bamboo.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived pool of worker threads fed from a bounded queue. Jobs are keyed (usually by warc id) so that a producer
+ * which repeatedly scans the database doesn't queue the same warc twice while it's still waiting or in progress.
+ *
+ * Unlike a fixed thread pool per batch, workers never wait for the slowest job in a batch: each picks up the next
+ * queued job as soon as it finishes the last one.
+ */
+public class WorkerPool implements AutoCloseable {
+    private final String name;
+    private final int threads;
+    private final BlockingQueue<Job> queue;
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+    private final List<Worker> workers = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    public WorkerPool(String name, int threads, int queueCapacity) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.name = name;
+        this.threads = threads;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    }
+
+    private static class Job {
+        final long key;
+        final Runnable runnable;
+
+        Job(long key, Runnable runnable) {
+            this.key = key;
+            this.runnable = runnable;
+        }
+    }
+
+    /**
+     * Queues a job, blocking while the queue is full.
+     *
+     * @return false if a job with the same key is already queued or running
+     */
+    public boolean submit(long key, Runnable runnable) throws InterruptedException {
+        startWorkers();
+        if (!pending.add(key)) {
+            return false;
+        }
+        try {
+            queue.put(new Job(key, runnable));
+        } catch (InterruptedException e) {
+            pending.remove(key);
+            throw e;
+        }
+        return true;
+    }
+
+    public boolean isPending(long key) {
+        return pending.contains(key);
+    }
+
+    /**
+     * Blocks until every queued job has finished.
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (pending) {
+            while (!pending.isEmpty()) {
+                pending.wait(1000);
+            }
+        }
+    }
+
+    /**
+     * Drops every queued job and interrupts those running, leaving the workers ready for new jobs. Used when the
+     * task feeding the pool is disabled.
+     */
+    public void cancel() {
+        List<Job> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+        synchronized (pending) {
+            for (Job job : dropped) {
+                pending.remove(job.key);
+            }
+            pending.notifyAll();
+        }
+        for (Worker worker : getWorkers()) {
+            if (worker.getCurrentKey() != null) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    private synchronized void startWorkers() {
+        if (closed) {
+            throw new IllegalStateException(name + " worker pool is closed");
+        }
+        if (workers.isEmpty()) {
+            for (int i = 0; i < threads; i++) {
+                Worker worker = new Worker(name + " " + (i + 1));
+                workers.add(worker);
+                worker.start();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Worker worker : workers) {
+            worker.interrupt();
+        }
+        queue.clear();
+        pending.clear();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    public int getActiveCount() {
+        int active = 0;
+        for (Worker worker : getWorkers()) {
+            if (worker.getCurrentKey() != null) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    public synchronized List<Worker> getWorkers() {
+        return Collections.unmodifiableList(new ArrayList<>(workers));
+    }
+
+    public class Worker extends Thread {
+        private final long startTime = System.nanoTime();
+        private volatile Long currentKey;
+        private volatile long jobStartTime;
+        private volatile long busyNanos;
+        private volatile long jobsCompleted;
+        private volatile long jobsFailed;
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                Job job;
+                try {
+                    job = queue.take();
+                } catch (InterruptedException e) {
+                    continue; // closing, or a cancel that arrived just as the job finished
+                }
+                jobStartTime = System.nanoTime();
+                currentKey = job.key;
+                try {
+                    job.runnable.run();
+                    jobsCompleted++;
+                } catch (Throwable t) {
+                    jobsFailed++;
+                    t.printStackTrace();
+                } finally {
+                    busyNanos += System.nanoTime() - jobStartTime;
+                    currentKey = null;
+                    Thread.interrupted(); // an interrupt meant for this job mustn't cancel the next one
+                    synchronized (pending) {
+                        pending.remove(job.key);
+                        pending.notifyAll();
+                    }
+                }
+            }
+        }
+
+        /**
+         * The key of the job currently being worked on or null if idle.
+         */
+        public Long getCurrentKey() {
+            return currentKey;
+        }
+
+        /**
+         * Fraction of this worker's lifetime spent running jobs.
+         */
+        public double getUtilisation() {
+            long busy = busyNanos;
+            if (currentKey != null) {
+                busy += System.nanoTime() - jobStartTime;
+            }
+            long lifetime = System.nanoTime() - startTime;
+            return lifetime > 0 ? Math.min(1.0, (double) busy / lifetime) : 0.0;
+        }
+
+        public long getJobsCompleted() {
+            return jobsCompleted;
+        }
+
+        public long getJobsFailed() {
+            return jobsFailed;
+        }
+
+        public long getBusyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(busyNanos);
+        }
+    }
+}
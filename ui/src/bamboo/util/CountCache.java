@@ -0,0 +1,35 @@
+package bamboo.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers row counts for a short time. Pagers only need an approximate total to number the pages and a COUNT(*)
+ * over millions of warcs on every page view is slow.
+ */
+public class CountCache {
+    private final Cache<String, Long> cache;
+
+    public CountCache(long duration, TimeUnit unit) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(duration, unit)
+                .build();
+    }
+
+    public long get(String key, LongSupplier count) {
+        try {
+            return cache.get(key, count::getAsLong);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause()); // count doesn't throw checked exceptions
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
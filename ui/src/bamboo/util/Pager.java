@@ -3,6 +3,7 @@ package bamboo.util;
 import droute.Request;
 
 import java.util.List;
+import java.util.function.ToLongFunction;
 
 import static bamboo.util.Parsing.parseLongOrDefault;
 
@@ -14,12 +15,49 @@ public class Pager<T> {
     public final long totalItems;
     public final List<T> items;
 
+    /**
+     * Id of the last item on this page for seeking to the next one, or -1 if there's no next page or the query
+     * doesn't support seeking.
+     */
+    public final long nextAfter;
+
     public Pager(long page, long totalItems, PaginationQuery<T> query) {
         this.currentPage = page;
         offset = (currentPage - 1) * pageSize;
         this.totalItems = totalItems;
         lastPage = totalItems / pageSize + 1;
         items = query.paginate(pageSize, offset);
+        nextAfter = -1;
+    }
+
+    private Pager(long page, long after, long totalItems, KeysetQuery<T> keysetQuery, PaginationQuery<T> offsetQuery,
+                  ToLongFunction<T> idOf) {
+        this.currentPage = page;
+        offset = (currentPage - 1) * pageSize;
+        this.totalItems = totalItems;
+        if (after >= 0) {
+            items = keysetQuery.paginateAfter(after, pageSize);
+        } else {
+            items = offsetQuery.paginate(pageSize, offset);
+        }
+        boolean hasMore = items.size() == pageSize;
+        nextAfter = hasMore ? idOf.applyAsLong(items.get(items.size() - 1)) : -1;
+
+        // the total may be stale so trust what the query actually returned
+        lastPage = hasMore ? Math.max(totalItems / pageSize + 1, page + 1) : page;
+    }
+
+    /**
+     * Pages through a query ordered by id, or by some other column with id as the tie breaker. Following the next page
+     * link seeks past the last item seen (WHERE id > :after ORDER BY id) so deep pages cost the same as the first.
+     * Jumping straight to a numbered page falls back to LIMIT/OFFSET.
+     *
+     * @param after id of the last item on the previous page, or -1 to use the offset query
+     * @param totalItems approximate total, used only to number the pages
+     */
+    public static <T> Pager<T> keyset(long page, long after, long totalItems, KeysetQuery<T> keysetQuery,
+                                      PaginationQuery<T> offsetQuery, ToLongFunction<T> idOf) {
+        return new Pager<>(page, after, totalItems, keysetQuery, offsetQuery, idOf);
     }
 
     @Deprecated
@@ -30,4 +68,8 @@ public class Pager<T> {
     public interface PaginationQuery<T> {
         List<T> paginate(long limit, long offset);
     }
+
+    public interface KeysetQuery<T> {
+        List<T> paginateAfter(long afterId, long limit);
+    }
 }
@@ -0,0 +1,58 @@
+package bamboo.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.net.InternetDomainName;
+
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * Maps hostnames to the site they belong to (their top private domain, eg www.nla.gov.au to nla.gov.au).
+ *
+ * Guava's public suffix matching allocates a list of labels and does several map lookups per call, and within one
+ * warc the same few hosts repeat thousands of times, so results are kept in a bounded cache shared by text
+ * extraction, Solr indexing and the seedlist views.
+ */
+public class Sites {
+    private final static Pattern WWW_PREFIX = Pattern.compile("^www[0-9]*\\.");
+
+    private static final Cache<String, String> cache = CacheBuilder.newBuilder()
+            .maximumSize(50000)
+            .concurrencyLevel(16)
+            .recordStats()
+            .build();
+
+    private Sites() {
+    }
+
+    public static String topPrivateDomain(String host) {
+        try {
+            return cache.get(host, () -> lookup(host));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause()); // lookup doesn't throw checked exceptions
+        }
+    }
+
+    private static String lookup(String host) {
+        try {
+            InternetDomainName domain = InternetDomainName.from(host);
+            return domain.topPrivateDomain().toString();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // IP addresses, hosts which don't have a known TLD etc
+            return WWW_PREFIX.matcher(host).replaceFirst("");
+        }
+    }
+
+    /**
+     * Hit and miss counts for the cache.
+     */
+    public static CacheStats stats() {
+        return cache.stats();
+    }
+
+    public static long size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,145 @@
+package bamboo.util;
+
+import org.archive.url.SURT;
+
+/**
+ * Converts URLs to schemeless SURTs, the form used for URL filters and CDX keys.
+ *
+ * Most URLs seen while indexing are plain http or https URLs made of a hostname and an unremarkable path. Those are
+ * converted directly with a single scan into a StringBuilder. Anything unusual (ports, userinfo, IP addresses,
+ * escapes, dot segments, characters the canonicaliser would escape) falls back to {@link SURT#toSURT(String)} so the
+ * result is always identical to SURT.toSURT(Urls.removeScheme(url)).
+ */
+public class Surts {
+
+    public static String toSchemelessSurt(String url) {
+        int start = schemeEnd(url);
+        String surt = fastSurt(url, start);
+        if (surt == null) {
+            surt = SURT.toSURT(start == 0 ? url : url.substring(start));
+        }
+        return surt;
+    }
+
+    /**
+     * Returns the index just past a leading "scheme:/" or "scheme://", matching the pattern in {@link Urls}, or 0 if
+     * there is none.
+     */
+    static int schemeEnd(String url) {
+        int n = url.length();
+        if (n == 0 || !isAsciiLetter(url.charAt(0))) {
+            return 0;
+        }
+        int i = 1;
+        while (i < n) {
+            char c = url.charAt(i);
+            if (isAsciiLetter(c) || c == '+' || c == '.' || c == '-') {
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (i + 1 < n && url.charAt(i) == ':' && url.charAt(i + 1) == '/') {
+            i += 2;
+            if (i < n && url.charAt(i) == '/') {
+                i++;
+            }
+            return i;
+        }
+        return 0;
+    }
+
+    /**
+     * Converts the simple cases or returns null if the URL needs full canonicalisation.
+     */
+    static String fastSurt(String url, int start) {
+        int n = url.length();
+
+        // hostname: lowercase ascii labels separated by single dots
+        int hostEnd = start;
+        boolean lastLabelNumeric = true;
+        int labelStart = start;
+        while (hostEnd < n) {
+            char c = url.charAt(hostEnd);
+            if (c == '/' || c == '?') {
+                break;
+            } else if (c == '.') {
+                if (hostEnd == labelStart) {
+                    return null; // empty label
+                }
+                labelStart = hostEnd + 1;
+                lastLabelNumeric = true;
+            } else if (isAsciiLetter(c) || c == '-') {
+                lastLabelNumeric = false;
+            } else if (!(c >= '0' && c <= '9')) {
+                return null; // port, userinfo, escapes, non-ascii etc
+            }
+            hostEnd++;
+        }
+        if (hostEnd == labelStart || lastLabelNumeric || labelStart == start) {
+            return null; // empty host, trailing dot, IP address or no dot (affects how the implied scheme is added)
+        }
+
+        if (url.charAt(n - 1) == '?') {
+            return null; // empty query is dropped
+        }
+
+        // path and query: only characters the canonicaliser leaves alone apart from lowercasing
+        for (int i = hostEnd; i < n; i++) {
+            char c = url.charAt(i);
+            if (!isPlainPathChar(c)) {
+                return null;
+            }
+            if (c == '.' && url.charAt(i - 1) == '/' && (i + 1 == n || url.charAt(i + 1) == '/'
+                    || url.charAt(i + 1) == '.' || url.charAt(i + 1) == '?')) {
+                return null; // dot segment
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(n - start + 4);
+        sb.append('(');
+        int labelEnd = hostEnd;
+        for (int i = hostEnd - 1; i >= start - 1; i--) {
+            if (i < start || url.charAt(i) == '.') {
+                appendLower(sb, url, i + 1, labelEnd);
+                sb.append(',');
+                labelEnd = i;
+            }
+        }
+
+        if (hostEnd == n || (hostEnd == n - 1 && url.charAt(hostEnd) == '/')) {
+            return sb.toString();
+        }
+
+        sb.append(')');
+        if (url.charAt(hostEnd) != '/') {
+            sb.append('/');
+        }
+        appendLower(sb, url, hostEnd, n);
+        return sb.toString();
+    }
+
+    private static void appendLower(StringBuilder sb, String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            sb.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isPlainPathChar(char c) {
+        if (isAsciiLetter(c) || (c >= '0' && c <= '9')) {
+            return true;
+        }
+        switch (c) {
+            case '-': case '.': case '_': case '~': case '/': case '?': case '=': case '&': case ';': case ',':
+            case ':': case '+': case '!': case '$': case '\'': case '(': case ')': case '*': case '@':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
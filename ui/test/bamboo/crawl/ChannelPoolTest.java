@@ -0,0 +1,62 @@
+package bamboo.crawl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class ChannelPoolTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void shouldShareChannelsAndCloseEvictedOnceReleased() throws Exception {
+        Path a = tmp.newFile("a.warc").toPath();
+        Path b = tmp.newFile("b.warc").toPath();
+        ChannelPool pool = new ChannelPool(1);
+
+        ChannelPool.Lease first = pool.open(a);
+        ChannelPool.Lease second = pool.open(a);
+        assertSame(first.channel(), second.channel());
+        assertEquals(1, pool.getMisses());
+        assertEquals(1, pool.getHits());
+        first.close();
+
+        // opening b evicts a but it stays open while the second lease is reading it
+        FileChannel channelA = second.channel();
+        try (ChannelPool.Lease lease = pool.open(b)) {
+            assertEquals(1, pool.getEvictions());
+            assertTrue(channelA.isOpen());
+            second.close();
+            assertFalse(channelA.isOpen());
+            assertTrue(lease.channel().isOpen());
+        }
+
+        // b is idle but still pooled
+        try (ChannelPool.Lease lease = pool.open(b)) {
+            assertEquals(2, pool.getHits());
+            assertTrue(lease.channel().isOpen());
+        }
+        assertEquals(1, pool.getOpenFiles());
+    }
+
+    @Test
+    public void shouldReplaceChannelClosedByInterrupt() throws Exception {
+        Path a = tmp.newFile("a.warc").toPath();
+        ChannelPool pool = new ChannelPool(4);
+        FileChannel channel;
+        try (ChannelPool.Lease lease = pool.open(a)) {
+            channel = lease.channel();
+            channel.close();
+        }
+        try (ChannelPool.Lease lease = pool.open(a)) {
+            assertNotSame(channel, lease.channel());
+            assertTrue(lease.channel().isOpen());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package bamboo.crawl;
+
+import bamboo.core.Fixtures;
+import bamboo.util.Pager;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CollectionsTest {
+
+    @ClassRule
+    public static Fixtures fixtures = new Fixtures();
+
+    @Test
+    public void testKeysetPaginationByName() {
+        Collections collections = new Collections(fixtures.dao.collections());
+        long b1 = create(collections, "b");
+        long a = create(collections, "a");
+        long b2 = create(collections, "b");
+        long c = create(collections, "c");
+
+        Pager<Collection> page = collections.paginate(1, -1);
+        assertEquals(4, page.totalItems);
+        assertEquals(a, page.items.get(0).getId());
+
+        Pager<Collection> afterB1 = collections.paginate(1, b1);
+        assertEquals(2, afterB1.items.size());
+        assertEquals(b2, afterB1.items.get(0).getId());
+        assertEquals(c, afterB1.items.get(1).getId());
+    }
+
+    private static long create(Collections collections, String name) {
+        Collection collection = new Collection();
+        collection.setName(name);
+        return collections.create(collection);
+    }
+}
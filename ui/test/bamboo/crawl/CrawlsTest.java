@@ -63,4 +63,41 @@ public class CrawlsTest {
         assertTrue(pager.totalItems > 0);
     }
 
+    @Test
+    public void testCheckWarcTotals() throws IOException {
+        Rollups rollups = new Rollups(fixtures.dao.warcs(), 60000);
+        Warcs warcs = new Warcs(fixtures.dao.warcs(), 4, rollups);
+        Crawls crawls = new Crawls(fixtures.dao.crawls(), new Serieses(fixtures.dao.serieses()), warcs);
+
+        Crawl crawl = new Crawl();
+        crawl.setName("drifted");
+        long driftedId = crawls.createInPlace(crawl, java.util.Collections.emptyList());
+        warcs.create(driftedId, Warc.IMPORTED, Paths.get("/tmp/drifted.warc.gz"), "drifted.warc.gz", 100, null, null);
+        rollups.flush();
+        fixtures.dao.crawls().batchIncrementWarcTotals(Arrays.asList(new WarcTotals(driftedId, 5, -40, 7, 0)));
+
+        crawl.setName("pending");
+        long pendingId = crawls.createInPlace(crawl, java.util.Collections.emptyList());
+        warcs.create(pendingId, Warc.IMPORTED, Paths.get("/tmp/pending.warc.gz"), "pending.warc.gz", 30, null, null);
+
+        // resumes from the saved position across instances
+        Crawls.TotalsCheck first = crawls.checkWarcTotals(1);
+        Crawls other = new Crawls(fixtures.dao.crawls(), new Serieses(fixtures.dao.serieses()), warcs);
+        Crawls.TotalsCheck check = other.checkWarcTotals(1);
+        assertTrue(check.lastId > first.lastId);
+        while (check.checked > 0) {
+            check = other.checkWarcTotals(1);
+        }
+
+        assertEquals(1, crawls.get(driftedId).getWarcFiles());
+        assertEquals(100, crawls.get(driftedId).getWarcSize());
+        assertEquals(0, crawls.get(driftedId).getRecords());
+
+        // changes still in the journal aren't counted twice
+        assertEquals(0, crawls.get(pendingId).getWarcFiles());
+        rollups.close();
+        assertEquals(1, crawls.get(pendingId).getWarcFiles());
+        assertEquals(30, crawls.get(pendingId).getWarcSize());
+    }
+
 }
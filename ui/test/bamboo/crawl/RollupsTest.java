@@ -0,0 +1,107 @@
+package bamboo.crawl;
+
+import bamboo.core.Fixtures;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class RollupsTest {
+
+    @ClassRule
+    public static Fixtures fixtures = new Fixtures();
+
+    @Test
+    public void shouldApplyJournaledDeltasOnFlush() throws IOException {
+        Rollups rollups = new Rollups(fixtures.dao.warcs(), 60000);
+        Warcs warcs = new Warcs(fixtures.dao.warcs(), 4, rollups);
+        Serieses serieses = new Serieses(fixtures.dao.serieses());
+        Crawls crawls = new Crawls(fixtures.dao.crawls(), serieses, warcs);
+        Collections collections = new Collections(fixtures.dao.collections());
+
+        Series series = new Series();
+        series.setName("rollups");
+        series.setPath(Paths.get("/tmp/rollups"));
+        long seriesId = serieses.create(series);
+        Crawl crawl = new Crawl();
+        crawl.setName("rollups");
+        crawl.setCrawlSeriesId(seriesId);
+        long crawlId = crawls.createInPlace(crawl, java.util.Collections.emptyList());
+        Collection collection = new Collection();
+        collection.setName("rollups");
+        long collectionId = collections.create(collection);
+
+        long warcId = warcs.create(crawlId, Warc.IMPORTED, Paths.get("/tmp/rollup1.warc.gz"), "rollup1.warc.gz", 100, null, null);
+        warcs.create(crawlId, Warc.IMPORTED, Paths.get("/tmp/rollup2.warc.gz"), "rollup2.warc.gz", 50, null, null);
+        warcs.updateSize(warcId, 120);
+        warcs.updateRecordStats(warcId, stats(3));
+        warcs.updateCollections(warcId, java.util.Collections.singletonMap(collectionId, stats(3)));
+
+        // nothing applied until the flush
+        assertEquals(0, crawls.get(crawlId).getWarcFiles());
+        assertEquals(0, crawls.get(crawlId).getRecords());
+        assertEquals(0, collections.get(collectionId).getRecords());
+        assertEquals(1, rollups.getPendingCrawls());
+        assertEquals(1, rollups.getPendingCollections());
+
+        rollups.flush();
+        assertEquals(2, crawls.get(crawlId).getWarcFiles());
+        assertEquals(170, crawls.get(crawlId).getWarcSize());
+        assertEquals(2, serieses.get(seriesId).getWarcFiles());
+        assertEquals(170, serieses.get(seriesId).getWarcSize());
+        assertEquals(3, crawls.get(crawlId).getRecords());
+        assertEquals(300, crawls.get(crawlId).getRecordBytes());
+        assertEquals(new Date(1000000000000L), crawls.get(crawlId).getStartTime());
+        assertEquals(new Date(1000000000002L), crawls.get(crawlId).getEndTime());
+        assertEquals(3, serieses.get(seriesId).getRecords());
+        assertEquals(3, collections.get(collectionId).getRecords());
+        assertEquals(0, rollups.getPendingCrawls());
+        assertEquals(0, rollups.getPendingCollections());
+
+        // reindexing only journals the difference and never narrows the crawl's time range
+        warcs.updateIndexed(new Warcs.IndexedWarc(warcId, Warc.CDX_INDEXED, stats(1),
+                java.util.Collections.singletonMap(collectionId, stats(1))));
+        rollups.close();
+        assertEquals(1, collections.get(collectionId).getRecords());
+        assertEquals(1, crawls.get(crawlId).getRecords());
+        assertEquals(1, serieses.get(seriesId).getRecords());
+        assertEquals(new Date(1000000000002L), crawls.get(crawlId).getEndTime());
+        assertEquals(7, rollups.getDeltasApplied());
+    }
+
+    @Test
+    public void shouldReplayJournalLeftByAnotherProcess() throws IOException {
+        Rollups crashed = new Rollups(fixtures.dao.warcs(), 60000);
+        Warcs warcs = new Warcs(fixtures.dao.warcs(), 4, crashed);
+        Crawls crawls = new Crawls(fixtures.dao.crawls(), new Serieses(fixtures.dao.serieses()), warcs);
+        Crawl crawl = new Crawl();
+        crawl.setName("replay");
+        long crawlId = crawls.createInPlace(crawl, java.util.Collections.emptyList());
+        warcs.create(crawlId, Warc.IMPORTED, Paths.get("/tmp/replay.warc.gz"), "replay.warc.gz", 10, null, null);
+        assertEquals(0, crawls.get(crawlId).getWarcFiles());
+
+        // the journal is applied by the next process to flush
+        Rollups restarted = new Rollups(fixtures.dao.warcs(), 0);
+        assertEquals(0, crawls.get(crawlId).getWarcFiles());
+        restarted.flush();
+        assertEquals(1, crawls.get(crawlId).getWarcFiles());
+        assertEquals(10, crawls.get(crawlId).getWarcSize());
+
+        // and not applied twice
+        crashed.flush();
+        restarted.flush();
+        assertEquals(1, crawls.get(crawlId).getWarcFiles());
+    }
+
+    private static RecordStats stats(int records) {
+        RecordStats stats = new RecordStats();
+        for (int i = 0; i < records; i++) {
+            stats.update(100, new Date(1000000000000L + i));
+        }
+        return stats;
+    }
+}
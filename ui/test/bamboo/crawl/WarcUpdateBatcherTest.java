@@ -0,0 +1,84 @@
+package bamboo.crawl;
+
+import bamboo.core.Fixtures;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class WarcUpdateBatcherTest {
+
+    @ClassRule
+    public static Fixtures fixtures = new Fixtures();
+
+    private static RecordStats stats(int records) {
+        RecordStats stats = new RecordStats();
+        for (int i = 0; i < records; i++) {
+            stats.update(100, new Date(1000000000000L + i));
+        }
+        return stats;
+    }
+
+    @Test
+    public void shouldWriteBatchesAndAdjustRollups() throws IOException {
+        Warcs warcs = new Warcs(fixtures.dao.warcs());
+        Crawls crawls = new Crawls(fixtures.dao.crawls(), new Serieses(fixtures.dao.serieses()), warcs);
+        Collections collections = new Collections(fixtures.dao.collections());
+
+        Collection collection = new Collection();
+        collection.setName("batched");
+        long collectionId = collections.create(collection);
+        Crawl crawl = new Crawl();
+        crawl.setName("batched");
+        long crawlId = crawls.createInPlace(crawl, java.util.Collections.emptyList());
+        long[] ids = new long[3];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = warcs.create(crawlId, Warc.IMPORTED, Paths.get("/tmp/batch" + i + ".warc.gz"),
+                    "batch" + i + ".warc.gz", 0, null, null);
+        }
+
+        List<Long> notified = new ArrayList<>();
+        WarcUpdateBatcher batcher = new WarcUpdateBatcher(warcs, 2, 60000);
+
+        batcher.add(indexed(ids[0], collectionId, 3)).thenRun(() -> notified.add(ids[0]));
+        assertEquals(Warc.IMPORTED, warcs.get(ids[0]).getStateId());
+        assertEquals(1, batcher.getPending());
+
+        batcher.add(indexed(ids[1], collectionId, 5)).thenRun(() -> notified.add(ids[1]));
+        assertEquals(0, batcher.getPending());
+        assertEquals(Warc.CDX_INDEXED, warcs.get(ids[0]).getStateId());
+        assertEquals(5, warcs.get(ids[1]).getRecords());
+        assertEquals(8, collections.get(collectionId).getRecords());
+        assertEquals(8, crawls.get(crawlId).getRecords());
+        assertEquals(2, notified.size());
+
+        // reindexing replaces the warc's previous contribution
+        batcher.add(indexed(ids[0], collectionId, 1));
+        batcher.flush();
+        assertEquals(6, collections.get(collectionId).getRecords());
+        assertEquals(6, crawls.get(crawlId).getRecords());
+
+        // a missing warc doesn't lose the rest of its batch
+        CompletableFuture<Void> missing = batcher.add(indexed(Long.MAX_VALUE, collectionId, 1));
+        CompletableFuture<Void> found = batcher.add(indexed(ids[2], collectionId, 2));
+        assertEquals(Warc.CDX_INDEXED, warcs.get(ids[2]).getStateId());
+        assertEquals(8, collections.get(collectionId).getRecords());
+        assertEquals(1, batcher.getFailures());
+        assertTrue(found.isDone() && !found.isCompletedExceptionally());
+        assertTrue(missing.isCompletedExceptionally());
+
+        batcher.close();
+    }
+
+    private static Warcs.IndexedWarc indexed(long warcId, long collectionId, int records) {
+        return new Warcs.IndexedWarc(warcId, Warc.CDX_INDEXED, stats(records),
+                java.util.Collections.singletonMap(collectionId, stats(records)));
+    }
+}
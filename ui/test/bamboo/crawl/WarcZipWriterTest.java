@@ -0,0 +1,82 @@
+package bamboo.crawl;
+
+import bamboo.core.Fixtures;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class WarcZipWriterTest {
+
+    @ClassRule
+    public static Fixtures fixtures = new Fixtures();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void shouldZipWarcsWithAndWithoutStoredCrc() throws IOException {
+        Warcs warcs = new Warcs(fixtures.dao.warcs());
+        Crawls crawls = new Crawls(fixtures.dao.crawls(), new Serieses(fixtures.dao.serieses()), warcs);
+
+        Path imported = tmp.newFile("imported.warc").toPath();
+        Files.write(imported, "imported warc".getBytes(StandardCharsets.UTF_8));
+        Crawl crawl = new Crawl();
+        crawl.setName("zip test");
+        long crawlId = crawls.createInPlace(crawl, Arrays.asList(imported));
+
+        Warc first = warcs.getByFilename("imported.warc");
+        assertEquals(crc32("imported warc"), (long) first.getCrc32());
+
+        Path legacy = tmp.newFile("legacy.warc").toPath();
+        Files.write(legacy, "legacy warc without a crc".getBytes(StandardCharsets.UTF_8));
+        long legacyId = warcs.create(crawlId, Warc.IMPORTED, legacy, "legacy.warc", Files.size(legacy), null, null);
+        assertNull(warcs.get(legacyId).getCrc32());
+
+        List<Warc> warcList = Arrays.asList(first, warcs.get(legacyId));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new WarcZipWriter(warcs).write(out, "crawl/", warcList);
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry = zip.getNextEntry();
+            assertEquals("crawl/imported.warc", entry.getName());
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertEquals("imported warc", read(zip));
+            entry = zip.getNextEntry();
+            assertEquals("crawl/legacy.warc", entry.getName());
+            assertEquals("legacy warc without a crc", read(zip));
+            assertNull(zip.getNextEntry());
+        }
+
+        assertEquals(crc32("legacy warc without a crc"), (long) warcs.get(legacyId).getCrc32());
+    }
+
+    private static long crc32(String s) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(s.getBytes(StandardCharsets.UTF_8));
+        return crc32.getValue();
+    }
+
+    private static String read(ZipInputStream zip) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] b = new byte[1024];
+        for (int n = zip.read(b); n >= 0; n = zip.read(b)) {
+            buf.write(b, 0, n);
+        }
+        return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
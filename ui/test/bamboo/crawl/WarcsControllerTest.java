@@ -1,13 +1,38 @@
 package bamboo.crawl;
 
+import bamboo.task.Document;
+import bamboo.task.ExtractionPool;
+import bamboo.task.HttpHeader;
+import bamboo.task.TextExtractionException;
+import bamboo.task.TextExtractor;
+import bamboo.task.TextSink;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.archive.io.ArchiveRecordHeader;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class WarcsControllerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     @Test
     public void testParseRange() {
         assertNull(WarcsController.Range.parseHeader("bogus", 10));
@@ -21,4 +46,105 @@ public class WarcsControllerTest {
         assertEquals("2-3/10", ranges.get(1).toString());
         assertEquals("6-9/10", ranges.get(2).toString());
     }
+
+    @Test
+    public void recordContentTypeShouldMatchFileFormat() {
+        Warc warc = new Warc();
+        warc.setFilename("example.warc.gz");
+        assertEquals("application/warc", WarcsController.recordContentType(warc));
+        warc.setFilename("example.arc.gz");
+        assertEquals("application/x-internet-archive", WarcsController.recordContentType(warc));
+        warc.setFilename("example.arc");
+        assertEquals("application/x-internet-archive", WarcsController.recordContentType(warc));
+    }
+
+    private static byte[] responseRecord(String url, String html) throws IOException {
+        byte[] block = ("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n" + html).getBytes(StandardCharsets.UTF_8);
+        String header = "WARC/1.0\r\n" +
+                "WARC-Type: response\r\n" +
+                "WARC-Target-URI: " + url + "\r\n" +
+                "WARC-Date: 2016-01-02T03:04:05Z\r\n" +
+                "WARC-Record-ID: <urn:uuid:" + UUID.randomUUID() + ">\r\n" +
+                "Content-Type: application/http; msgtype=response\r\n" +
+                "Content-Length: " + block.length + "\r\n\r\n";
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write(header.getBytes(StandardCharsets.UTF_8));
+        record.write(block);
+        record.write("\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        return record.toByteArray();
+    }
+
+    private Warc writeWarc(String filename, byte[]... records) throws IOException {
+        ByteArrayOutputStream warcBytes = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            warcBytes.write(record);
+        }
+        Path path = tmp.getRoot().toPath().resolve(filename);
+        Files.write(path, warcBytes.toByteArray());
+        Warc warc = new Warc();
+        warc.setPath(path);
+        warc.setFilename(filename);
+        return warc;
+    }
+
+    private static JsonArray parseJson(ByteArrayOutputStream out) {
+        return new JsonParser().parse(new String(out.toByteArray(), StandardCharsets.UTF_8)).getAsJsonArray();
+    }
+
+    @Test
+    public void shouldStreamTextAsJson() throws Exception {
+        String html = "<html><head><title>Quotes</title></head><body><p>Say \"hi\" \\ bye</p></body></html>";
+        Warc warc = writeWarc("text.warc", responseRecord("http://www.example.org/", html));
+
+        // inline, and a document at a time on the pool
+        for (ExtractionPool pool : Arrays.asList(null, new ExtractionPool(1, 10000))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            WarcsController.writeText(new TextExtractor(), pool, warc, out);
+
+            JsonArray docs = parseJson(out);
+            assertEquals(1, docs.size());
+            JsonObject doc = docs.get(0).getAsJsonObject();
+            assertEquals("Say \"hi\" \\ bye\n", doc.get("text").getAsString());
+            assertEquals("Quotes", doc.get("title").getAsString());
+            assertEquals("http://www.example.org/", doc.get("url").getAsString());
+        }
+    }
+
+    /**
+     * Hangs on any page with "slow" in its URL, ignoring interrupts.
+     */
+    static class SlowExtractor extends TextExtractor {
+        @Override
+        public Document extract(ArchiveRecordHeader warcHeader, HttpHeader httpHeader, InputStream body, TextSink text) throws TextExtractionException {
+            if (warcHeader.getUrl().contains("slow")) {
+                long until = System.currentTimeMillis() + 5000;
+                while (System.currentTimeMillis() < until) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        // ignored
+                    }
+                }
+            }
+            return super.extract(warcHeader, httpHeader, body, text);
+        }
+    }
+
+    @Test
+    public void shouldLeaveOutTextThatMissesTheDeadline() throws Exception {
+        Warc warc = writeWarc("slow.warc",
+                responseRecord("http://www.example.org/slow", "<html><head><title>Slow</title></head></html>"),
+                responseRecord("http://www.example.org/", "<html><head><title>Fast</title></head></html>"));
+        ExtractionPool pool = new ExtractionPool(2, 500);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long start = System.currentTimeMillis();
+        WarcsController.writeText(new SlowExtractor(), pool, warc, out);
+        assertTrue(System.currentTimeMillis() - start < 3000);
+
+        JsonArray docs = parseJson(out);
+        assertEquals(1, docs.size());
+        assertEquals("Fast", docs.get(0).getAsJsonObject().get("title").getAsString());
+        assertEquals(1, pool.getTimedOut());
+    }
 }
@@ -8,7 +8,17 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import bamboo.task.WarcToIndex;
+import bamboo.util.Pager;
+import org.skife.jdbi.v2.ResultIterator;
+
+import static org.junit.Assert.*;
 
 public class WarcsTest {
 
@@ -33,4 +43,90 @@ public class WarcsTest {
         RecordStats stats = new RecordStats();
         warcs.updateRecordStats(crawlId, stats);
     }
+
+    @Test
+    public void testKeysetPagination() throws IOException {
+        Warcs warcs = new Warcs(fixtures.dao.warcs());
+        Crawls crawls = new Crawls(fixtures.dao.crawls(), new Serieses(fixtures.dao.serieses()), warcs);
+
+        Crawl crawl = new Crawl();
+        crawl.setName("pagination test");
+        long crawlId = crawls.createInPlace(crawl, Collections.emptyList());
+        for (int i = 0; i < 150; i++) {
+            warcs.create(crawlId, i % 2 == 0 ? Warc.IMPORTED : Warc.CDX_ERROR, Paths.get("/tmp/page" + i + ".warc.gz"),
+                    "page" + i + ".warc.gz", 0, null, null);
+        }
+
+        Pager<Warc> first = warcs.paginateWithCrawlId(1, -1, crawlId);
+        assertEquals(100, first.items.size());
+        assertEquals(first.items.get(99).getId(), first.nextAfter);
+
+        // ordered by filename, so page100 comes straight after page10
+        assertEquals("page0.warc.gz", first.items.get(0).getFilename());
+        assertEquals("page100.warc.gz", first.items.get(3).getFilename());
+
+        Pager<Warc> second = warcs.paginateWithCrawlId(2, first.nextAfter, crawlId);
+        assertEquals(50, second.items.size());
+        assertEquals(-1, second.nextAfter);
+        assertEquals(2, second.lastPage);
+        assertEquals(filenames(warcs.paginateWithCrawlId(2, -1, crawlId).items), filenames(second.items));
+
+        List<String> all = filenames(first.items);
+        all.addAll(filenames(second.items));
+        List<String> sorted = new ArrayList<>(all);
+        Collections.sort(sorted);
+        assertEquals(sorted, all);
+
+        Pager<Warc> corrupt = warcs.paginateWithCrawlIdAndState(2, first.items.get(0).getId(), crawlId, Warc.CDX_ERROR);
+        assertEquals(75, corrupt.items.size());
+        assertEquals("page1.warc.gz", corrupt.items.get(0).getFilename());
+    }
+
+    private static List<String> filenames(List<Warc> warcs) {
+        List<String> filenames = new ArrayList<>();
+        for (Warc warc : warcs) {
+            filenames.add(warc.getFilename());
+        }
+        return filenames;
+    }
+
+    @Test
+    public void testIterateWarcsToIndex() throws IOException {
+        bamboo.crawl.Collections collections = new bamboo.crawl.Collections(fixtures.dao.collections());
+        Warcs warcs = new Warcs(fixtures.dao.warcs());
+        Crawls crawls = new Crawls(fixtures.dao.crawls(), new Serieses(fixtures.dao.serieses()), warcs);
+        Collection collection = new Collection();
+        collection.setName("to index");
+        long collectionId = collections.create(collection);
+        assertEquals(0, warcs.highestIdInCollection(collectionId));
+
+        Crawl crawl = new Crawl();
+        crawl.setName("collection warcs");
+        long crawlId = crawls.createInPlace(crawl, Collections.emptyList());
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            long warcId = warcs.create(crawlId, Warc.IMPORTED, Paths.get("/tmp/coll" + i + ".warc.gz"),
+                    "coll" + i + ".warc.gz", 0, null, null);
+            RecordStats stats = new RecordStats();
+            warcs.updateRecordStats(warcId, stats);
+            warcs.updateCollections(warcId, Collections.singletonMap(collectionId, stats));
+            ids.add(warcId);
+        }
+        long highWater = warcs.highestIdInCollection(collectionId);
+        assertEquals((long) ids.get(4), highWater);
+
+        List<Long> listed = new ArrayList<>();
+        try (ResultIterator<WarcToIndex> it = warcs.iterateToIndexByCollectionId(collectionId, ids.get(1), ids.get(3), 1000)) {
+            while (it.hasNext()) {
+                listed.add(it.next().getId());
+            }
+        }
+        assertEquals(ids.subList(1, 4), listed);
+
+        try (ResultIterator<WarcToIndex> it = warcs.iterateToIndexByCollectionId(collectionId, 0, highWater, 2)) {
+            it.next();
+            it.next();
+            assertFalse(it.hasNext());
+        }
+    }
 }
@@ -11,4 +11,10 @@ public class SeedTest {
         assertEquals("(org,example,", new Seed("http://example.org").getSurt());
         assertEquals("(org,example,", new Seed("https://example.org").getSurt());
     }
+
+    @Test
+    public void testTopPrivateDomain() {
+        assertEquals("example.org", new Seed("http://www.example.org/page").topPrivateDomain());
+        assertEquals("10.0.0.1", new Seed("http://10.0.0.1/").topPrivateDomain());
+    }
 }
@@ -0,0 +1,78 @@
+package bamboo.task;
+
+import bamboo.crawl.RecordStats;
+import bamboo.crawl.Warc;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CdxCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static class ReplaySink implements CdxCache.LineSink {
+        final List<String> surts = new ArrayList<>();
+        final List<String> lines = new ArrayList<>();
+
+        @Override
+        public void acceptAlias(Cdx.Alias alias) {
+            lines.add(alias.toCdxLine() + "\n");
+        }
+
+        @Override
+        public void acceptLine(String surt, char[] line, int lineLength, long recordLength, Date time) {
+            surts.add(surt);
+            lines.add(new String(line, 0, lineLength));
+        }
+    }
+
+    @Test
+    public void shouldReplayWhatWasIndexed() throws Exception {
+        Path path = RecordPipelineTest.writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        Warc warc = new Warc();
+        warc.setId(42);
+        warc.setPath(path);
+        warc.setSize(Files.size(path));
+        CdxCache cache = new CdxCache(tmp.newFolder("cache").toPath());
+        assertFalse(cache.has(warc));
+
+        RecordPipelineTest.CollectingSink collector = new RecordPipelineTest.CollectingSink();
+        RecordPipeline.StatsSink statsSink = new RecordPipeline.StatsSink();
+        try (CdxCache.Sink cacheSink = cache.newSink(warc)) {
+            RecordPipeline pipeline = new RecordPipeline(new TextExtractor(), Arrays.asList(collector, statsSink, cacheSink));
+            pipeline.run(path, "test.warc");
+            assertNull(pipeline.failure(cacheSink));
+        }
+        assertTrue(cache.has(warc));
+
+        ReplaySink replay = new ReplaySink();
+        RecordStats stats = cache.replay(warc, replay);
+        assertEquals(collector.records.size(), replay.lines.size());
+        for (int i = 0; i < collector.records.size(); i++) {
+            RecordPipeline.ParsedRecord record = collector.records.get(i);
+            assertEquals(record.surt, replay.surts.get(i));
+            assertEquals(record.capture.toCdxLine() + "\n", replay.lines.get(i));
+        }
+        assertEquals(statsSink.stats.getRecords(), stats.getRecords());
+        assertEquals(statsSink.stats.getRecordBytes(), stats.getRecordBytes());
+
+        // without a digest another file of the same size mustn't match
+        Path other = Files.copy(path, tmp.getRoot().toPath().resolve("other.warc"));
+        warc.setPath(other);
+        assertFalse(cache.has(warc));
+
+        warc.setPath(path);
+        warc.setSize(warc.getSize() + 1);
+        assertFalse(cache.has(warc));
+    }
+}
@@ -1,9 +1,24 @@
 package bamboo.task;
 
+import bamboo.crawl.CollectionWithFilters;
+import com.sun.net.httpserver.HttpServer;
 import org.archive.url.SURT;
 import org.junit.Test;
 
-import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
 
 public class CdxIndexerTest {
     @Test
@@ -20,4 +35,95 @@ public class CdxIndexerTest {
         assertEquals("(au,gov,nla,www,", CdxIndexer.toSchemalessSURT("http://www.nla.gov.au/"));
         assertEquals("(au,gov,nla,www,", CdxIndexer.toSchemalessSURT("https://www.nla.gov.au/"));
     }
+
+    /**
+     * A CDX server which records the bodies of the requests it received in full.
+     */
+    static class FakeCdxServer implements AutoCloseable {
+        final HttpServer server;
+        final List<String> transferEncodings = Collections.synchronizedList(new ArrayList<>());
+        final List<String> accepted = Collections.synchronizedList(new ArrayList<>());
+        volatile CountDownLatch requests = new CountDownLatch(1);
+
+        FakeCdxServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", exchange -> {
+                try {
+                    transferEncodings.add(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+                    ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    try (InputStream in = exchange.getRequestBody()) {
+                        byte[] buf = new byte[8192];
+                        for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                            body.write(buf, 0, n);
+                        }
+                    }
+                    accepted.add(body.toString("UTF-8"));
+                    byte[] response = "Added 1 records\n".getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, response.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(response);
+                    }
+                } finally {
+                    exchange.close();
+                    requests.countDown();
+                }
+            });
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/cdx";
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+
+    private static CdxIndexer.CdxBuffer streamingBuffer(String url) throws IOException {
+        CollectionWithFilters collection = new CollectionWithFilters("");
+        collection.setCdxUrl(url);
+        return new CdxIndexer.CdxBuffer(collection, null, true);
+    }
+
+    private static String cdxLine(int i) {
+        return "au,gov,nla)/" + i + " 20160101000000 http://nla.gov.au/" + i + " text/html 200 - - - 100 " + i + " test.warc.gz\n";
+    }
+
+    private static void append(CdxIndexer.CdxBuffer buffer, String line) {
+        buffer.append(100, line.toCharArray(), line.length(), new Date());
+    }
+
+    @Test
+    public void shouldStreamLinesInOrderAsChunkedPost() throws Exception {
+        try (FakeCdxServer server = new FakeCdxServer();
+             CdxIndexer.CdxBuffer buffer = streamingBuffer(server.url())) {
+            StringBuilder expected = new StringBuilder(" CDX N b a m s k r M S V g\n");
+            for (int i = 0; i < 2000; i++) {
+                append(buffer, cdxLine(i));
+                expected.append(cdxLine(i));
+            }
+            buffer.submit();
+
+            assertEquals(Collections.singletonList("chunked"), server.transferEncodings);
+            assertEquals(Collections.singletonList(expected.toString()), server.accepted);
+            assertEquals(2000, buffer.stats.getRecords());
+        }
+    }
+
+    @Test
+    public void shouldDropConnectionWhenClosedWithoutSubmitting() throws Exception {
+        try (FakeCdxServer server = new FakeCdxServer()) {
+            try (CdxIndexer.CdxBuffer buffer = streamingBuffer(server.url())) {
+                // enough to send a full chunk before giving up
+                for (int i = 0; i < 2000; i++) {
+                    append(buffer, cdxLine(i));
+                }
+            }
+            assertTrue(server.requests.await(10, TimeUnit.SECONDS));
+            assertEquals(1, server.transferEncodings.size());
+            assertEquals(Collections.emptyList(), server.accepted);
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package bamboo.task;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares formatting CDX lines with writeCdxLine into a reused buffer against the original String.join based
+ * toCdxLine. Run with -prof gc to see the allocation rate.
+ *
+ * Run main() with the test classpath after mvn test-compile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CdxLineBenchmark {
+    Cdx.Capture capture;
+    StringBuilder buffer = new StringBuilder(256);
+
+    @Setup
+    public void setup() {
+        capture = sampleCapture();
+    }
+
+    static Cdx.Capture sampleCapture() {
+        Cdx.Capture capture = new Cdx.Capture();
+        capture.date = "20160102030405";
+        capture.url = "http://www.example.org/some/path/to/a/page.html?query=string&with=parameters";
+        capture.contentType = "text/html";
+        capture.status = 200;
+        capture.digest = "3I42H3S6NNFQ2MSVX7XZKYAYSCX5QBYJ";
+        capture.location = null;
+        capture.contentLength = 12345;
+        capture.offset = 987654321L;
+        capture.filename = "NLA-AU-CRAWL-000-20160102030405-00001-example.warc.gz";
+        return capture;
+    }
+
+    @Benchmark
+    public String legacyToCdxLine() {
+        return legacyCdxLine(capture) + "\n";
+    }
+
+    @Benchmark
+    public void writeCdxLine(Blackhole bh) throws IOException {
+        buffer.setLength(0);
+        capture.writeCdxLine(buffer);
+        buffer.append('\n');
+        bh.consume(buffer);
+    }
+
+    /**
+     * The original implementation.
+     */
+    static String legacyCdxLine(Cdx.Capture c) {
+        return String.join(" ", "-", c.date, c.url, legacyOptional(c.contentType),
+                c.status == -1 ? "-" : Integer.toString(c.status), legacyOptional(c.digest),
+                legacyOptional(c.location), "-", Long.toString(c.contentLength),
+                Long.toString(c.offset), c.filename);
+    }
+
+    private static String legacyOptional(String s) {
+        if (s == null) {
+            return "-";
+        }
+        return s.replace(" ", "%20").replace("\n", "%0A").replace("\r", "%0D");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CdxLineBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
@@ -58,4 +59,22 @@ public class CdxTest {
         assertFalse(new Cdx.Alias("http://pandora.nla.gov.au/pan/23867/20041026-0000/www.agric.nsw.gov.au/reader/webFeedbackee9c.html", "http://Course").isSane());
         assertFalse(new Cdx.Alias("http://pandora.nla.gov.au/pan/23867/20041026-0000/www.dpie.gov.au/content/levies77cd.html", "http://Levies&detail=guidelines&ObjectID=659297A7-A7B0-4D00-92F4DB58747BA81A").isSane());
     }
+
+    @Test
+    public void writeCdxLineShouldMatchOriginalFormat() throws IOException {
+        Cdx.Capture capture = CdxLineBenchmark.sampleCapture();
+        assertEquals(CdxLineBenchmark.legacyCdxLine(capture), capture.toCdxLine());
+
+        capture.contentType = "text/html; charset=utf-8";
+        capture.location = "http://example.org/a b\r\nc";
+        capture.status = -1;
+        capture.digest = null;
+        capture.contentLength = 0;
+        capture.offset = -1;
+        assertEquals(CdxLineBenchmark.legacyCdxLine(capture), capture.toCdxLine());
+
+        StringWriter writer = new StringWriter();
+        capture.writeCdxLine(writer);
+        assertEquals(CdxLineBenchmark.legacyCdxLine(capture), writer.toString());
+    }
 }
@@ -0,0 +1,108 @@
+package bamboo.task;
+
+import org.archive.io.ArchiveRecordHeader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ExtractionPoolTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Gets stuck on html pages ignoring interrupts, like a parser in an infinite loop.
+     */
+    static class HangingExtractor extends TextExtractor {
+        @Override
+        public Document extract(ArchiveRecordHeader warcHeader, HttpHeader httpHeader, InputStream body, TextSink text) throws TextExtractionException {
+            if (httpHeader != null && "text/html".equals(httpHeader.contentType)) {
+                long until = System.currentTimeMillis() + 5000;
+                while (System.currentTimeMillis() < until) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        // ignored
+                    }
+                }
+            }
+            return super.extract(warcHeader, httpHeader, body, text);
+        }
+    }
+
+    @Test
+    public void shouldAbandonDocumentsPastTheDeadline() throws Exception {
+        Path warc = RecordPipelineTest.writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        ExtractionPool pool = new ExtractionPool(1, 1000);
+
+        RecordPipelineTest.CollectingSink sink = new RecordPipelineTest.CollectingSink();
+        RecordPipeline pipeline = new RecordPipeline(new HangingExtractor(), Arrays.asList(sink));
+        pipeline.setExtractionPool(pool);
+        pipeline.run(warc, "test.warc");
+
+        // the html page timed out but the pipeline carried on
+        assertNull(pipeline.failure(sink));
+        assertEquals(2, sink.records.size());
+        assertNull(sink.records.get(0).document());
+        assertEquals(1, pool.getTimedOut());
+        assertEquals(1, pool.getStuckWorkers());
+
+        // and a replacement worker picks up the next file
+        RecordPipelineTest.CollectingSink sink2 = new RecordPipelineTest.CollectingSink();
+        RecordPipeline pipeline2 = new RecordPipeline(new TextExtractor(), Arrays.asList(sink2));
+        pipeline2.setExtractionPool(pool);
+        pipeline2.run(warc, "test.warc");
+        assertEquals("Hello", sink2.records.get(0).document().getTitle());
+    }
+
+    @Test
+    public void shouldFailFastOnceTooManyWorkersAreStuck() throws Exception {
+        Path warc = RecordPipelineTest.writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        ExtractionPool pool = new ExtractionPool(1, 200);
+
+        // the first stuck worker is replaced, the second is not
+        for (int i = 0; i < 2; i++) {
+            RecordPipeline pipeline = new RecordPipeline(new HangingExtractor(), Arrays.asList(new RecordPipelineTest.CollectingSink()));
+            pipeline.setExtractionPool(pool);
+            pipeline.run(warc, "test.warc");
+        }
+        assertEquals(2, pool.getStuckWorkers());
+
+        // so documents are failed without waiting for a worker
+        RecordPipelineTest.CollectingSink sink = new RecordPipelineTest.CollectingSink();
+        RecordPipeline pipeline = new RecordPipeline(new TextExtractor(), Arrays.asList(sink));
+        pipeline.setExtractionPool(pool);
+        long start = System.currentTimeMillis();
+        pipeline.run(warc, "test.warc");
+        assertTrue(System.currentTimeMillis() - start < 200);
+        assertEquals(2, sink.records.size());
+        assertNull(sink.records.get(0).document());
+        assertEquals(2, pool.getTimedOut());
+    }
+
+    @Test
+    public void shouldDeliverRecordsInFileOrder() throws Exception {
+        Path warc = tmp.getRoot().toPath().resolve("test.warc.gz");
+        WarcSplitterTest.writeCompressedWarc(warc, 40);
+
+        RecordPipelineTest.CollectingSink sink = new RecordPipelineTest.CollectingSink();
+        RecordPipeline pipeline = new RecordPipeline(new TextExtractor(), Arrays.asList(sink));
+        pipeline.setExtractionPool(new ExtractionPool(3, 10000));
+        pipeline.run(warc, "test.warc.gz");
+
+        assertTrue(sink.finished);
+        assertEquals(40, sink.records.size());
+        for (int i = 0; i < 40; i++) {
+            RecordPipeline.ParsedRecord record = sink.records.get(i);
+            assertEquals("http://www.example.org/page" + i, record.capture.url);
+            assertEquals("Page " + i, record.document().getText().trim());
+            assertEquals(record.surt, record.document().getSurt());
+        }
+    }
+}
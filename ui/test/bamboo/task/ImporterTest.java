@@ -30,8 +30,10 @@ public class ImporterTest {
 		folder.create();
 		TestConfig config = new TestConfig();
 		config.setHeritrixJobs(folder.getRoot().toPath());
-		DbPool dbPool = new DbPool(config);
-		dbPool.migrate();
+		// closed so its in-memory database doesn't outlive this test and leak rows into the next
+		try (DbPool dbPool = new DbPool(config)) {
+			dbPool.migrate();
+		}
 
 		Crawls crawls = new Crawls(fixtures.dao.crawls(), new Serieses(fixtures.dao.serieses()), new Warcs(fixtures.dao.warcs()));
 
@@ -0,0 +1,105 @@
+package bamboo.task;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class IndexableFilterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void shouldSkipTypesThatCantBeExtracted() throws Exception {
+        Path warc = RecordPipelineTest.writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        IndexableFilter filter = new IndexableFilter(new TextExtractor(), true, Collections.emptyList());
+        RecordPipelineTest.CollectingSink sink = new RecordPipelineTest.CollectingSink() {
+            @Override
+            public boolean wantsDocument(RecordPipeline.ParsedRecord record) {
+                return filter.accept(record);
+            }
+        };
+        new RecordPipeline(new TextExtractor(), Arrays.asList(sink)).run(warc, "test.warc");
+
+        assertNotNull(sink.records.get(0).document());
+        assertNull(sink.records.get(1).document());
+        assertEquals(1, filter.getPassed());
+        assertEquals(1, filter.getSkippedTotal());
+        assertEquals("image/png", filter.getSkipped().get(0).getKey());
+        assertEquals(1L, (long) filter.getSkipped().get(0).getValue());
+    }
+
+    @Test
+    public void shouldSkipErrorsAndConfiguredTypes() throws Exception {
+        IndexableFilter filter = new IndexableFilter(new TextExtractor(), true, Collections.singletonList("application/pdf"));
+        assertTrue(filter.accept(record("text/html", 200)));
+        assertFalse(filter.accept(record("text/html", 404)));
+        assertFalse(filter.accept(record("text/html", 301)));
+        assertFalse(filter.accept(record("application/pdf", 200)));
+        assertEquals(3, filter.getSkippedTotal());
+        assertEquals("text/html", filter.getSkipped().get(0).getKey());
+
+        IndexableFilter disabled = new IndexableFilter(new TextExtractor(), false, Collections.emptyList());
+        assertTrue(disabled.accept(record("video/mp4", 404)));
+        assertEquals(0, disabled.getSkippedTotal());
+    }
+
+    @Test
+    public void shouldCleanContentTypeOfResourceRecords() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeResource(out, "http://www.example.org/page", "text/html; charset=utf-8", RecordPipelineTest.HTML);
+        writeResource(out, "http://www.example.org/image", "image/png; name=x.png", "not really a png");
+        writeResource(out, "http://www.example.org/doc", "application/pdf; version=1.4", "not really a pdf");
+        Path warc = Files.write(tmp.getRoot().toPath().resolve("resources.warc"), out.toByteArray());
+
+        IndexableFilter filter = new IndexableFilter(new TextExtractor(), true, Collections.singletonList("application/pdf"));
+        RecordPipelineTest.CollectingSink sink = new RecordPipelineTest.CollectingSink() {
+            @Override
+            public boolean wantsDocument(RecordPipeline.ParsedRecord record) {
+                return filter.accept(record);
+            }
+        };
+        new RecordPipeline(new TextExtractor(), Arrays.asList(sink)).run(warc, "resources.warc");
+
+        assertEquals(3, sink.records.size());
+        assertNotNull(sink.records.get(0).document());
+        assertNull(sink.records.get(1).document());
+        assertNull(sink.records.get(2).document());
+        assertEquals(1, filter.getPassed());
+        assertEquals(2, filter.getSkippedTotal());
+        assertTrue(filter.getSkipped().stream().anyMatch(e -> e.getKey().equals("image/png")));
+        assertTrue(filter.getSkipped().stream().anyMatch(e -> e.getKey().equals("application/pdf")));
+    }
+
+    private static void writeResource(ByteArrayOutputStream out, String url, String contentType, String body) throws IOException {
+        byte[] block = body.getBytes(StandardCharsets.UTF_8);
+        String header = "WARC/1.0\r\n" +
+                "WARC-Type: resource\r\n" +
+                "WARC-Target-URI: " + url + "\r\n" +
+                "WARC-Date: 2016-01-02T03:04:05Z\r\n" +
+                "WARC-Record-ID: <urn:uuid:" + UUID.randomUUID() + ">\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                "Content-Length: " + block.length + "\r\n\r\n";
+        out.write(header.getBytes(StandardCharsets.UTF_8));
+        out.write(block);
+        out.write("\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static RecordPipeline.ParsedRecord record(String contentType, int status) {
+        Cdx.Capture capture = new Cdx.Capture();
+        capture.contentType = contentType;
+        capture.status = status;
+        return new RecordPipeline.ParsedRecord(null, null, capture, "(org,example,)/", null);
+    }
+}
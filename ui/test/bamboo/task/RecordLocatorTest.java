@@ -0,0 +1,79 @@
+package bamboo.task;
+
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static org.junit.Assert.*;
+
+public class RecordLocatorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void shouldFindEndOfEachGzipMember() throws Exception {
+        Path path = tmp.getRoot().toPath().resolve("test.warc.gz");
+        List<Long> offsets = WarcSplitterTest.writeCompressedWarc(path, 5);
+        offsets.add(Files.size(path));
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            for (int i = 0; i + 1 < offsets.size(); i++) {
+                long length = RecordLocator.recordLength(channel, offsets.get(i), true);
+                assertEquals(offsets.get(i + 1) - offsets.get(i), length);
+            }
+
+            InputStream in = new GZIPInputStream(RecordLocator.open(channel, offsets.get(2), offsets.get(3) - offsets.get(2)));
+            String record = read(in);
+            assertTrue(record.startsWith("WARC/1.0"));
+            assertTrue(record.contains("Page 2"));
+            assertFalse(record.contains("Page 3"));
+
+            try {
+                RecordLocator.recordLength(channel, offsets.get(1) + 1, true);
+                fail("expected no record");
+            } catch (IOException e) {
+                // not a member boundary
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadLengthOfUncompressedRecords() throws Exception {
+        Path path = RecordPipelineTest.writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        List<Long> offsets = new ArrayList<>();
+        try (ArchiveReader reader = WarcUtils.open(path)) {
+            for (ArchiveRecord record : reader) {
+                offsets.add(record.getHeader().getOffset());
+            }
+        }
+        offsets.add(Files.size(path));
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            for (int i = 0; i + 1 < offsets.size(); i++) {
+                assertEquals(offsets.get(i + 1) - offsets.get(i), RecordLocator.recordLength(channel, offsets.get(i), false));
+            }
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[100];
+        for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+            out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
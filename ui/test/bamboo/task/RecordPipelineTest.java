@@ -0,0 +1,207 @@
+package bamboo.task;
+
+import org.archive.io.ArchiveRecordHeader;
+import org.archive.util.Base32;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class RecordPipelineTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static final String HTML = "<html><head><title>Hello</title></head><body><p>Hello world</p></body></html>";
+
+    static Path writeTestWarc(Path path) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeResponse(out, "http://www.example.org/", "text/html", HTML);
+        writeResponse(out, "http://www.example.org/image.png", "image/png", "not really a png");
+        Files.write(path, out.toByteArray());
+        return path;
+    }
+
+    private static void writeResponse(ByteArrayOutputStream out, String url, String contentType, String body) throws IOException {
+        byte[] block = ("HTTP/1.1 200 OK\r\nContent-Type: " + contentType + "\r\n\r\n" + body).getBytes(StandardCharsets.UTF_8);
+        String header = "WARC/1.0\r\n" +
+                "WARC-Type: response\r\n" +
+                "WARC-Target-URI: " + url + "\r\n" +
+                "WARC-Date: 2016-01-02T03:04:05Z\r\n" +
+                "WARC-Record-ID: <urn:uuid:" + UUID.randomUUID() + ">\r\n" +
+                "Content-Type: application/http; msgtype=response\r\n" +
+                "Content-Length: " + block.length + "\r\n\r\n";
+        out.write(header.getBytes(StandardCharsets.UTF_8));
+        out.write(block);
+        out.write("\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    static class CollectingSink implements RecordPipeline.Sink {
+        final List<RecordPipeline.ParsedRecord> records = new ArrayList<>();
+        boolean finished;
+
+        @Override
+        public boolean wantsDocument(RecordPipeline.ParsedRecord record) {
+            return true;
+        }
+
+        @Override
+        public boolean wantsDigest() {
+            return true;
+        }
+
+        @Override
+        public void accept(RecordPipeline.ParsedRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void finish() {
+            finished = true;
+        }
+    }
+
+    @Test
+    public void shouldShareDigestAndDocumentBetweenSinks() throws Exception {
+        Path warc = writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        CollectingSink sink = new CollectingSink();
+        RecordPipeline.StatsSink stats = new RecordPipeline.StatsSink();
+        RecordPipeline pipeline = new RecordPipeline(new TextExtractor(), Arrays.asList(sink, stats));
+        pipeline.run(warc, "test.warc");
+
+        assertNull(pipeline.failure(sink));
+        assertTrue(sink.finished);
+        assertEquals(2, sink.records.size());
+        assertEquals(2, stats.stats.getRecords());
+
+        RecordPipeline.ParsedRecord html = sink.records.get(0);
+        assertEquals("(org,example,www,", html.surt);
+        assertEquals("text/html", html.capture.contentType);
+        assertEquals(sha1(HTML), html.capture.digest);
+        assertNotNull(html.document());
+        assertTrue(html.document().getText().contains("Hello world"));
+
+        assertEquals(sha1("not really a png"), sink.records.get(1).capture.digest);
+    }
+
+    @Test
+    public void shouldDigestBytesSkippedByTheExtractor() throws Exception {
+        Path warc = writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        TextExtractor skipping = new TextExtractor() {
+            @Override
+            public Document extract(ArchiveRecordHeader warcHeader, HttpHeader httpHeader, InputStream body, TextSink text) throws TextExtractionException {
+                try {
+                    body.skip(5);
+                } catch (IOException e) {
+                    throw new TextExtractionException(e);
+                }
+                return super.extract(warcHeader, httpHeader, body, text);
+            }
+        };
+        CollectingSink sink = new CollectingSink();
+        RecordPipeline pipeline = new RecordPipeline(skipping, Arrays.asList(sink));
+        pipeline.run(warc, "test.warc");
+
+        assertEquals(sha1(HTML), sink.records.get(0).capture.digest);
+        assertEquals(sha1("not really a png"), sink.records.get(1).capture.digest);
+    }
+
+    @Test
+    public void failingSinkShouldNotAffectOthers() throws Exception {
+        Path warc = writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        RecordPipeline.Sink broken = record -> {
+            throw new IllegalStateException("broken sink");
+        };
+        CollectingSink sink = new CollectingSink();
+        RecordPipeline pipeline = new RecordPipeline(new TextExtractor(), Arrays.asList(broken, sink));
+        pipeline.run(warc, "test.warc");
+
+        assertTrue(pipeline.failure(broken) instanceof IllegalStateException);
+        assertNull(pipeline.failure(sink));
+        assertEquals(2, sink.records.size());
+    }
+
+    @Test
+    public void shouldRecordAndReuseCalculatedDigests() throws Exception {
+        Path warc = writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        DigestCache.WarcDigests digests = new DigestCache.WarcDigests(new HashMap<>());
+
+        CollectingSink sink = new CollectingSink();
+        RecordPipeline pipeline = new RecordPipeline(new TextExtractor(), Arrays.asList(sink));
+        pipeline.setKnownDigests(digests);
+        pipeline.run(warc, "test.warc");
+        assertEquals(2, digests.size());
+        assertTrue(digests.isDirty());
+        long offset = sink.records.get(0).capture.offset;
+        assertEquals(sha1(HTML), digests.get(offset));
+
+        // a known digest is trusted rather than recalculated
+        digests.put(offset, "KNOWNDIGEST");
+        CollectingSink second = new CollectingSink();
+        pipeline = new RecordPipeline(new TextExtractor(), Arrays.asList(second));
+        pipeline.setKnownDigests(digests);
+        pipeline.run(warc, "test.warc");
+        assertEquals("KNOWNDIGEST", second.records.get(0).capture.digest);
+    }
+
+    @Test
+    public void shouldOnlyCountTextWhenNoSinkReadsIt() throws Exception {
+        Path warc = writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        CollectingSink sink = new CollectingSink() {
+            @Override
+            public boolean wantsText() {
+                return false;
+            }
+        };
+        RecordPipeline pipeline = new RecordPipeline(new TextExtractor(), Arrays.asList(sink));
+        pipeline.run(warc, "test.warc");
+
+        RecordPipeline.ParsedRecord html = sink.records.get(0);
+        assertEquals("Hello", html.document().getTitle());
+        assertNull(html.document().getText());
+        assertEquals("Hello world\n".length(), html.textLength());
+        assertNotNull(SolrIndexer.makeDoc(html.document(), html.textLength()));
+    }
+
+    @Test
+    public void shouldStreamTextToSinkWriter() throws Exception {
+        Path warc = writeTestWarc(tmp.getRoot().toPath().resolve("test.warc"));
+        List<StringWriter> written = new ArrayList<>();
+        CollectingSink sink = new CollectingSink() {
+            @Override
+            public Writer textWriter(RecordPipeline.ParsedRecord record) {
+                StringWriter writer = new StringWriter();
+                written.add(writer);
+                return writer;
+            }
+        };
+        RecordPipeline pipeline = new RecordPipeline(new TextExtractor(), Arrays.asList(sink));
+        pipeline.run(warc, "test.warc");
+
+        assertEquals("Hello world\n", written.get(0).toString());
+        RecordPipeline.ParsedRecord html = sink.records.get(0);
+        assertNull(html.document().getText());
+        assertEquals("Hello world\n".length(), html.textLength());
+    }
+
+    private static String sha1(String s) throws NoSuchAlgorithmException {
+        return Base32.encode(MessageDigest.getInstance("SHA1").digest(s.getBytes(StandardCharsets.UTF_8)));
+    }
+}
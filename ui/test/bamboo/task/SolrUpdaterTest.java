@@ -0,0 +1,114 @@
+package bamboo.task;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SolrUpdaterTest {
+
+    /**
+     * Records the size of each update and fails the first few with the given exception.
+     */
+    static class FakeSolr extends SolrServer {
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+        int failuresLeft;
+        RuntimeException failure;
+
+        @Override
+        public synchronized NamedList<Object> request(SolrRequest request) throws SolrServerException {
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                if (failure != null) {
+                    throw failure;
+                }
+                throw new SolrServerException("connection refused");
+            }
+            batches.add(((UpdateRequest) request).getDocuments().size());
+            return new NamedList<>();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private static SolrInputDocument doc(int i) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", "doc" + i);
+        return doc;
+    }
+
+    @Test
+    public void shouldSendFullBatchesThenRemainderOnFlush() throws Exception {
+        SolrUpdater updater = new SolrUpdater(2, 10, 60000, 0, 1);
+        FakeSolr solr = new FakeSolr();
+        SolrUpdater.Batcher batcher = updater.newBatcher(solr);
+        for (int i = 0; i < 25; i++) {
+            batcher.add(doc(i));
+        }
+        batcher.flush();
+        Collections.sort(solr.batches);
+        assertEquals(Arrays.asList(5, 10, 10), solr.batches);
+        assertEquals(25, updater.getDocumentsSent());
+        assertEquals(0, updater.getInFlight());
+    }
+
+    @Test
+    public void shouldSendOverdueBatchesWithoutWaitingForTheNextDocument() throws Exception {
+        try (SolrUpdater updater = new SolrUpdater(1, 10, 50, 0, 1)) {
+            FakeSolr solr = new FakeSolr();
+            SolrUpdater.Batcher batcher = updater.newBatcher(solr);
+            batcher.add(doc(1));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (updater.getDocumentsSent() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Collections.singletonList(1), solr.batches);
+            batcher.flush();
+            assertEquals(1, updater.getDocumentsSent());
+        }
+    }
+
+    @Test
+    public void shouldRetryTransientFailures() throws Exception {
+        SolrUpdater updater = new SolrUpdater(1, 10, 60000, 3, 1);
+        FakeSolr solr = new FakeSolr();
+        solr.failuresLeft = 2;
+        SolrUpdater.Batcher batcher = updater.newBatcher(solr);
+        batcher.add(doc(1));
+        batcher.flush();
+        assertEquals(Collections.singletonList(1), solr.batches);
+        assertEquals(2, updater.getRetries());
+    }
+
+    @Test
+    public void shouldNotRetryRejectedDocuments() throws Exception {
+        SolrUpdater updater = new SolrUpdater(1, 10, 60000, 3, 1);
+        FakeSolr solr = new FakeSolr();
+        solr.failuresLeft = 1;
+        solr.failure = new SolrException(SolrException.ErrorCode.BAD_REQUEST, "unknown field");
+        SolrUpdater.Batcher batcher = updater.newBatcher(solr);
+        batcher.add(doc(1));
+        try {
+            batcher.flush();
+            fail("expected failure");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof SolrException);
+        }
+        assertEquals(0, updater.getRetries());
+        assertEquals(1, updater.getFailures());
+    }
+}
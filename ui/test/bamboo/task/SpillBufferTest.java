@@ -0,0 +1,76 @@
+package bamboo.task;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class SpillBufferTest {
+
+    @Test
+    public void shouldSpillOnceBudgetIsExhausted() throws Exception {
+        SpillBuffer.Pool pool = new SpillBuffer.Pool(8, 4);
+        try (SpillBuffer small = new SpillBuffer(pool);
+             SpillBuffer large = new SpillBuffer(pool)) {
+            small.write("hello".getBytes(StandardCharsets.UTF_8));
+            assertFalse(small.isSpilled());
+            assertEquals(8, pool.getUsed());
+
+            // the first buffer holds the whole budget so the second must go to disk
+            large.write('x');
+            large.write(" marks the spot".getBytes(StandardCharsets.UTF_8));
+            assertTrue(large.isSpilled());
+            assertEquals(1, pool.getSpills());
+
+            assertEquals("hello", contents(small));
+            assertEquals("x marks the spot", contents(large));
+            assertEquals(16, large.size());
+        }
+        assertEquals(0, pool.getUsed());
+    }
+
+    @Test
+    public void shouldMoveMemoryContentsToDiskWhenSpilling() throws Exception {
+        SpillBuffer.Pool pool = new SpillBuffer.Pool(8, 4);
+        try (SpillBuffer buffer = new SpillBuffer(pool)) {
+            buffer.write("abcdefgh".getBytes(StandardCharsets.UTF_8));
+            assertFalse(buffer.isSpilled());
+            buffer.write("ijk".getBytes(StandardCharsets.UTF_8));
+            assertTrue(buffer.isSpilled());
+            assertEquals(0, pool.getUsed());
+            assertEquals("abcdefghijk", contents(buffer));
+        }
+    }
+
+    @Test
+    public void shouldReadBackFromMemoryOrDisk() throws Exception {
+        SpillBuffer.Pool pool = new SpillBuffer.Pool(8, 4);
+        try (SpillBuffer buffer = new SpillBuffer(pool)) {
+            buffer.write("abcdef".getBytes(StandardCharsets.UTF_8));
+            assertEquals("abcdef", read(buffer));
+            buffer.write("ghijk".getBytes(StandardCharsets.UTF_8));
+            assertTrue(buffer.isSpilled());
+            assertEquals("abcdefghijk", read(buffer));
+        }
+    }
+
+    private static String read(SpillBuffer buffer) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = buffer.newInputStream()) {
+            byte[] buf = new byte[3];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                out.write(buf, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String contents(SpillBuffer buffer) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
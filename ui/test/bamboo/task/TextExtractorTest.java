@@ -1,12 +1,21 @@
 package bamboo.task;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.BufferOverflowException;
 
 import com.lowagie.text.pdf.PdfReader;
+import de.l3s.boilerpipe.document.TextDocument;
+import de.l3s.boilerpipe.extractors.DefaultExtractor;
+import de.l3s.boilerpipe.sax.BoilerpipeSAXInput;
 import org.junit.Test;
+import org.xml.sax.InputSource;
 
 public class TextExtractorTest {
 
@@ -40,4 +49,72 @@ public class TextExtractorTest {
                 "This is an example." + System.lineSeparator(), doc.getText());
         assertEquals("Metadata title", doc.getTitle());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void parsersShouldBeReusedBetweenDocuments() throws Exception {
+        ParserContext parsers = ParserContext.shared();
+        for (int i = 0; i < 3; i++) {
+            Document doc = new Document();
+            try (InputStream stream = getClass().getResourceAsStream("example.odt")) {
+                TextExtractor.extractTika(stream, doc);
+            }
+            assertEquals("Metadata title", doc.getTitle());
+
+            doc = new Document();
+            try (InputStream stream = getClass().getResourceAsStream("example.pdf")) {
+                TextExtractor.extractPdfBox(stream, doc);
+            }
+            assertEquals("The title field in the metadata", doc.getTitle());
+        }
+        assertEquals(1, parsers.getTikaStats().getInstances());
+        assertTrue(parsers.getTikaStats().getDocuments() >= 3);
+        assertTrue(parsers.getPdfBoxStats().getDocuments() > parsers.getPdfBoxStats().getInstances());
+    }
+
+    @Test
+    public void sharedHtmlParserShouldMatchBoilerpipe() throws Exception {
+        String html = "<html><head><title>Hello</title></head><body><h1>Heading</h1><p>Some text</p></body></html>";
+        for (int i = 0; i < 2; i++) {
+            TextDocument expected = new BoilerpipeSAXInput(new InputSource(new StringReader(html))).getTextDocument();
+            TextDocument actual = ParserContext.shared().parseHtml(new InputSource(new StringReader(html)));
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getText(true, true), actual.getText(true, true));
+        }
+    }
+
+    @Test
+    public void textSinkShouldTruncateAndDropPadding() throws Exception {
+        TextSink sink = TextSink.buffer(8);
+        sink.write("ab\uFFFFcd");
+        sink.write(new char[] {'\uFFFF', 'e', 'f', '\uFFFF'}, 0, 4);
+        sink.write("ghij");
+        assertEquals("abcdefgh", sink.toString());
+        assertTrue(sink.isTruncated());
+        try {
+            sink.write('k');
+            fail("expected overflow");
+        } catch (BufferOverflowException e) {
+            // parsers stop here
+        }
+
+        TextSink counter = TextSink.counter(100);
+        counter.write("x\uFFFFy");
+        assertEquals(2, counter.length());
+        assertFalse(counter.isBuffered());
+    }
+
+    @Test
+    public void writeBlocksShouldMatchBoilerpipeText() throws Exception {
+        String html = "<html><head><title>Hi</title></head><body><div>menu</div><p>Some longer paragraph of text to keep. " +
+                "It has a few sentences so the extractor treats it as content.</p></body></html>";
+        TextDocument doc = new BoilerpipeSAXInput(new InputSource(new StringReader(html))).getTextDocument();
+        TextSink all = TextSink.buffer(TextExtractor.maxDocSize);
+        TextExtractor.writeBlocks(doc, true, all);
+        assertEquals(doc.getText(true, true), all.toString());
+
+        DefaultExtractor.INSTANCE.process(doc);
+        TextSink content = TextSink.buffer(TextExtractor.maxDocSize);
+        TextExtractor.writeBlocks(doc, false, content);
+        assertEquals(doc.getContent(), content.toString());
+    }
+}
@@ -0,0 +1,97 @@
+package bamboo.task;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class WarcSplitterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Writes a warc with each record compressed as a separate gzip member and returns the offset of each record.
+     */
+    static List<Long> writeCompressedWarc(Path path, int records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i < records; i++) {
+            offsets.add((long) out.size());
+            byte[] block = ("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n<html><body>Page " + i + "</body></html>")
+                    .getBytes(StandardCharsets.UTF_8);
+            String header = "WARC/1.0\r\n" +
+                    "WARC-Type: response\r\n" +
+                    "WARC-Target-URI: http://www.example.org/page" + i + "\r\n" +
+                    "WARC-Date: 2016-01-02T03:04:05Z\r\n" +
+                    "WARC-Record-ID: <urn:uuid:" + UUID.randomUUID() + ">\r\n" +
+                    "Content-Type: application/http; msgtype=response\r\n" +
+                    "Content-Length: " + block.length + "\r\n\r\n";
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(header.getBytes(StandardCharsets.UTF_8));
+            gzip.write(block);
+            gzip.write("\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            gzip.finish();
+        }
+        Files.write(path, out.toByteArray());
+        return offsets;
+    }
+
+    @Test
+    public void shouldSplitAtRecordBoundaries() throws Exception {
+        Path path = tmp.getRoot().toPath().resolve("test.warc.gz");
+        List<Long> offsets = writeCompressedWarc(path, 20);
+
+        List<Long> starts = WarcSplitter.split(path, 4);
+        assertEquals(4, starts.size());
+        assertEquals(0L, (long) starts.get(0));
+        for (long start : starts) {
+            assertTrue(offsets.contains(start));
+        }
+    }
+
+    @Test
+    public void shouldProduceSameCdxAsSerialRun() throws Exception {
+        Path path = tmp.getRoot().toPath().resolve("test.warc.gz");
+        writeCompressedWarc(path, 50);
+
+        RecordPipelineTest.CollectingSink serial = new RecordPipelineTest.CollectingSink();
+        new RecordPipeline(new TextExtractor(), Arrays.asList(serial)).run(path, "test.warc.gz");
+
+        List<Long> starts = WarcSplitter.split(path, 3);
+        assertEquals(3, starts.size());
+        SpillBuffer.Pool pool = new SpillBuffer.Pool(1024 * 1024);
+        List<CdxSpool> spools = new ArrayList<>();
+        List<RecordPipeline> pipelines = new ArrayList<>();
+        for (int i = 0; i < starts.size(); i++) {
+            CdxSpool spool = new CdxSpool(pool);
+            spools.add(spool);
+            pipelines.add(new RecordPipeline(new TextExtractor(), Arrays.asList(spool)));
+        }
+        new WarcSplitter(1, 3).run(path, "test.warc.gz", starts, pipelines);
+
+        CdxCacheTest.ReplaySink replay = new CdxCacheTest.ReplaySink();
+        long records = 0;
+        for (CdxSpool spool : spools) {
+            records += spool.replay(replay).getRecords();
+            spool.close();
+        }
+        assertEquals(50, records);
+        assertEquals(serial.records.size(), replay.lines.size());
+        for (int i = 0; i < serial.records.size(); i++) {
+            assertEquals(serial.records.get(i).capture.toCdxLine() + "\n", replay.lines.get(i));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package bamboo.task;
+
+import bamboo.core.Fixtures;
+import bamboo.crawl.Crawl;
+import bamboo.crawl.Crawls;
+import bamboo.crawl.Serieses;
+import bamboo.crawl.Warc;
+import bamboo.crawl.Warcs;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WarcStateFeederTest {
+
+    @ClassRule
+    public static Fixtures fixtures = new Fixtures();
+
+    @Test
+    public void shouldNotResubmitWarcsAwaitingWritesOrFailed() throws Exception {
+        Warcs warcs = new Warcs(fixtures.dao.warcs());
+        Crawls crawls = new Crawls(fixtures.dao.crawls(), new Serieses(fixtures.dao.serieses()), warcs);
+        Crawl crawl = new Crawl();
+        crawl.setName("feeder");
+        long crawlId = crawls.createInPlace(crawl, java.util.Collections.emptyList());
+        long[] ids = new long[3];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = warcs.create(crawlId, Warc.IMPORTED, Paths.get("/tmp/feeder" + i + ".warc.gz"),
+                    "feeder" + i + ".warc.gz", 0, null, null);
+        }
+        long broken = ids[2];
+
+        // results are only written when the feeder reports the workers idle, like a batcher waiting for more
+        Map<Long, AtomicInteger> runs = new ConcurrentHashMap<>();
+        List<Long> unwritten = new ArrayList<>();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        WarcStateFeeder.AsyncWarcJob job = warc -> {
+            runs.computeIfAbsent(warc.getId(), k -> new AtomicInteger()).incrementAndGet();
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            synchronized (pending) {
+                unwritten.add(warc.getId());
+                pending.add(written);
+            }
+            return written;
+        };
+        Runnable flush = () -> {
+            synchronized (pending) {
+                for (int i = 0; i < pending.size(); i++) {
+                    long id = unwritten.get(i);
+                    if (id == broken) {
+                        pending.get(i).completeExceptionally(new IllegalStateException("expected"));
+                    } else {
+                        warcs.updateState(id, Warc.CDX_INDEXED);
+                        pending.get(i).complete(null);
+                    }
+                }
+                unwritten.clear();
+                pending.clear();
+            }
+        };
+
+        try (WorkerPool pool = new WorkerPool("test", 2, 4)) {
+            new WarcStateFeeder(warcs, Warc.IMPORTED, pool, job, flush).run();
+        }
+
+        for (long id : ids) {
+            assertEquals(1, runs.get(id).get());
+        }
+        assertEquals(Warc.CDX_INDEXED, warcs.get(ids[0]).getStateId());
+        assertEquals(Warc.IMPORTED, warcs.get(broken).getStateId());
+    }
+}
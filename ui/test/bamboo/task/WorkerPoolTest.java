@@ -0,0 +1,89 @@
+package bamboo.task;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WorkerPoolTest {
+
+    @Test
+    public void shouldNotQueueDuplicateKeys() throws Exception {
+        try (WorkerPool pool = new WorkerPool("test", 2, 4)) {
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger runs = new AtomicInteger();
+            Runnable job = () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                runs.incrementAndGet();
+            };
+
+            assertTrue(pool.submit(1, job));
+            assertFalse(pool.submit(1, job));
+            assertTrue(pool.submit(2, job));
+            assertTrue(pool.isPending(1));
+
+            release.countDown();
+            pool.awaitIdle();
+
+            assertEquals(2, runs.get());
+            assertFalse(pool.isPending(1));
+            assertTrue(pool.submit(1, job));
+            pool.awaitIdle();
+            assertEquals(3, runs.get());
+        }
+    }
+
+    @Test
+    public void failingJobShouldNotStopWorker() throws Exception {
+        try (WorkerPool pool = new WorkerPool("test", 1, 1)) {
+            AtomicInteger runs = new AtomicInteger();
+            pool.submit(1, () -> {
+                throw new IllegalStateException("expected");
+            });
+            pool.submit(2, runs::incrementAndGet);
+            pool.awaitIdle();
+
+            assertEquals(1, runs.get());
+            WorkerPool.Worker worker = pool.getWorkers().get(0);
+            assertEquals(1, worker.getJobsCompleted());
+            assertEquals(1, worker.getJobsFailed());
+            assertNull(worker.getCurrentKey());
+        }
+    }
+
+    @Test
+    public void cancelShouldDropQueuedJobsAndInterruptRunningOnes() throws Exception {
+        try (WorkerPool pool = new WorkerPool("test", 1, 4)) {
+            CountDownLatch started = new CountDownLatch(1);
+            AtomicInteger interrupted = new AtomicInteger();
+            AtomicInteger runs = new AtomicInteger();
+            pool.submit(1, () -> {
+                started.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                }
+            });
+            pool.submit(2, runs::incrementAndGet);
+            started.await();
+
+            pool.cancel();
+            pool.awaitIdle();
+            assertEquals(1, interrupted.get());
+            assertEquals(0, runs.get());
+            assertEquals(0, pool.getQueueDepth());
+
+            // the worker carries on with new jobs
+            pool.submit(2, runs::incrementAndGet);
+            pool.awaitIdle();
+            assertEquals(1, runs.get());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package bamboo.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MultiSurtFilterTest {
+    @Test
+    public void shouldReturnAcceptingFilters() {
+        MultiSurtFilter filter = new MultiSurtFilter(Arrays.asList(
+                new SurtFilter(""),
+                new SurtFilter("-\n+(au,gov,"),
+                new SurtFilter("-(au,gov,nla,")));
+        assertEquals(bits(0, 1), filter.accepting("(au,gov,nla,www,)/"));
+        assertEquals(bits(0, 1, 2), filter.accepting("(au,gov,act,)/"));
+        assertEquals(bits(0, 2), filter.accepting("(com,example,)/"));
+    }
+
+    @Test
+    public void shouldAgreeWithIndividualFilters() {
+        Random random = new Random(7);
+        List<SurtFilter> filters = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            filters.add(new SurtFilter(SurtFilterBenchmark.generateRules(random, 500)));
+        }
+        MultiSurtFilter multi = new MultiSurtFilter(filters);
+        for (String surt : SurtFilterBenchmark.generateSurts(random, 2000)) {
+            BitSet expected = new BitSet();
+            for (int i = 0; i < filters.size(); i++) {
+                if (filters.get(i).accepts(surt)) {
+                    expected.set(i);
+                }
+            }
+            assertEquals(surt, expected, multi.accepting(surt));
+        }
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet bits = new BitSet();
+        for (int i : indexes) {
+            bits.set(i);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,48 @@
+package bamboo.util;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.*;
+
+public class PagerTest {
+
+    private static List<Long> ids(long from, long to) {
+        return LongStream.rangeClosed(from, to).boxed().collect(Collectors.toList());
+    }
+
+    @Test
+    public void shouldSeekPastLastIdWhenGiven() {
+        Pager<Long> pager = Pager.keyset(2, 100, 250,
+                (afterId, limit) -> ids(afterId + 1, Math.min(afterId + limit, 250)),
+                (limit, offset) -> { throw new AssertionError("should not use offset"); },
+                Long::longValue);
+        assertEquals(Long.valueOf(101), pager.items.get(0));
+        assertEquals(200, pager.nextAfter);
+        assertEquals(3, pager.lastPage);
+    }
+
+    @Test
+    public void shouldFallBackToOffsetForNumberedPages() {
+        Pager<Long> pager = Pager.keyset(3, -1, 250,
+                (afterId, limit) -> { throw new AssertionError("should not seek"); },
+                (limit, offset) -> ids(offset + 1, Math.min(offset + limit, 250)),
+                Long::longValue);
+        assertEquals(Long.valueOf(201), pager.items.get(0));
+        assertEquals(-1, pager.nextAfter);
+        assertEquals(3, pager.lastPage);
+    }
+
+    @Test
+    public void shouldTrustResultsOverStaleTotal() {
+        // total cached before another 200 items were added
+        Pager<Long> pager = Pager.keyset(2, 100, 150,
+                (afterId, limit) -> ids(afterId + 1, afterId + limit),
+                (limit, offset) -> ids(offset + 1, offset + limit),
+                Long::longValue);
+        assertEquals(3, pager.lastPage);
+    }
+}
@@ -0,0 +1,25 @@
+package bamboo.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SitesTest {
+    @Test
+    public void shouldMapHostsToSites() {
+        assertEquals("nla.gov.au", Sites.topPrivateDomain("www.nla.gov.au"));
+        assertEquals("example.org", Sites.topPrivateDomain("a.b.example.org"));
+        assertEquals("192.168.0.1", Sites.topPrivateDomain("192.168.0.1"));
+        assertEquals("intranet", Sites.topPrivateDomain("www2.intranet"));
+    }
+
+    @Test
+    public void repeatedHostsShouldHitTheCache() {
+        long hits = Sites.stats().hitCount();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("example.com", Sites.topPrivateDomain("shop.example.com"));
+        }
+        assertTrue(Sites.stats().hitCount() - hits >= 9);
+    }
+}
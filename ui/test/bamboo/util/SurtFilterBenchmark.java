@@ -0,0 +1,123 @@
+package bamboo.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the trie based SurtFilter with the original linear scan on generated rule lists shaped like real
+ * collection filters: whole domains accepted with scattered path exclusions beneath them.
+ *
+ * Run main() with the test classpath after mvn test-compile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SurtFilterBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    int ruleCount;
+
+    SurtFilter trie;
+    LinearSurtFilter linear;
+    List<String> surts;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        String rules = generateRules(random, ruleCount);
+        trie = new SurtFilter(rules);
+        linear = new LinearSurtFilter(rules);
+        surts = generateSurts(random, 1000);
+    }
+
+    @Benchmark
+    public void trie(Blackhole bh) {
+        for (String surt : surts) {
+            bh.consume(trie.accepts(surt));
+        }
+    }
+
+    @Benchmark
+    public void linear(Blackhole bh) {
+        for (String surt : surts) {
+            bh.consume(linear.accepts(surt));
+        }
+    }
+
+    static final String[] SUFFIXES = {"(au,gov,", "(au,com,", "(au,org,", "(au,edu,", "(com,", "(org,"};
+
+    static String domain(Random random) {
+        return SUFFIXES[random.nextInt(SUFFIXES.length)] + "site" + random.nextInt(5000) + ",";
+    }
+
+    static String generateRules(Random random, int count) {
+        StringBuilder sb = new StringBuilder("-\n");
+        for (int i = 0; i < count; i++) {
+            String domain = domain(random);
+            switch (random.nextInt(4)) {
+                case 0:
+                    sb.append("-").append(domain).append(")/private/").append(random.nextInt(100)).append('\n');
+                    break;
+                case 1:
+                    sb.append("+").append(domain).append("www,)/").append('\n');
+                    break;
+                default:
+                    sb.append("+").append(domain).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    static List<String> generateSurts(Random random, int count) {
+        List<String> surts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String domain = domain(random);
+            String host = random.nextBoolean() ? domain + "www," : domain;
+            surts.add(host + ")/" + (random.nextBoolean() ? "private/" : "public/") + random.nextInt(100) + "/index.html");
+        }
+        return surts;
+    }
+
+    /**
+     * The original implementation which tries every rule against every SURT.
+     */
+    static class LinearSurtFilter {
+        final List<String> prefixes = new ArrayList<>();
+        final List<Boolean> policies = new ArrayList<>();
+
+        LinearSurtFilter(String ruleList) {
+            for (String line : ruleList.split("\n")) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    policies.add(line.startsWith("+"));
+                    prefixes.add(line.substring(1));
+                }
+            }
+        }
+
+        boolean accepts(String surt) {
+            boolean decision = true;
+            for (int i = 0; i < prefixes.size(); i++) {
+                if (surt.startsWith(prefixes.get(i))) {
+                    decision = policies.get(i);
+                }
+            }
+            return decision;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SurtFilterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -3,6 +3,8 @@ package bamboo.util;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
+import java.util.Random;
+
 public class SurtFilterTest {
     @Test
     public void emptyFilterShouldAccept() {
@@ -16,4 +18,24 @@ public class SurtFilterTest {
         assertFalse(filter.accepts("(au,gov,act,www,)/"));
         assertTrue(filter.accepts("(au,gov,nla,www,)/fish.html"));
     }
+
+    @Test
+    public void laterRulesShouldOverrideShorterPrefixes() {
+        SurtFilter filter = new SurtFilter("-(au,gov,nla,\n+(au,gov,\n+(au,gov,nla,www,)/x\n-(au,gov,nla,www,)/x");
+        assertTrue(filter.accepts("(au,gov,nla,www,)/"));
+        assertFalse(filter.accepts("(au,gov,nla,www,)/x/y"));
+        assertTrue(filter.accepts("(au,gov,act,)/"));
+        assertTrue(filter.accepts("(au,gov"));
+    }
+
+    @Test
+    public void shouldAgreeWithLinearScan() {
+        Random random = new Random(42);
+        String rules = SurtFilterBenchmark.generateRules(random, 2000);
+        SurtFilter filter = new SurtFilter(rules);
+        SurtFilterBenchmark.LinearSurtFilter linear = new SurtFilterBenchmark.LinearSurtFilter(rules);
+        for (String surt : SurtFilterBenchmark.generateSurts(random, 5000)) {
+            assertEquals(surt, linear.accepts(surt), filter.accepts(surt));
+        }
+    }
 }
@@ -0,0 +1,70 @@
+package bamboo.util;
+
+import org.archive.url.SURT;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SurtsTest {
+
+    private static String expected(String url) {
+        return SURT.toSURT(Urls.removeScheme(url));
+    }
+
+    @Test
+    public void shouldConvertCommonUrls() {
+        assertEquals("(au,gov,nla,www,", Surts.toSchemelessSurt("http://www.nla.gov.au/"));
+        assertEquals("(au,gov,nla,www,", Surts.toSchemelessSurt("https://www.nla.gov.au"));
+        assertEquals("(au,gov,nla,www,)/a?b=c", Surts.toSchemelessSurt("http://WWW.NLA.gov.au/A?B=C"));
+        assertEquals("(au,gov,nla,www,)/?x=1", Surts.toSchemelessSurt("http://www.nla.gov.au?x=1"));
+        assertNotNull(Surts.fastSurt("http://www.nla.gov.au/foo/bar.html?x=1", 7));
+    }
+
+    @Test
+    public void shouldFallBackForUnusualUrls() {
+        String[] urls = {
+                "http://www.nla.gov.au:8080/x", "http://1.2.3.4:80/x", "http://1.2.3.4/x", "http://user@www.nla.gov.au/x",
+                "http://nla.gov.au./x", "http://www.nla.gov.au/a/./b", "http://www.nla.gov.au/a/../b",
+                "http://www.nla.gov.au/a b", "http://www.nla.gov.au/x#frag", "http://www.nla.gov.au/a%2Fb",
+                "http://example.com/a{b}", "(au,gov,nla,www,)/", "www.nla.gov.au/x", "localhost/x", "http://xn--bcher-kva.de/ü",
+                "dns:www.nla.gov.au", "http://www.nla.gov.au/.well-known/x", "http://www.nla.gov.au/a/..", "http://www.nla.gov.au/a/."
+        };
+        for (String url : urls) {
+            assertEquals(url, expected(url), Surts.toSchemelessSurt(url));
+        }
+    }
+
+    @Test
+    public void shouldAgreeWithSurtOnRandomUrls() {
+        Random random = new Random(Long.getLong("seed", 1));
+        String hostChars = "abcXYZ019-.";
+        String plainChars = "aBz09-._~/?=&;,:+!$'()*@";
+        String oddChars = plainChars + "%#| .\"{}[]^`\\é";
+        String[] schemes = {"http://", "https://", "HTTP://", "ftp://", "", "http:/"};
+        for (int i = 0; i < 20000; i++) {
+            String pathChars = random.nextBoolean() ? plainChars : oddChars;
+            StringBuilder url = new StringBuilder(schemes[random.nextInt(schemes.length)]);
+            int hostLen = 1 + random.nextInt(12);
+            for (int j = 0; j < hostLen; j++) {
+                url.append(hostChars.charAt(random.nextInt(hostChars.length())));
+            }
+            if (random.nextBoolean()) {
+                url.append(".com.au");
+            }
+            int pathLen = random.nextInt(12);
+            for (int j = 0; j < pathLen; j++) {
+                url.append(pathChars.charAt(random.nextInt(pathChars.length())));
+            }
+            String s = url.toString();
+            String expected;
+            try {
+                expected = expected(s);
+            } catch (RuntimeException e) {
+                continue;
+            }
+            assertEquals(s, expected, Surts.toSchemelessSurt(s));
+        }
+    }
+}